@@ -0,0 +1,398 @@
+package jlox;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Flat encoding of a parsed program.
+ *
+ * Node i is (op[i], x[i], y[i], z[i], line[i]), children are referred to by
+ * index, literals by index into constants, variable names by index into
+ * names and statement lists are runs of node indices in lists.
+ *
+ *	op						x						y							z
+ *	LITERAL				constant
+ *	VARIABLE			name
+ *	ASSIGN				name				value
+ *	NEGATE, NOT		operand
+ *	ADD .. NOT_EQUAL	left		right
+ *	EXPRESSION		expr
+ *	PRINT					expr
+ *	VAR						name				initializer or -1
+ *	BLOCK					list start	list length
+ *	IF						condition		then					else or -1
+ *	CALL					callee			list start		list length
+ *	INDEX					array				index
+ *	STORE					array				index					value
+ *	LENGTH				array
+ *
+ * Groupings only change the shape of the tree, so they leave no node.
+ */
+final class Arena {
+	static final int LITERAL = 0;
+	static final int VARIABLE = 1;
+	static final int ASSIGN = 2;
+	static final int NEGATE = 3;
+	static final int NOT = 4;
+	static final int ADD = 5;
+	static final int SUBTRACT = 6;
+	static final int MULTIPLY = 7;
+	static final int DIVIDE = 8;
+	static final int GREATER = 9;
+	static final int GREATER_EQUAL = 10;
+	static final int LESS = 11;
+	static final int LESS_EQUAL = 12;
+	static final int EQUAL = 13;
+	static final int NOT_EQUAL = 14;
+	static final int EXPRESSION = 15;
+	static final int PRINT = 16;
+	static final int VAR = 17;
+	static final int BLOCK = 18;
+	static final int IF = 19;
+	static final int CALL = 20;
+	static final int INDEX = 21;
+	static final int STORE = 22;
+	static final int LENGTH = 23;
+
+	// operator token of each operator opcode, for error reporting
+	private static final TokenType[] OPERATORS = {
+		null, null, null, TokenType.MINUS, TokenType.BANG,
+		TokenType.PLUS, TokenType.MINUS, TokenType.STAR, TokenType.SLASH,
+		TokenType.GREATER, TokenType.GREATER_EQUAL, TokenType.LESS,
+		TokenType.LESS_EQUAL, TokenType.EQUAL_EQUAL, TokenType.BANG_EQUAL,
+	};
+
+	byte[] op;
+	int[] x, y, z, line;
+	int size = 0;
+
+	int[] lists;
+	int listSize = 0;
+
+	Object[] constants = new Object[16];
+	int constantCount = 0;
+	String[] names = new String[16];
+	int nameCount = 0;
+
+	// top level statements, a run in lists once the program is complete
+	int programStart = 0;
+	int programLength = 0;
+	private int[] program = new int[16];
+
+	// stands in for nil in constantIndex
+	private static final Object NIL = new Object();
+	private final Map<Object, Integer> constantIndex = new HashMap<>();
+	private final Map<String, Integer> nameIndex = new HashMap<>();
+	private final Builder builder = new Builder();
+
+	Arena() {
+		this(64);
+	}
+
+	// every node consumes at least one token of its own, so parsing n tokens
+	// never needs more than n nodes
+	Arena(int capacity) {
+		op = new byte[capacity];
+		x = new int[capacity];
+		y = new int[capacity];
+		z = new int[capacity];
+		line = new int[capacity];
+		lists = new int[capacity];
+	}
+
+	static Token operator(int op, int line) {
+		TokenType type = OPERATORS[op];
+		return new Token(type, "", null, line);
+	}
+
+	void add(Stmt stmt) {
+		int node = builder.build(stmt);
+		if(programLength == program.length)
+			program = Arrays.copyOf(program, programLength * 2);
+		program[programLength++] = node;
+	}
+
+	// appends the top level list, trims the arrays and releases the building
+	// state
+	Arena finish() {
+		programStart = list(program, programLength);
+		program = null;
+		op = Arrays.copyOf(op, size);
+		x = Arrays.copyOf(x, size);
+		y = Arrays.copyOf(y, size);
+		z = Arrays.copyOf(z, size);
+		line = Arrays.copyOf(line, size);
+		lists = Arrays.copyOf(lists, listSize);
+		constantIndex.clear();
+		nameIndex.clear();
+		return this;
+	}
+
+	static Arena of(List<Stmt> statements) {
+		Arena arena = new Arena();
+		for(Stmt stmt: statements)
+			arena.add(stmt);
+		return arena.finish();
+	}
+
+	private int node(int code, int a, int b, int c, int l) {
+		if(size == op.length) {
+			int n = Math.max(16, size * 2);
+			op = Arrays.copyOf(op, n);
+			x = Arrays.copyOf(x, n);
+			y = Arrays.copyOf(y, n);
+			z = Arrays.copyOf(z, n);
+			line = Arrays.copyOf(line, n);
+		}
+		op[size] = (byte)code;
+		x[size] = a;
+		y[size] = b;
+		z[size] = c;
+		line[size] = l;
+		return size++;
+	}
+
+	private int list(int[] nodes, int length) {
+		while(listSize + length > lists.length)
+			lists = Arrays.copyOf(lists, Math.max(16, lists.length * 2));
+		System.arraycopy(nodes, 0, lists, listSize, length);
+		int start = listSize;
+		listSize += length;
+		return start;
+	}
+
+	// strings, booleans and nil are shared, numbers are not: integral doubles
+	// hash poorly and the literal already holds its boxed value
+	private int constant(Object value) {
+		if(value == null) value = NIL;
+		boolean shared = !(value instanceof Double);
+		if(shared) {
+			Integer index = constantIndex.get(value);
+			if(index != null)
+				return index;
+		}
+		if(constantCount == constants.length)
+			constants = Arrays.copyOf(constants, constantCount * 2);
+		constants[constantCount] = value == NIL ? null : value;
+		if(shared)
+			constantIndex.put(value, constantCount);
+		return constantCount++;
+	}
+
+	private int name(String name) {
+		Integer index = nameIndex.get(name);
+		if(index != null)
+			return index;
+		if(nameCount == names.length)
+			names = Arrays.copyOf(names, nameCount * 2);
+		names[nameCount] = name;
+		nameIndex.put(name, nameCount);
+		return nameCount++;
+	}
+
+	private static int binary(TokenType type) {
+		switch(type) {
+			case PLUS: return ADD;
+			case MINUS: return SUBTRACT;
+			case STAR: return MULTIPLY;
+			case SLASH: return DIVIDE;
+			case GREATER: return GREATER;
+			case GREATER_EQUAL: return GREATER_EQUAL;
+			case LESS: return LESS;
+			case LESS_EQUAL: return LESS_EQUAL;
+			case EQUAL_EQUAL: return EQUAL;
+			case BANG_EQUAL: return NOT_EQUAL;
+		}
+		throw new IllegalArgumentException(type.toString());
+	}
+
+	private class Builder implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
+		// statements and literals carry no token, they get the line of the
+		// last token seen while building them
+		private int lastLine = 1;
+		// index of the node built by the last visit
+		private int result;
+
+		int build(Stmt stmt) {
+			stmt.accept(this);
+			return result;
+		}
+
+		int build(Expr expr) {
+			expr.accept(this);
+			return result;
+		}
+
+		@Override
+		public Void visitBlockStmt(Stmt.Block stmt) {
+			int line = lastLine;
+			int[] children = new int[stmt.statements.size()];
+			for(int i = 0; i < children.length; i++)
+				children[i] = build(stmt.statements.get(i));
+			result = node(BLOCK, list(children, children.length), children.length, 0, line);
+			return null;
+		}
+
+		@Override
+		public Void visitExpressionStmt(Stmt.Expression stmt) {
+			int expr = build(stmt.expression);
+			result = node(EXPRESSION, expr, 0, 0, lastLine);
+			return null;
+		}
+
+		@Override
+		public Void visitIfStmt(Stmt.If stmt) {
+			int condition = build(stmt.condition);
+			int line = lastLine;
+			int then = build(stmt.thenBranch);
+			int otherwise = stmt.elseBranch != null ? build(stmt.elseBranch) : -1;
+			result = node(IF, condition, then, otherwise, line);
+			return null;
+		}
+
+		// an arena is built up front, so deferred bodies are parsed right away
+		@Override
+		public Void visitLazyStmt(Stmt.Lazy stmt) {
+			visitBlockStmt(new Stmt.Block(stmt.body.statements()));
+			return null;
+		}
+
+		@Override
+		public Void visitPrintStmt(Stmt.Print stmt) {
+			int expr = build(stmt.expression);
+			result = node(PRINT, expr, 0, 0, lastLine);
+			return null;
+		}
+
+		@Override
+		public Void visitVarStmt(Stmt.Var stmt) {
+			lastLine = stmt.name.line;
+			int initializer = stmt.initializer != null ? build(stmt.initializer) : -1;
+			result = node(VAR, name(stmt.name.lexeme), initializer, 0, stmt.name.line);
+			return null;
+		}
+
+		@Override
+		public Void visitAssignExpr(Expr.Assign expr) {
+			lastLine = expr.name.line;
+			int value = build(expr.value);
+			result = node(ASSIGN, name(expr.name.lexeme), value, 0, expr.name.line);
+			return null;
+		}
+
+		@Override
+		public Void visitVariableExpr(Expr.Variable expr) {
+			lastLine = expr.name.line;
+			result = node(VARIABLE, name(expr.name.lexeme), 0, 0, expr.name.line);
+			return null;
+		}
+
+		@Override
+		public Void visitUnaryExpr(Expr.Unary expr) {
+			int operand = build(expr.right);
+			int code = expr.operator.type == TokenType.BANG ? NOT : NEGATE;
+			result = node(code, operand, 0, 0, expr.operator.line);
+			return null;
+		}
+
+		@Override
+		public Void visitBinaryExpr(Expr.Binary expr) {
+			int left = build(expr.left);
+			lastLine = expr.operator.line;
+			int right = build(expr.right);
+			result = node(binary(expr.operator.type), left, right, 0, expr.operator.line);
+			return null;
+		}
+
+		@Override
+		public Void visitCallExpr(Expr.Call expr) {
+			int callee = build(expr.callee);
+			int[] arguments = new int[expr.arguments.size()];
+			for(int i = 0; i < arguments.length; i++)
+				arguments[i] = build(expr.arguments.get(i));
+			lastLine = expr.paren.line;
+			result = node(CALL, callee, list(arguments, arguments.length), arguments.length, expr.paren.line);
+			return null;
+		}
+
+		@Override
+		public Void visitIndexExpr(Expr.Index expr) {
+			int array = build(expr.array);
+			int index = build(expr.index);
+			lastLine = expr.bracket.line;
+			result = node(INDEX, array, index, 0, expr.bracket.line);
+			return null;
+		}
+
+		@Override
+		public Void visitStoreExpr(Expr.Store expr) {
+			int array = build(expr.array);
+			int index = build(expr.index);
+			lastLine = expr.bracket.line;
+			int value = build(expr.value);
+			result = node(STORE, array, index, value, expr.bracket.line);
+			return null;
+		}
+
+		@Override
+		public Void visitLengthExpr(Expr.Length expr) {
+			int array = build(expr.array);
+			lastLine = expr.name.line;
+			result = node(LENGTH, array, 0, 0, expr.name.line);
+			return null;
+		}
+
+		@Override
+		public Void visitGroupingExpr(Expr.Grouping expr) {
+			build(expr.expression);
+			return null;
+		}
+
+		// the arena does not share values, it computes them again
+		@Override
+		public Void visitShareExpr(Expr.Share expr) {
+			build(expr.expression);
+			return null;
+		}
+
+		@Override
+		public Void visitReuseExpr(Expr.Reuse expr) {
+			build(expr.expression);
+			return null;
+		}
+
+		// the arena interpreter checks operands itself
+		@Override
+		public Void visitUncheckedExpr(Expr.Unchecked expr) {
+			build(expr.expression);
+			return null;
+		}
+
+		@Override
+		public Void visitSpeculatedExpr(Expr.Speculated expr) {
+			build(expr.expression);
+			return null;
+		}
+
+		// arenas run without probes
+		@Override
+		public Void visitProbeStmt(Stmt.Probe stmt) {
+			build(stmt.statement);
+			return null;
+		}
+
+		@Override
+		public Void visitProbeExpr(Expr.Probe expr) {
+			build(expr.expression);
+			return null;
+		}
+
+		@Override
+		public Void visitLiteralExpr(Expr.Literal expr) {
+			result = node(LITERAL, constant(expr.value), 0, 0, lastLine);
+			return null;
+		}
+	}
+}
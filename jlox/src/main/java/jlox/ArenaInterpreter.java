@@ -0,0 +1,169 @@
+package jlox;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static jlox.Arena.*;
+
+/*
+ * Runs an Arena directly, with the same semantics and errors as Interpreter.
+ */
+class ArenaInterpreter {
+	private Environment environment;
+	private final PrintStream out;
+
+	private byte[] op;
+	private int[] x, y, z, line, lists;
+	private Object[] constants;
+	private String[] names;
+
+	ArenaInterpreter() {
+		this(System.out);
+	}
+
+	ArenaInterpreter(PrintStream out) {
+		this(out, new Environment());
+		LoxArray.defineNatives(environment);
+	}
+
+	// globals may be a SharedEnvironment that other threads run in as well
+	ArenaInterpreter(PrintStream out, Environment globals) {
+		this.out = out;
+		this.environment = globals;
+	}
+
+	void interpret(Arena arena) {
+		op = arena.op;
+		x = arena.x;
+		y = arena.y;
+		z = arena.z;
+		line = arena.line;
+		lists = arena.lists;
+		constants = arena.constants;
+		names = arena.names;
+		try {
+			int end = arena.programStart + arena.programLength;
+			for(int i = arena.programStart; i < end; i++)
+				execute(lists[i]);
+		} catch(RuntimeError error) {
+			Lox.runtimeError(error);
+		}
+	}
+
+	private void execute(int node) {
+		switch(op[node]) {
+			case EXPRESSION:
+				evaluate(x[node]);
+				return;
+			case PRINT:
+				out.println(Interpreter.stringify(evaluate(x[node])));
+				return;
+			case VAR: {
+				Object value = null;
+				if(y[node] >= 0)
+					value = evaluate(y[node]);
+				environment.define(names[x[node]], value);
+				return;
+			}
+			case BLOCK: {
+				Environment previous = environment;
+				try {
+					environment = new Environment(previous);
+					int end = x[node] + y[node];
+					for(int i = x[node]; i < end; i++)
+						execute(lists[i]);
+				} finally {
+					environment = previous;
+				}
+				return;
+			}
+			case IF:
+				if(Interpreter.isTruthy(evaluate(x[node])))
+					execute(y[node]);
+				else if(z[node] >= 0)
+					execute(z[node]);
+				return;
+		}
+		throw new IllegalStateException("not a statement: " + op[node]);
+	}
+
+	private Object evaluate(int node) {
+		int code = op[node];
+		switch(code) {
+			case LITERAL:
+				return constants[x[node]];
+			case VARIABLE:
+				return environment.get(names[x[node]], line[node]);
+			case ASSIGN: {
+				Object value = evaluate(y[node]);
+				environment.assign(names[x[node]], line[node], value);
+				return value;
+			}
+			case NOT:
+				return !Interpreter.isTruthy(evaluate(x[node]));
+			case CALL: {
+				Object callee = evaluate(x[node]);
+				List<Object> arguments = new ArrayList<>(z[node]);
+				int end = y[node] + z[node];
+				for(int i = y[node]; i < end; i++)
+					arguments.add(evaluate(lists[i]));
+				return Interpreter.call(token(TokenType.RIGHT_PAREN, node), callee, arguments);
+			}
+			case INDEX: {
+				Object array = evaluate(x[node]);
+				Object index = evaluate(y[node]);
+				return LoxArray.index(token(TokenType.RIGHT_BRACKET, node), array, index);
+			}
+			case STORE: {
+				Object array = evaluate(x[node]);
+				Object index = evaluate(y[node]);
+				Object value = evaluate(z[node]);
+				return LoxArray.store(token(TokenType.RIGHT_BRACKET, node), array, index, value);
+			}
+			case LENGTH:
+				return LoxArray.length(token(TokenType.IDENTIFIER, node), evaluate(x[node]));
+			case NEGATE: {
+				Object right = evaluate(x[node]);
+				if(!(right instanceof Double))
+					throw new RuntimeError(operator(code, line[node]), "Operand must be a number.");
+				return -(double)right;
+			}
+		}
+
+		Object left = evaluate(x[node]);
+		Object right = evaluate(y[node]);
+		switch(code) {
+			case EQUAL:
+				return Interpreter.isEqual(left, right);
+			case NOT_EQUAL:
+				return !Interpreter.isEqual(left, right);
+			case ADD:
+				if(left instanceof Double && right instanceof Double)
+					return (double)left + (double)right;
+				if(left instanceof String && right instanceof String)
+					return (String)left + (String)right;
+				return null;
+		}
+
+		if(!(left instanceof Double && right instanceof Double))
+			throw new RuntimeError(operator(code, line[node]), "Operands must be numbers.");
+		double a = (double)left;
+		double b = (double)right;
+		switch(code) {
+			case SUBTRACT: return a - b;
+			case MULTIPLY: return a * b;
+			case DIVIDE: return a / b;
+			case GREATER: return a > b;
+			case GREATER_EQUAL: return a >= b;
+			case LESS: return a < b;
+			case LESS_EQUAL: return a <= b;
+		}
+		throw new IllegalStateException("not an expression: " + code);
+	}
+
+	// the arena keeps lines, not tokens
+	private Token token(TokenType type, int node) {
+		return new Token(type, "", null, line[node]);
+	}
+}
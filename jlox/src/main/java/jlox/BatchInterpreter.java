@@ -0,0 +1,575 @@
+package jlox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Runs a script once per record over columns of input, the way a rules
+ * language runs, with the same results as one Interpreter per record.
+ *
+ * Records go through in batches of BATCH. Every expression evaluates to a
+ * Column holding its value for each row of the batch, and the environments
+ * hold Columns instead of values. Numbers and booleans live in double[] and
+ * boolean[], so operators on them are single loops over the batch. Other
+ * values, and operators that might fail, go row by row through
+ * Interpreter's own unary and binary.
+ *
+ * The rows a statement runs for are a selection vector: an if statement
+ * splits it by its condition and runs each branch for its part. A runtime
+ * error stops its row only, the others go on. Columns are never changed
+ * once made, an assignment to part of the rows makes a new one.
+ *
+ *	BatchInterpreter batch = new BatchInterpreter(records);
+ *	batch.bind("price", prices);
+ *	batch.interpret(statements);
+ *	batch.output(i), batch.error(i)
+ */
+final class BatchInterpreter implements Stmt.Visitor<Void>, Expr.Visitor<BatchInterpreter.Column> {
+	static final int BATCH = 1024;
+
+	// the values of an expression for the rows of a batch, exactly one of
+	// the arrays is set, rows that are not selected hold anything
+	static final class Column {
+		final double[] numbers;
+		final boolean[] booleans;
+		final Object[] objects;
+
+		Column(double[] numbers) {
+			this(numbers, null, null);
+		}
+
+		Column(boolean[] booleans) {
+			this(null, booleans, null);
+		}
+
+		Column(Object[] objects) {
+			this(null, null, objects);
+		}
+
+		private Column(double[] numbers, boolean[] booleans, Object[] objects) {
+			this.numbers = numbers;
+			this.booleans = booleans;
+			this.objects = objects;
+		}
+
+		Object get(int row) {
+			if(numbers != null)
+				return numbers[row];
+			if(booleans != null)
+				return booleans[row];
+			return objects[row];
+		}
+
+		boolean isTruthy(int row) {
+			if(numbers != null)
+				return true;
+			if(booleans != null)
+				return booleans[row];
+			return Interpreter.isTruthy(objects[row]);
+		}
+	}
+
+	private static final Column NIL = new Column(new Object[BATCH]);
+
+	private final int records;
+	private final Map<String, Object> inputs = new HashMap<>();
+	private final Environment natives = new Environment();
+	private final StringBuilder[] outputs;
+	private final RuntimeError[] errors;
+
+	// the batch being run
+	private int base;
+	private int rows;
+	private Environment environment;
+	private final boolean[] stopped = new boolean[BATCH];
+	private int stops;
+	private Column[] shared = new Column[16];
+	private final Map<Expr.Literal, Column> literals = new IdentityHashMap<>();
+
+	// the rows that run, in order, and the stops already taken out of them
+	private int[] selection;
+	private int selected;
+	private int pruned;
+
+	BatchInterpreter(int records) {
+		this.records = records;
+		this.outputs = new StringBuilder[records];
+		this.errors = new RuntimeError[records];
+		LoxArray.defineNatives(natives);
+	}
+
+	// the global name holds column[i] for record i, column having a value
+	// for every record
+	void bind(String name, double[] column) {
+		inputs.put(name, checked(name, column, column.length));
+	}
+
+	void bind(String name, boolean[] column) {
+		inputs.put(name, checked(name, column, column.length));
+	}
+
+	void bind(String name, String[] column) {
+		inputs.put(name, checked(name, column, column.length));
+	}
+
+	private Object checked(String name, Object column, int length) {
+		if(length != records)
+			throw new IllegalArgumentException("column " + name + " has " + length
+				+ " values for " + records + " records");
+		return column;
+	}
+
+	void interpret(List<Stmt> statements) {
+		for(base = 0; base < records; base += BATCH) {
+			rows = Math.min(BATCH, records - base);
+			// natives a batch assigns to are its own
+			environment = new Environment(natives.copy());
+			for(Map.Entry<String, Object> input: inputs.entrySet())
+				environment.define(input.getKey(), slice(input.getValue()));
+			Arrays.fill(stopped, false);
+			stops = 0;
+			selection = new int[rows];
+			for(int i = 0; i < rows; i++)
+				selection[i] = i;
+			selected = rows;
+			pruned = 0;
+			for(Stmt statement: statements)
+				execute(statement);
+		}
+	}
+
+	// what print wrote for the record
+	String output(int record) {
+		return outputs[record] != null ? outputs[record].toString() : "";
+	}
+
+	// the error that stopped the record, null if it ran to the end
+	RuntimeError error(int record) {
+		return errors[record];
+	}
+
+	private Column slice(Object input) {
+		int end = base + BATCH;
+		if(input instanceof double[])
+			return new Column(Arrays.copyOfRange((double[])input, base, end));
+		if(input instanceof boolean[])
+			return new Column(Arrays.copyOfRange((boolean[])input, base, end));
+		return new Column(Arrays.copyOfRange((Object[])input, base, end, Object[].class));
+	}
+
+	private void stop(int row, RuntimeError error) {
+		stopped[row] = true;
+		errors[base + row] = error;
+		stops++;
+	}
+
+	private void stopAll(RuntimeError error) {
+		for(int i = 0; i < selected; i++)
+			stop(selection[i], error);
+	}
+
+	// takes the rows stopped since the last call out of the selection
+	private void prune() {
+		if(pruned == stops)
+			return;
+		int n = 0;
+		for(int i = 0; i < selected; i++)
+			if(!stopped[selection[i]])
+				selection[n++] = selection[i];
+		selected = n;
+		pruned = stops;
+	}
+
+	private void execute(Stmt stmt) {
+		prune();
+		if(selected > 0)
+			stmt.accept(this);
+	}
+
+	private Column evaluate(Expr expr) {
+		prune();
+		if(selected == 0)
+			return NIL;
+		Column column = expr.accept(this);
+		prune();
+		return column;
+	}
+
+	@Override
+	public Void visitBlockStmt(Stmt.Block stmt) {
+		executeBlock(stmt.statements, new Environment(environment));
+		return null;
+	}
+
+	private void executeBlock(List<Stmt> statements, Environment environment) {
+		Environment previous = this.environment;
+		try {
+			this.environment = environment;
+			for(Stmt s: statements)
+				execute(s);
+		} finally {
+			this.environment = previous;
+		}
+	}
+
+	@Override
+	public Void visitExpressionStmt(Stmt.Expression stmt) {
+		evaluate(stmt.expression);
+		return null;
+	}
+
+	@Override
+	public Void visitIfStmt(Stmt.If stmt) {
+		Column condition = evaluate(stmt.condition);
+		int[] outer = selection;
+		int count = selected;
+		int outerPruned = pruned;
+		int[] thens = new int[count];
+		int[] elses = new int[count];
+		int t = 0;
+		int e = 0;
+		// every row goes to both and only counts in one, rather than a
+		// branch per row the CPU cannot predict
+		for(int i = 0; i < count; i++) {
+			int row = outer[i];
+			int truthy = condition.isTruthy(row) ? 1 : 0;
+			thens[t] = row;
+			elses[e] = row;
+			t += truthy;
+			e += 1 - truthy;
+		}
+		try {
+			branch(stmt.thenBranch, thens, t);
+			if(stmt.elseBranch != null)
+				branch(stmt.elseBranch, elses, e);
+		} finally {
+			selection = outer;
+			selected = count;
+			pruned = outerPruned;
+		}
+		return null;
+	}
+
+	private void branch(Stmt stmt, int[] rows, int count) {
+		selection = rows;
+		selected = count;
+		pruned = stops;
+		execute(stmt);
+	}
+
+	@Override
+	public Void visitLazyStmt(Stmt.Lazy stmt) {
+		List<Stmt> statements;
+		try {
+			statements = stmt.body.statements();
+		} catch(Parser.ParseError error) {
+			// already reported, the rows stop like the whole program would
+			stopAll(null);
+			return null;
+		}
+		executeBlock(statements, new Environment(environment));
+		return null;
+	}
+
+	@Override
+	public Void visitPrintStmt(Stmt.Print stmt) {
+		Column value = evaluate(stmt.expression);
+		for(int i = 0; i < selected; i++) {
+			int row = selection[i];
+			StringBuilder output = outputs[base + row];
+			if(output == null)
+				output = outputs[base + row] = new StringBuilder();
+			output.append(Interpreter.stringify(value.get(row))).append('\n');
+		}
+		return null;
+	}
+
+	@Override
+	public Void visitVarStmt(Stmt.Var stmt) {
+		Column value = NIL;
+		if(stmt.initializer != null)
+			value = evaluate(stmt.initializer);
+		environment.define(stmt.name.lexeme, value);
+		return null;
+	}
+
+	@Override
+	public Column visitAssignExpr(Expr.Assign expr) {
+		Column value = evaluate(expr.value);
+		try {
+			// found here rather than with get, whose error is not assign's
+			Object old = Environment.UNDEFINED;
+			for(Environment scope = environment; scope != null && old == Environment.UNDEFINED; scope = scope.enclosing)
+				old = scope.lookup(expr.name.lexeme);
+			environment.assign(expr.name,
+				old != Environment.UNDEFINED ? merge(variable(old), value) : value);
+		} catch(RuntimeError error) {
+			stopAll(error);
+		}
+		return value;
+	}
+
+	// value for the selected rows, old for the rest
+	private Column merge(Column old, Column value) {
+		if(selected == rows)
+			return value;
+		if(old.numbers != null && value.numbers != null) {
+			double[] numbers = old.numbers.clone();
+			for(int i = 0; i < selected; i++)
+				numbers[selection[i]] = value.numbers[selection[i]];
+			return new Column(numbers);
+		}
+		if(old.booleans != null && value.booleans != null) {
+			boolean[] booleans = old.booleans.clone();
+			for(int i = 0; i < selected; i++)
+				booleans[selection[i]] = value.booleans[selection[i]];
+			return new Column(booleans);
+		}
+		Object[] objects = new Object[BATCH];
+		for(int row = 0; row < rows; row++)
+			objects[row] = old.get(row);
+		for(int i = 0; i < selected; i++)
+			objects[selection[i]] = value.get(selection[i]);
+		return new Column(objects);
+	}
+
+	@Override
+	public Column visitVariableExpr(Expr.Variable expr) {
+		try {
+			return variable(environment.get(expr.name));
+		} catch(RuntimeError error) {
+			stopAll(error);
+			return NIL;
+		}
+	}
+
+	// the natives are values, not columns
+	private Column variable(Object value) {
+		if(value instanceof Column)
+			return (Column)value;
+		Object[] objects = new Object[BATCH];
+		Arrays.fill(objects, value);
+		return new Column(objects);
+	}
+
+	@Override
+	public Column visitLiteralExpr(Expr.Literal expr) {
+		Column column = literals.get(expr);
+		if(column == null) {
+			Object value = expr.value;
+			if(value instanceof Double) {
+				double[] numbers = new double[BATCH];
+				Arrays.fill(numbers, (double)value);
+				column = new Column(numbers);
+			} else if(value instanceof Boolean) {
+				boolean[] booleans = new boolean[BATCH];
+				Arrays.fill(booleans, (boolean)value);
+				column = new Column(booleans);
+			} else {
+				column = variable(value);
+			}
+			literals.put(expr, column);
+		}
+		return column;
+	}
+
+	@Override
+	public Column visitGroupingExpr(Expr.Grouping expr) {
+		return evaluate(expr.expression);
+	}
+
+	@Override
+	public Column visitUnaryExpr(Expr.Unary expr) {
+		Column right = evaluate(expr.right);
+		switch(expr.operator.type) {
+			case MINUS:
+				if(right.numbers != null) {
+					double[] a = right.numbers;
+					double[] c = new double[BATCH];
+					for(int row = 0; row < rows; row++)
+						c[row] = -a[row];
+					return new Column(c);
+				}
+				break;
+			case BANG:
+				if(right.booleans != null) {
+					boolean[] a = right.booleans;
+					boolean[] c = new boolean[BATCH];
+					for(int row = 0; row < rows; row++)
+						c[row] = !a[row];
+					return new Column(c);
+				}
+				break;
+		}
+		return rowwise(row -> Interpreter.unary(expr.operator, right.get(row)));
+	}
+
+	@Override
+	public Column visitBinaryExpr(Expr.Binary expr) {
+		Column left = evaluate(expr.left);
+		Column right = evaluate(expr.right);
+		if(left.numbers != null && right.numbers != null)
+			return numbers(expr.operator.type, left.numbers, right.numbers);
+		if(left.booleans != null && right.booleans != null) {
+			TokenType type = expr.operator.type;
+			if(type == TokenType.EQUAL_EQUAL || type == TokenType.BANG_EQUAL) {
+				boolean[] a = left.booleans;
+				boolean[] b = right.booleans;
+				boolean[] c = new boolean[BATCH];
+				boolean equal = type == TokenType.EQUAL_EQUAL;
+				for(int row = 0; row < rows; row++)
+					c[row] = (a[row] == b[row]) == equal;
+				return new Column(c);
+			}
+		}
+		return rowwise(row -> Interpreter.binary(expr.operator, left.get(row), right.get(row)));
+	}
+
+	// binary operators on numbers cannot fail, they run for every row of
+	// the batch in one loop
+	private Column numbers(TokenType type, double[] a, double[] b) {
+		int n = rows;
+		if(type == TokenType.PLUS || type == TokenType.MINUS
+				|| type == TokenType.STAR || type == TokenType.SLASH) {
+			double[] c = new double[BATCH];
+			switch(type) {
+				case PLUS: for(int row = 0; row < n; row++) c[row] = a[row] + b[row]; break;
+				case MINUS: for(int row = 0; row < n; row++) c[row] = a[row] - b[row]; break;
+				case STAR: for(int row = 0; row < n; row++) c[row] = a[row] * b[row]; break;
+				default: for(int row = 0; row < n; row++) c[row] = a[row] / b[row]; break;
+			}
+			return new Column(c);
+		}
+		boolean[] c = new boolean[BATCH];
+		switch(type) {
+			case GREATER: for(int row = 0; row < n; row++) c[row] = a[row] > b[row]; break;
+			case GREATER_EQUAL: for(int row = 0; row < n; row++) c[row] = a[row] >= b[row]; break;
+			case LESS: for(int row = 0; row < n; row++) c[row] = a[row] < b[row]; break;
+			case LESS_EQUAL: for(int row = 0; row < n; row++) c[row] = a[row] <= b[row]; break;
+			// Double.equals, as Interpreter.isEqual compares
+			case EQUAL_EQUAL:
+				for(int row = 0; row < n; row++)
+					c[row] = Double.doubleToLongBits(a[row]) == Double.doubleToLongBits(b[row]);
+				break;
+			default:
+				for(int row = 0; row < n; row++)
+					c[row] = Double.doubleToLongBits(a[row]) != Double.doubleToLongBits(b[row]);
+				break;
+		}
+		return new Column(c);
+	}
+
+	@Override
+	public Column visitCallExpr(Expr.Call expr) {
+		Column callee = evaluate(expr.callee);
+		List<Column> arguments = new ArrayList<>(expr.arguments.size());
+		for(Expr argument: expr.arguments)
+			arguments.add(evaluate(argument));
+		return rowwise(row -> {
+			List<Object> values = new ArrayList<>(arguments.size());
+			for(Column argument: arguments)
+				values.add(argument.get(row));
+			return Interpreter.call(expr.paren, callee.get(row), values);
+		});
+	}
+
+	@Override
+	public Column visitIndexExpr(Expr.Index expr) {
+		Column array = evaluate(expr.array);
+		Column index = evaluate(expr.index);
+		return rowwise(row -> LoxArray.index(expr.bracket, array.get(row), index.get(row)));
+	}
+
+	@Override
+	public Column visitStoreExpr(Expr.Store expr) {
+		Column array = evaluate(expr.array);
+		Column index = evaluate(expr.index);
+		Column value = evaluate(expr.value);
+		return rowwise(row -> LoxArray.store(expr.bracket, array.get(row), index.get(row), value.get(row)));
+	}
+
+	@Override
+	public Column visitLengthExpr(Expr.Length expr) {
+		Column array = evaluate(expr.array);
+		return rowwise(row -> LoxArray.length(expr.name, array.get(row)));
+	}
+
+	@Override
+	public Column visitShareExpr(Expr.Share expr) {
+		Column value = evaluate(expr.expression);
+		if(expr.slot >= shared.length)
+			shared = Arrays.copyOf(shared, Math.max(expr.slot + 1, shared.length * 2));
+		shared[expr.slot] = value;
+		return value;
+	}
+
+	@Override
+	public Column visitReuseExpr(Expr.Reuse expr) {
+		return shared[expr.slot];
+	}
+
+	// the columns already take the fast loops where the operands are numbers
+	@Override
+	public Column visitUncheckedExpr(Expr.Unchecked expr) {
+		return evaluate(expr.expression);
+	}
+
+	@Override
+	public Column visitSpeculatedExpr(Expr.Speculated expr) {
+		return evaluate(expr.expression);
+	}
+
+	// a batch has no one statement or value to stop at
+	@Override
+	public Void visitProbeStmt(Stmt.Probe stmt) {
+		stmt.statement.accept(this);
+		return null;
+	}
+
+	@Override
+	public Column visitProbeExpr(Expr.Probe expr) {
+		return evaluate(expr.expression);
+	}
+
+	private interface Row {
+		Object value(int row);
+	}
+
+	// one row at a time, for what might fail or is not a number or boolean
+	private Column rowwise(Row function) {
+		Object[] values = new Object[BATCH];
+		boolean numbers = true;
+		boolean booleans = true;
+		for(int i = 0; i < selected; i++) {
+			int row = selection[i];
+			try {
+				Object value = function.value(row);
+				values[row] = value;
+				numbers &= value instanceof Double;
+				booleans &= value instanceof Boolean;
+			} catch(RuntimeError error) {
+				stop(row, error);
+			}
+		}
+		// the rows that failed have no value
+		if(numbers) {
+			double[] c = new double[BATCH];
+			for(int i = 0; i < selected; i++)
+				if(!stopped[selection[i]])
+					c[selection[i]] = (double)values[selection[i]];
+			return new Column(c);
+		}
+		if(booleans) {
+			boolean[] c = new boolean[BATCH];
+			for(int i = 0; i < selected; i++)
+				if(!stopped[selection[i]])
+					c[selection[i]] = (boolean)values[selection[i]];
+			return new Column(c);
+		}
+		return new Column(values);
+	}
+}
@@ -0,0 +1,193 @@
+package jlox;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * The command line debugger of Lox.runFile, an Instrument on the probes
+ * attach puts on every statement and assignment of the script. It stops
+ * before the first line and then wherever it is told to:
+ *
+ *	step, s			run to the next line
+ *	continue, c		run to a breakpoint or watched variable
+ *	break N, b N		stop before line N
+ *	delete N, d N		no longer stop there
+ *	watch x, w x		stop after every assignment to x
+ *	unwatch x
+ *	print expr, p expr	evaluate expr where the program stopped
+ *	trace, t		print each statement before it runs, or stop that
+ *	quit, q			end the program
+ *
+ * Once the commands run out it runs to the end. Without commands it only
+ * traces, with probes on the statements alone. Lines are those the
+ * statements start on; a line runs on until a statement of another line
+ * starts, so an if and its branch on the same line are one stop.
+ *
+ * A watch is on the assignments that name x, x = ..., whatever scope the
+ * x they assign is in: a local x that shadows a global one stops as well.
+ * A var x, even one that defines x again, is no assignment and does not.
+ */
+final class Debugger implements Instrument {
+	// thrown by quit to end the program, see Lox.run
+	static class Quit extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+	}
+
+	private final String[] source;
+	// null to never stop
+	private final BufferedReader commands;
+	private final PrintStream out;
+	private final Set<Integer> breakpoints = new HashSet<>();
+	private final Set<String> watched = new HashSet<>();
+	// lines some statement starts on
+	private final Set<Integer> lines = new HashSet<>();
+	private boolean stepping;
+	private int line = -1;
+
+	boolean trace = false;
+
+	Debugger(String source, BufferedReader commands, PrintStream out) {
+		this.source = source.split("\n", -1);
+		this.commands = commands;
+		this.out = out;
+		stepping = commands != null;
+	}
+
+	// statements with the probes the debugger needs, lines being those of
+	// Parser.recordLines
+	List<Stmt> attach(List<Stmt> statements, Map<Stmt, Integer> lines) {
+		this.lines.addAll(lines.values());
+		boolean stops = commands != null;
+		return new Instrumentation(this, lines, line -> true, name -> stops).attach(statements);
+	}
+
+	@Override
+	public void before(Stmt stmt, int line, Environment environment) {
+		if(trace)
+			out.println(where(line));
+		if(line == this.line)
+			return;
+		this.line = line;
+		if(stepping || breakpoints.contains(line)) {
+			if(!trace)
+				out.println(where(line));
+			pause(environment);
+		}
+	}
+
+	@Override
+	public void after(Expr expr, Object value, Environment environment) {
+		Token name = ((Expr.Assign)expr).name;
+		if(watched.contains(name.lexeme)) {
+			out.println("[line " + name.line + "] " + name.lexeme + " is now " + Interpreter.stringify(value));
+			pause(environment);
+		}
+	}
+
+	private String where(int line) {
+		String text = line >= 1 && line <= source.length ? source[line - 1].trim() : "";
+		return "[line " + line + "] " + text;
+	}
+
+	// reads commands until one runs the program on
+	private void pause(Environment environment) {
+		while(true) {
+			out.print("(lox) ");
+			out.flush();
+			String command;
+			try {
+				command = commands.readLine();
+			} catch(IOException e) {
+				command = null;
+			}
+			if(command == null) {
+				stepping = false;
+				breakpoints.clear();
+				watched.clear();
+				return;
+			}
+
+			String[] words = command.trim().split("\\s+", 2);
+			String argument = words.length > 1 ? words[1].trim() : "";
+			switch(words[0]) {
+				case "s": case "step":
+					stepping = true;
+					return;
+				case "c": case "continue":
+					stepping = false;
+					return;
+				case "b": case "break": {
+					Integer line = number(argument);
+					if(line == null)
+						break;
+					breakpoints.add(line);
+					out.println(lines.contains(line) ? "Breakpoint at line " + line + "."
+						: "No statement starts on line " + line + ".");
+					break;
+				}
+				case "d": case "delete": {
+					Integer line = number(argument);
+					if(line != null && !breakpoints.remove(line))
+						out.println("No breakpoint at line " + line + ".");
+					break;
+				}
+				case "w": case "watch":
+					if(argument.isEmpty())
+						out.println("Expect a variable name.");
+					else
+						watched.add(argument);
+					break;
+				case "unwatch":
+					if(!watched.remove(argument))
+						out.println("Not watching '" + argument + "'.");
+					break;
+				case "p": case "print":
+					print(argument, environment);
+					break;
+				case "t": case "trace":
+					trace = !trace;
+					out.println(trace ? "Tracing." : "Not tracing.");
+					break;
+				case "q": case "quit":
+					throw new Quit();
+				default:
+					out.println("Commands: step, continue, break N, delete N, watch x, unwatch x,"
+						+ " print expr, trace, quit.");
+			}
+		}
+	}
+
+	private Integer number(String argument) {
+		try {
+			return Integer.parseInt(argument);
+		} catch(NumberFormatException e) {
+			out.println("Expect a line number.");
+			return null;
+		}
+	}
+
+	// evaluates source in environment, syntax and runtime errors going to out
+	private void print(String source, Environment environment) {
+		Expr[] expr = new Expr[1];
+		boolean failed = Lox.isolated(out, () -> {
+			try {
+				expr[0] = new Parser(new Scanner(source).scanTokens()).expression();
+			} catch(Parser.ParseError error) {
+				// reported
+			}
+		});
+		if(failed)
+			return;
+		try {
+			Object value = new Interpreter(out, environment).run(List.of(new Stmt.Expression(expr[0])));
+			out.println(Interpreter.stringify(value));
+		} catch(RuntimeError error) {
+			out.println(error.getMessage());
+		}
+	}
+}
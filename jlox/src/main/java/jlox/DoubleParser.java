@@ -0,0 +1,152 @@
+package jlox;
+
+import java.math.BigInteger;
+
+/*
+ * Number literals to doubles, read straight from the source characters.
+ *
+ * A literal is digits with an optional fraction, so it is a decimal
+ * mantissa w times 10^q. Up to 19 significant digits go into w:
+ *
+ *	w < 2^53 and 0 >= q >= -22	exact, w and 10^-q are both doubles and the
+ *									division rounds once (Clinger)
+ *	otherwise						w times a 128 bit approximation of 10^q,
+ *									which almost always decides the rounding
+ *									(Eisel-Lemire)
+ *
+ * With more than 19 digits the rest only count towards q; the result stands
+ * if w and w + 1 round to the same double. The few literals neither can
+ * decide (exact halfway cases, subnormals, overflow) go to
+ * Double.parseDouble, so every result is bit for bit the same as its.
+ */
+final class DoubleParser {
+	private static final int MIN_EXPONENT = -348;
+	private static final int MAX_EXPONENT = 347;
+
+	// 10^q rounded down to its 128 most significant bits, high word first
+	private static final long[] POWERS = new long[2 * (MAX_EXPONENT - MIN_EXPONENT + 1)];
+	static{
+		BigInteger ten = BigInteger.TEN;
+		for(int q = MIN_EXPONENT; q <= MAX_EXPONENT; q++) {
+			BigInteger m;
+			if(q >= 0) {
+				m = ten.pow(q);
+				int shift = m.bitLength() - 128;
+				m = shift > 0 ? m.shiftRight(shift) : m.shiftLeft(-shift);
+			} else {
+				BigInteger divisor = ten.pow(-q);
+				// 2^k / 10^-q has 128 or 129 bits, keep the top 128
+				m = BigInteger.ONE.shiftLeft(divisor.bitLength() + 127).divide(divisor);
+				if(m.bitLength() > 128)
+					m = m.shiftRight(1);
+			}
+			int i = 2 * (q - MIN_EXPONENT);
+			POWERS[i] = m.shiftRight(64).longValue();
+			POWERS[i + 1] = m.longValue();
+		}
+	}
+
+	private static final double[] SMALL = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22,
+	};
+
+	private DoubleParser() {}
+
+	// source[start, end) is digits, optionally '.' and more digits
+	static double parse(String source, int start, int end) {
+		long w = 0;
+		int digits = 0;
+		int q = 0;
+		boolean truncated = false;
+		boolean fraction = false;
+		for(int i = start; i < end; i++) {
+			char c = source.charAt(i);
+			if(c == '.') {
+				fraction = true;
+				continue;
+			}
+			if(fraction)
+				q--;
+			if(digits < 19) {
+				w = w * 10 + (c - '0');
+				// leading zeros are not significant
+				if(w != 0)
+					digits++;
+			} else {
+				q++;
+				if(c != '0')
+					truncated = true;
+			}
+		}
+
+		if(!truncated) {
+			if(w >= 0 && w <= 1L << 53 && q <= 0 && q >= -22)
+				return (double)w / SMALL[-q];
+			double d = eiselLemire(w, q);
+			if(!Double.isNaN(d))
+				return d;
+		} else {
+			double d = eiselLemire(w, q);
+			if(!Double.isNaN(d) && d == eiselLemire(w + 1, q))
+				return d;
+		}
+		return Double.parseDouble(source.substring(start, end));
+	}
+
+	// w * 10^q rounded to nearest even, NaN where the product is not enough
+	private static double eiselLemire(long w, int q) {
+		if(w == 0)
+			return 0.0;
+		if(q < MIN_EXPONENT || q > MAX_EXPONENT)
+			return Double.NaN;
+
+		int zeros = Long.numberOfLeadingZeros(w);
+		w <<= zeros;
+		// floor(log2(10) * q) + 64 + bias
+		long exponent = (217706 * q >> 16) + 64 + 1023 - zeros;
+
+		int i = 2 * (q - MIN_EXPONENT);
+		long high = unsignedMultiplyHigh(w, POWERS[i]);
+		long low = w * POWERS[i];
+		// the bits that decide the rounding might be off by the error of
+		// the truncated power, take in its lower half
+		if((high & 0x1FF) == 0x1FF && Long.compareUnsigned(low + w, w) < 0) {
+			long lowerHigh = unsignedMultiplyHigh(w, POWERS[i + 1]);
+			long lowerLow = w * POWERS[i + 1];
+			long mergedHigh = high;
+			long mergedLow = low + lowerHigh;
+			if(Long.compareUnsigned(mergedLow, low) < 0)
+				mergedHigh++;
+			if((mergedHigh & 0x1FF) == 0x1FF && mergedLow == -1
+					&& Long.compareUnsigned(lowerLow + w, w) < 0)
+				return Double.NaN;
+			high = mergedHigh;
+			low = mergedLow;
+		}
+
+		// 54 bits, one more than the mantissa for the rounding
+		int top = (int)(high >>> 63);
+		long mantissa = high >>> (top + 9);
+		exponent -= 1 ^ top;
+
+		// exactly halfway between two doubles
+		if(low == 0 && (high & 0x1FF) == 0 && (mantissa & 3) == 1)
+			return Double.NaN;
+
+		mantissa += mantissa & 1;
+		mantissa >>>= 1;
+		if(mantissa >>> 53 != 0) {
+			mantissa >>>= 1;
+			exponent++;
+		}
+		// subnormal, zero or infinite
+		if(exponent <= 0 || exponent >= 0x7FF)
+			return Double.NaN;
+		return Double.longBitsToDouble(exponent << 52 | mantissa & 0x000FFFFFFFFFFFFFL);
+	}
+
+	private static long unsignedMultiplyHigh(long x, long y) {
+		return Math.multiplyHigh(x, y) + (x >> 63 & y) + (y >> 63 & x);
+	}
+}
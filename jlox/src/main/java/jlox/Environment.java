@@ -4,15 +4,31 @@ import java.util.HashMap;
 import java.util.Map;
 
 class Environment {
+	// what lookup returns for names a scope does not define
+	static final Object UNDEFINED = new Object();
+
 	final Environment enclosing;
-	private final Map<String, Object> values = new HashMap<>();
+	private final Map<String, Object> values;
 
 	Environment(){
-		enclosing = null;
+		this(null);
 	}
 
 	Environment(Environment enclosing) {
+		this(enclosing, new HashMap<>());
+	}
+
+	// for SharedEnvironment, which keeps the names in a map of its own
+	Environment(Environment enclosing, Map<String, Object> values) {
 		this.enclosing = enclosing;
+		this.values = values;
+	}
+
+	// a scope of its own with the names this one defines
+	Environment copy() {
+		Environment copy = new Environment(enclosing);
+		copy.values.putAll(values);
+		return copy;
 	}
 
 	void define(String name, Object value) {
@@ -20,27 +36,45 @@ class Environment {
 	}
 
 	Object get(Token name) {
-		if(values.containsKey(name.lexeme))
-			return values.get(name.lexeme);
-		if(enclosing != null)
-			return enclosing.get(name);
-		throw new RuntimeError(
-				name, "Undefined variable'" + name.lexeme + "'.");
+		return get(name.lexeme, name.line);
 	}
 
-	void assign(Token name, Object value) {
-		if(values.containsKey(name.lexeme)) {
-			values.put(name.lexeme, value);
-			return;
+	// for callers that keep names without their tokens, like Arena
+	Object get(String name, int line) {
+		// a loop rather than recursion, scopes can nest arbitrarily deep
+		for(Environment scope = this; scope != null; scope = scope.enclosing) {
+			Object value = scope.lookup(name);
+			if(value != UNDEFINED)
+				return value;
 		}
+		throw new RuntimeError(new Token(TokenType.IDENTIFIER, name, null, line),
+				"Undefined variable'" + name + "'.");
+	}
 
-		if(enclosing != null){
-			enclosing.assign(name, value);
-			return;
+	void assign(Token name, Object value) {
+		assign(name.lexeme, name.line, value);
+	}
+
+	void assign(String name, int line, Object value) {
+		for(Environment scope = this; scope != null; scope = scope.enclosing) {
+			if(scope.replace(name, value))
+				return;
 		}
 
+		throw new RuntimeError(new Token(TokenType.IDENTIFIER, name, null, line),
+				"Undefined variable '" + name + "'.");
+	}
 
-		throw new RuntimeError(
-				name, "Undefined variable '" + name.lexeme + "'.");
+	// the value of name in this scope alone, or UNDEFINED
+	Object lookup(String name) {
+		return values.getOrDefault(name, UNDEFINED);
+	}
+
+	// sets name if this scope defines it
+	boolean replace(String name, Object value) {
+		if(!values.containsKey(name))
+			return false;
+		values.put(name, value);
+		return true;
 	}
 }
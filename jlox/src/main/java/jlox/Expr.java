@@ -11,6 +11,15 @@ abstract class Expr {
 		R visitBinaryExpr(Binary expr);
 		R visitGroupingExpr(Grouping expr);
 		R visitLiteralExpr(Literal expr);
+		R visitCallExpr(Call expr);
+		R visitIndexExpr(Index expr);
+		R visitStoreExpr(Store expr);
+		R visitLengthExpr(Length expr);
+		R visitShareExpr(Share expr);
+		R visitReuseExpr(Reuse expr);
+		R visitUncheckedExpr(Unchecked expr);
+		R visitSpeculatedExpr(Speculated expr);
+		R visitProbeExpr(Probe expr);
 	}
 
 	abstract <R> R accept(Visitor<R> visitor);
@@ -95,4 +104,134 @@ abstract class Expr {
 		}
 	}
 
+	static class Call extends Expr {
+		final Expr callee;
+		final Token paren;
+		final List<Expr> arguments;
+
+		Call(Expr callee, Token paren, List<Expr> arguments) {
+			this.callee = callee;
+			this.paren = paren;
+			this.arguments = arguments;
+		}
+
+		@Override <R> R accept(Visitor<R> visitor) {
+			return visitor.visitCallExpr(this);
+		}
+	}
+
+	static class Index extends Expr {
+		final Expr array;
+		final Token bracket;
+		final Expr index;
+
+		Index(Expr array, Token bracket, Expr index) {
+			this.array = array;
+			this.bracket = bracket;
+			this.index = index;
+		}
+
+		@Override <R> R accept(Visitor<R> visitor) {
+			return visitor.visitIndexExpr(this);
+		}
+	}
+
+	static class Store extends Expr {
+		final Expr array;
+		final Token bracket;
+		final Expr index;
+		final Expr value;
+
+		Store(Expr array, Token bracket, Expr index, Expr value) {
+			this.array = array;
+			this.bracket = bracket;
+			this.index = index;
+			this.value = value;
+		}
+
+		@Override <R> R accept(Visitor<R> visitor) {
+			return visitor.visitStoreExpr(this);
+		}
+	}
+
+	static class Length extends Expr {
+		final Expr array;
+		final Token name;
+
+		Length(Expr array, Token name) {
+			this.array = array;
+			this.name = name;
+		}
+
+		@Override <R> R accept(Visitor<R> visitor) {
+			return visitor.visitLengthExpr(this);
+		}
+	}
+
+	static class Share extends Expr {
+		final int slot;
+		final Expr expression;
+
+		Share(int slot, Expr expression) {
+			this.slot = slot;
+			this.expression = expression;
+		}
+
+		@Override <R> R accept(Visitor<R> visitor) {
+			return visitor.visitShareExpr(this);
+		}
+	}
+
+	static class Reuse extends Expr {
+		final int slot;
+		final Expr expression;
+
+		Reuse(int slot, Expr expression) {
+			this.slot = slot;
+			this.expression = expression;
+		}
+
+		@Override <R> R accept(Visitor<R> visitor) {
+			return visitor.visitReuseExpr(this);
+		}
+	}
+
+	static class Unchecked extends Expr {
+		final Expr expression;
+
+		Unchecked(Expr expression) {
+			this.expression = expression;
+		}
+
+		@Override <R> R accept(Visitor<R> visitor) {
+			return visitor.visitUncheckedExpr(this);
+		}
+	}
+
+	static class Speculated extends Expr {
+		final Expr expression;
+
+		Speculated(Expr expression) {
+			this.expression = expression;
+		}
+
+		@Override <R> R accept(Visitor<R> visitor) {
+			return visitor.visitSpeculatedExpr(this);
+		}
+	}
+
+	static class Probe extends Expr {
+		final Instrument instrument;
+		final Expr expression;
+
+		Probe(Instrument instrument, Expr expression) {
+			this.instrument = instrument;
+			this.expression = expression;
+		}
+
+		@Override <R> R accept(Visitor<R> visitor) {
+			return visitor.visitProbeExpr(this);
+		}
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,11 @@
+package jlox;
+
+// What the probes Instrumentation attaches call while the program runs, on
+// the thread running it. Either may throw to end the program.
+interface Instrument {
+	// stmt, which starts on line, is about to run in environment
+	void before(Stmt stmt, int line, Environment environment);
+
+	// expr, an assignment, set its variable to value in environment
+	void after(Expr expr, Object value, Environment environment);
+}
@@ -0,0 +1,221 @@
+package jlox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+
+/*
+ * Wraps statements and assignments in probes, Stmt.Probe and Expr.Probe,
+ * which call an Instrument around what they wrap, for the Debugger.
+ *
+ * Only the nodes asked for get a probe and nothing else changes, so a
+ * program runs at full speed wherever it has none, and without any
+ * instrumentation there is nothing to check at all. A statement is probed
+ * when statements accepts its line, from Parser.recordLines; blocks, which
+ * are only their statements, those without a line, like the ones of
+ * imported modules, and lazy blocks, whose statements are not known yet,
+ * never are. An assignment is probed when names accepts its variable.
+ */
+final class Instrumentation implements Stmt.Visitor<Stmt>, Expr.Visitor<Expr> {
+	private final Instrument instrument;
+	private final Map<Stmt, Integer> lines;
+	private final IntPredicate statements;
+	private final Predicate<String> names;
+
+	// probes attached
+	int probes = 0;
+
+	Instrumentation(Instrument instrument, Map<Stmt, Integer> lines,
+			IntPredicate statements, Predicate<String> names) {
+		this.instrument = instrument;
+		this.lines = lines;
+		this.statements = statements;
+		this.names = names;
+	}
+
+	// statements with the probes asked for
+	List<Stmt> attach(List<Stmt> statements) {
+		List<Stmt> result = null;
+		for(int i = 0; i < statements.size(); i++) {
+			Stmt stmt = statements.get(i);
+			Stmt attached = attach(stmt);
+			if(attached != stmt && result == null)
+				result = new ArrayList<>(statements.subList(0, i));
+			if(result != null)
+				result.add(attached);
+		}
+		return result != null ? result : statements;
+	}
+
+	private Stmt attach(Stmt stmt) {
+		Stmt attached = stmt.accept(this);
+		Integer line = lines.get(stmt);
+		if(line == null || stmt instanceof Stmt.Block || stmt instanceof Stmt.Lazy
+				|| !statements.test(line))
+			return attached;
+		probes++;
+		return new Stmt.Probe(instrument, line, attached);
+	}
+
+	private Expr attach(Expr expr) {
+		return expr.accept(this);
+	}
+
+	@Override
+	public Stmt visitBlockStmt(Stmt.Block stmt) {
+		List<Stmt> statements = attach(stmt.statements);
+		return statements == stmt.statements ? stmt : new Stmt.Block(statements);
+	}
+
+	@Override
+	public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+		Expr expression = attach(stmt.expression);
+		return expression == stmt.expression ? stmt : new Stmt.Expression(expression);
+	}
+
+	@Override
+	public Stmt visitIfStmt(Stmt.If stmt) {
+		Expr condition = attach(stmt.condition);
+		Stmt thenBranch = attach(stmt.thenBranch);
+		Stmt elseBranch = stmt.elseBranch != null ? attach(stmt.elseBranch) : null;
+		if(condition == stmt.condition && thenBranch == stmt.thenBranch
+				&& elseBranch == stmt.elseBranch)
+			return stmt;
+		return new Stmt.If(condition, thenBranch, elseBranch);
+	}
+
+	@Override
+	public Stmt visitLazyStmt(Stmt.Lazy stmt) {
+		return stmt;
+	}
+
+	@Override
+	public Stmt visitPrintStmt(Stmt.Print stmt) {
+		Expr expression = attach(stmt.expression);
+		return expression == stmt.expression ? stmt : new Stmt.Print(expression);
+	}
+
+	@Override
+	public Stmt visitVarStmt(Stmt.Var stmt) {
+		if(stmt.initializer == null)
+			return stmt;
+		Expr initializer = attach(stmt.initializer);
+		return initializer == stmt.initializer ? stmt : new Stmt.Var(stmt.name, initializer);
+	}
+
+	// already attached
+	@Override
+	public Stmt visitProbeStmt(Stmt.Probe stmt) {
+		return stmt;
+	}
+
+	@Override
+	public Expr visitAssignExpr(Expr.Assign expr) {
+		Expr value = attach(expr.value);
+		Expr.Assign assign = value == expr.value ? expr : new Expr.Assign(expr.name, value);
+		if(!names.test(expr.name.lexeme))
+			return assign;
+		probes++;
+		return new Expr.Probe(instrument, assign);
+	}
+
+	@Override
+	public Expr visitVariableExpr(Expr.Variable expr) {
+		return expr;
+	}
+
+	@Override
+	public Expr visitUnaryExpr(Expr.Unary expr) {
+		Expr right = attach(expr.right);
+		return right == expr.right ? expr : new Expr.Unary(expr.operator, right);
+	}
+
+	@Override
+	public Expr visitBinaryExpr(Expr.Binary expr) {
+		Expr left = attach(expr.left);
+		Expr right = attach(expr.right);
+		if(left == expr.left && right == expr.right)
+			return expr;
+		return new Expr.Binary(left, expr.operator, right);
+	}
+
+	@Override
+	public Expr visitGroupingExpr(Expr.Grouping expr) {
+		Expr expression = attach(expr.expression);
+		return expression == expr.expression ? expr : new Expr.Grouping(expression);
+	}
+
+	@Override
+	public Expr visitLiteralExpr(Expr.Literal expr) {
+		return expr;
+	}
+
+	@Override
+	public Expr visitCallExpr(Expr.Call expr) {
+		Expr callee = attach(expr.callee);
+		List<Expr> arguments = new ArrayList<>(expr.arguments.size());
+		boolean changed = callee != expr.callee;
+		for(Expr argument: expr.arguments) {
+			Expr attached = attach(argument);
+			changed |= attached != argument;
+			arguments.add(attached);
+		}
+		return changed ? new Expr.Call(callee, expr.paren, arguments) : expr;
+	}
+
+	@Override
+	public Expr visitIndexExpr(Expr.Index expr) {
+		Expr array = attach(expr.array);
+		Expr index = attach(expr.index);
+		if(array == expr.array && index == expr.index)
+			return expr;
+		return new Expr.Index(array, expr.bracket, index);
+	}
+
+	@Override
+	public Expr visitStoreExpr(Expr.Store expr) {
+		Expr array = attach(expr.array);
+		Expr index = attach(expr.index);
+		Expr value = attach(expr.value);
+		if(array == expr.array && index == expr.index && value == expr.value)
+			return expr;
+		return new Expr.Store(array, expr.bracket, index, value);
+	}
+
+	@Override
+	public Expr visitLengthExpr(Expr.Length expr) {
+		Expr array = attach(expr.array);
+		return array == expr.array ? expr : new Expr.Length(array, expr.name);
+	}
+
+	@Override
+	public Expr visitShareExpr(Expr.Share expr) {
+		Expr expression = attach(expr.expression);
+		return expression == expr.expression ? expr : new Expr.Share(expr.slot, expression);
+	}
+
+	// what it reuses does not run again
+	@Override
+	public Expr visitReuseExpr(Expr.Reuse expr) {
+		return expr;
+	}
+
+	@Override
+	public Expr visitUncheckedExpr(Expr.Unchecked expr) {
+		Expr inner = attach(expr.expression);
+		return inner == expr.expression ? expr : new Expr.Unchecked(inner);
+	}
+
+	@Override
+	public Expr visitSpeculatedExpr(Expr.Speculated expr) {
+		Expr inner = attach(expr.expression);
+		return inner == expr.expression ? expr : new Expr.Speculated(inner);
+	}
+
+	@Override
+	public Expr visitProbeExpr(Expr.Probe expr) {
+		return expr;
+	}
+}
@@ -1,9 +1,48 @@
 package jlox;
 
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
 
 class Interpreter implements Stmt.Visitor<Void>, Expr.Visitor<Object> {
-	private Environment environment = new Environment();
+	private final Environment globals;
+	private Environment environment;
+	private final PrintStream out;
+	// values saved by Expr.Share for Expr.Reuse
+	private Object[] shared = new Object[16];
+	// records operand types while set
+	Profile profile = null;
+	// speculated operations that fell back while nothing was recorded
+	int missed = 0;
+
+	Interpreter() {
+		this(System.out);
+	}
+
+	Interpreter(PrintStream out) {
+		this(out, new Environment());
+		LoxArray.defineNatives(environment);
+	}
+
+	// globals may be a SharedEnvironment that other threads run in as well
+	Interpreter(PrintStream out, Environment globals) {
+		this.out = out;
+		this.globals = globals;
+		this.environment = globals;
+	}
+
+	// binds a public static Java method as the global function name, see
+	// JavaFunction for how values are adapted
+	void registerNative(String name, Method method) {
+		globals.define(name, JavaFunction.of(name, method));
+	}
 	
 	void interpret(List<Stmt> statements){
 		try {
@@ -12,6 +51,125 @@ class Interpreter implements Stmt.Visitor<Void>, Expr.Visitor<Object> {
 			}
 		} catch(RuntimeError error) {
 			Lox.runtimeError(error);
+		} catch(Parser.ParseError error) {
+			// a lazily parsed block had syntax errors, already reported
+		}
+	}
+
+	// runs statements and returns the value of the last one if it is an
+	// expression statement, nil otherwise, leaving runtime errors to the
+	// caller
+	Object run(List<Stmt> statements) {
+		Object value = null;
+		for(Stmt statement: statements) {
+			if(statement instanceof Stmt.Expression) {
+				value = evaluate(((Stmt.Expression)statement).expression);
+			} else {
+				execute(statement);
+				value = null;
+			}
+		}
+		return value;
+	}
+
+	// Runs the tasks graph does not order against each other at the same
+	// time on a ForkJoinPool with a thread per processor, the barriers on
+	// this thread. Each task prints to a buffer of its own, written out in
+	// program order, and the first runtime error in program order is
+	// reported after the output of the statements before it. Tasks after it
+	// that do not depend on it may have run as well, their output is
+	// dropped. The globals have to be a SharedEnvironment.
+	void interpretParallel(List<Stmt> statements, StatementGraph graph) {
+		int tasks = graph.tasks;
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		CompletableFuture<byte[]>[] done = new CompletableFuture[tasks];
+		// what each task printed before failing
+		byte[][] printed = new byte[tasks][];
+		ThreadLocal<Worker> workers = ThreadLocal.withInitial(() -> new Worker(globals));
+		for(int t = 0; t < tasks; t++) {
+			if(graph.taskBarrier(t)) {
+				done[t] = new CompletableFuture<>();
+				continue;
+			}
+			int[] after = graph.taskAfter(t);
+			List<Stmt> task = statements.subList(graph.start(t), graph.start(t + 1));
+			int index = t;
+			// no need to wait for nothing
+			CompletableFuture<?> ready = after.length == 0 ? CompletableFuture.completedFuture(null)
+				: after.length == 1 ? done[after[0]]
+				: CompletableFuture.allOf(Arrays.stream(after).mapToObj(u -> done[u])
+					.toArray(CompletableFuture<?>[]::new));
+			done[t] = ready.thenApplyAsync(
+				nothing -> workers.get().execute(task, printed, index), Pool.pool);
+		}
+
+		int t = 0;
+		try {
+			for(; t < tasks; t++) {
+				if(graph.taskBarrier(t)) {
+					execute(statements.get(graph.start(t)));
+					done[t].complete(null);
+					continue;
+				}
+				try {
+					byte[] output = done[t].join();
+					if(output != null)
+						out.write(output, 0, output.length);
+				} catch(CompletionException e) {
+					if(printed[t] != null)
+						out.write(printed[t], 0, printed[t].length);
+					throw e.getCause();
+				}
+			}
+		} catch(RuntimeError error) {
+			Lox.runtimeError(error);
+		} catch(Parser.ParseError error) {
+			// a lazily parsed block had syntax errors, already reported
+		} catch(RuntimeException | Error e) {
+			throw e;
+		} catch(Throwable e) {
+			throw new IllegalStateException(e);
+		} finally {
+			// tasks after an error wait for the barriers no one runs now,
+			// and nothing is still running once this returns
+			for(int u = t; u < tasks; u++)
+				if(graph.taskBarrier(u))
+					done[u].completeExceptionally(new CancellationException());
+			for(int u = t; u < tasks; u++) {
+				try {
+					done[u].join();
+				} catch(CompletionException | CancellationException ignored) {
+				}
+			}
+			out.flush();
+		}
+	}
+
+	// the common pool leaves a processor to the thread that waits here
+	private static final class Pool {
+		static final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+	}
+
+	// runs tasks for interpretParallel on one pool thread
+	private static final class Worker {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final Interpreter interpreter;
+
+		Worker(Environment globals) {
+			interpreter = new Interpreter(new PrintStream(bytes, false), globals);
+		}
+
+		// what task printed, null for nothing
+		byte[] execute(List<Stmt> task, byte[][] printed, int index) {
+			bytes.reset();
+			try {
+				for(Stmt stmt: task)
+					interpreter.execute(stmt);
+			} catch(RuntimeException | Error e) {
+				printed[index] = bytes.toByteArray();
+				throw e;
+			}
+			return bytes.size() == 0 ? null : bytes.toByteArray();
 		}
 	}
 
@@ -29,6 +187,7 @@ class Interpreter implements Stmt.Visitor<Void>, Expr.Visitor<Object> {
 			List<Stmt> statements, Environment environment) {
 		Environment previous = this.environment;
 		try {
+			this.environment = environment;
 			for(Stmt s: statements) {
 				execute(s);
 			}
@@ -46,17 +205,30 @@ class Interpreter implements Stmt.Visitor<Void>, Expr.Visitor<Object> {
 
 	@Override
 	public Void visitIfStmt(Stmt.If stmt){
-		if(isTruthy(stmt.condition))
+		if(isTruthy(evaluate(stmt.condition)))
 			execute(stmt.thenBranch);
-		else if(stmt.thenBranch != null)
+		else if(stmt.elseBranch != null)
 			execute(stmt.elseBranch);
 		return null;
 	}
 
+	@Override
+	public Void visitLazyStmt(Stmt.Lazy stmt) {
+		executeBlock(stmt.body.statements(), new Environment(environment));
+		return null;
+	}
+
 	@Override
 	public Void visitPrintStmt(Stmt.Print stmt){
 		Object value = evaluate(stmt.expression);
-		System.out.println(stringify(value));
+		out.println(stringify(value));
+		return null;
+	}
+
+	@Override
+	public Void visitProbeStmt(Stmt.Probe stmt) {
+		stmt.instrument.before(stmt.statement, stmt.line, environment);
+		execute(stmt.statement);
 		return null;
 	}
 
@@ -93,12 +265,17 @@ class Interpreter implements Stmt.Visitor<Void>, Expr.Visitor<Object> {
 
 	@Override public Object visitUnaryExpr(Expr.Unary expr) {
 		Object right = evaluate(expr.right);
+		if(profile != null)
+			profile.operands(expr, null, right);
+		return unary(expr.operator, right);
+	}
 
-		switch (expr.operator.type) {
+	static Object unary(Token operator, Object right) {
+		switch (operator.type) {
 			case BANG:
 				return !isTruthy(right);
 			case MINUS:
-				checkNumberOperand(expr.operator, right);
+				checkNumberOperand(operator, right);
 				return -(double)right;
 		}
 		return null; // unreachable
@@ -107,78 +284,227 @@ class Interpreter implements Stmt.Visitor<Void>, Expr.Visitor<Object> {
 	@Override public Object visitBinaryExpr(Expr.Binary expr) {
 		Object left = evaluate(expr.left);
 		Object right = evaluate(expr.right);
+		if(profile != null)
+			profile.operands(expr, left, right);
+		return binary(expr.operator, left, right);
+	}
 
-		switch (expr.operator.type) {
+	static Object binary(Token operator, Object left, Object right) {
+		switch (operator.type) {
 			case GREATER:
-				checkNumberOperands(expr.operator, right, left);
+				checkNumberOperands(operator, right, left);
 				return (double)left > (double)right;
 			case GREATER_EQUAL:
-				checkNumberOperands(expr.operator, right, left);
+				checkNumberOperands(operator, right, left);
 				return (double)left >= (double)right;
 			case LESS:
-				checkNumberOperands(expr.operator, right, left);
+				checkNumberOperands(operator, right, left);
 				return (double)left < (double)right;
 			case LESS_EQUAL:
-				checkNumberOperands(expr.operator, right, left);
+				checkNumberOperands(operator, right, left);
 				return (double)left <= (double)right;
 			case MINUS:
-				checkNumberOperands(expr.operator, right, left);
-				return (double)left / (double)right;
+				checkNumberOperands(operator, right, left);
+				return (double)left - (double)right;
 			case PLUS:
 				if (left instanceof Double && right instanceof Double) {
-					checkNumberOperands(expr.operator, right, left);
+					checkNumberOperands(operator, right, left);
 					return (double)left + (double)right;
 				}
 				if (left instanceof String && right instanceof String) {
-					checkStringOperands(expr.operator, right, left);
+					checkStringOperands(operator, right, left);
 					return (String)left + (String)right;
 				}
 				break;
+			case SLASH:
+				checkNumberOperands(operator, right, left);
+				return (double)left / (double)right;
 			case STAR:
-				checkNumberOperands(expr.operator, right, left);
+				checkNumberOperands(operator, right, left);
 				return (double)left * (double)right;
 			case BANG_EQUAL:
-				checkNumberOperands(expr.operator, right, left);
 				return !isEqual(left, right);
 			case EQUAL_EQUAL:
-				checkNumberOperands(expr.operator, right, left);
 				return isEqual(left, right);
 		}
 		return null; // unreachable
 	}
 
+	@Override
+	public Object visitCallExpr(Expr.Call expr) {
+		Object callee = evaluate(expr.callee);
+		if(isDirect(callee, expr)) {
+			JavaFunction function = (JavaFunction)callee;
+			List<Expr> direct = expr.arguments;
+			switch(direct.size()) {
+				case 0: return function.call(expr.paren);
+				case 1: return function.call(expr.paren, evaluate(direct.get(0)));
+				case 2: return function.call(expr.paren,
+					evaluate(direct.get(0)), evaluate(direct.get(1)));
+				default: return function.call(expr.paren,
+					evaluate(direct.get(0)), evaluate(direct.get(1)), evaluate(direct.get(2)));
+			}
+		}
+		List<Object> arguments = new ArrayList<>(expr.arguments.size());
+		for(Expr argument: expr.arguments)
+			arguments.add(evaluate(argument));
+		return call(expr.paren, callee, arguments);
+	}
+
+	// Java functions of up to three arguments are called without a list
+	private static boolean isDirect(Object callee, Expr.Call call) {
+		return callee instanceof JavaFunction && call.arguments.size() <= 3
+			&& ((JavaFunction)callee).arity() == call.arguments.size();
+	}
+
+	static Object call(Token paren, Object callee, List<Object> arguments) {
+		if(!(callee instanceof LoxCallable))
+			throw new RuntimeError(paren, "Can only call functions.");
+		LoxCallable function = (LoxCallable)callee;
+		if(arguments.size() != function.arity())
+			throw new RuntimeError(paren, "Expected " + function.arity()
+				+ " arguments but got " + arguments.size() + ".");
+		return function.call(paren, arguments);
+	}
+
+	@Override
+	public Object visitIndexExpr(Expr.Index expr) {
+		Object array = evaluate(expr.array);
+		Object index = evaluate(expr.index);
+		return LoxArray.index(expr.bracket, array, index);
+	}
+
+	@Override
+	public Object visitStoreExpr(Expr.Store expr) {
+		Object array = evaluate(expr.array);
+		Object index = evaluate(expr.index);
+		Object value = evaluate(expr.value);
+		return LoxArray.store(expr.bracket, array, index, value);
+	}
+
+	@Override
+	public Object visitLengthExpr(Expr.Length expr) {
+		return LoxArray.length(expr.name, evaluate(expr.array));
+	}
+
+	@Override
+	public Object visitShareExpr(Expr.Share expr) {
+		return share(expr.slot, evaluate(expr.expression));
+	}
+
+	@Override
+	public Object visitReuseExpr(Expr.Reuse expr) {
+		return shared[expr.slot];
+	}
+
+	@Override
+	public Object visitUncheckedExpr(Expr.Unchecked expr) {
+		if(expr.expression instanceof Expr.Unary)
+			return -(double)evaluate(((Expr.Unary)expr.expression).right);
+		Expr.Binary binary = (Expr.Binary)expr.expression;
+		Object left = evaluate(binary.left);
+		Object right = evaluate(binary.right);
+		return unchecked(binary.operator, left, right);
+	}
+
+	@Override
+	public Object visitSpeculatedExpr(Expr.Speculated expr) {
+		if(expr.expression instanceof Expr.Unary)
+			return speculated(expr.expression, null, evaluate(((Expr.Unary)expr.expression).right));
+		Expr.Binary binary = (Expr.Binary)expr.expression;
+		Object left = evaluate(binary.left);
+		Object right = evaluate(binary.right);
+		return speculated(binary, left, right);
+	}
+
+	@Override
+	public Object visitProbeExpr(Expr.Probe expr) {
+		Object value = evaluate(expr.expression);
+		expr.instrument.after(expr.expression, value, environment);
+		return value;
+	}
+
+	// unchecked() for operands a Profile only saw as numbers, or strings for
+	// PLUS, and the checked operation when they are not after all. Only that
+	// is recorded, the rest the profile has already
+	private Object speculated(Expr operation, Object left, Object right) {
+		try {
+			if(operation instanceof Expr.Unary)
+				return -(double)right;
+			return unchecked(((Expr.Binary)operation).operator, left, right);
+		} catch(ClassCastException | NullPointerException missed) {
+			return missed(operation, left, right);
+		}
+	}
+
+	private Object missed(Expr operation, Object left, Object right) {
+		if(profile != null)
+			profile.operands(operation, left, right);
+		else
+			missed++;
+		if(operation instanceof Expr.Unary)
+			return unary(((Expr.Unary)operation).operator, right);
+		return binary(((Expr.Binary)operation).operator, left, right);
+	}
+
+	// binary() for operands TypeInference proved to be numbers, or strings
+	// for PLUS
+	private static Object unchecked(Token operator, Object left, Object right) {
+		switch (operator.type) {
+			case GREATER: return (double)left > (double)right;
+			case GREATER_EQUAL: return (double)left >= (double)right;
+			case LESS: return (double)left < (double)right;
+			case LESS_EQUAL: return (double)left <= (double)right;
+			case MINUS: return (double)left - (double)right;
+			case SLASH: return (double)left / (double)right;
+			case STAR: return (double)left * (double)right;
+			case PLUS:
+				if (left instanceof String)
+					return (String)left + (String)right;
+				return (double)left + (double)right;
+		}
+		return null; // unreachable
+	}
+
+	private Object share(int slot, Object value) {
+		if(slot >= shared.length)
+			shared = Arrays.copyOf(shared, Math.max(slot + 1, shared.length * 2));
+		shared[slot] = value;
+		return value;
+	}
+
 	private Object evaluate(Expr expr) {
 		return expr.accept(this);
 	}
 
-	private boolean isTruthy(Object o) {
+	static boolean isTruthy(Object o) {
 		if (o == null) return false;
 		if (o instanceof Boolean) return (Boolean)o;
 		return true;
 	}
 
-	private boolean isEqual(Object o, Object p) {
+	static boolean isEqual(Object o, Object p) {
 		if(o == null && p == null) return true;
 		if(o == null || p == null) return false;
 		return o.equals(p);
 	}
 
-	private void checkNumberOperand(Token operator, Object operand) {
+	private static void checkNumberOperand(Token operator, Object operand) {
 		if (operand instanceof Double) return;
 		throw new RuntimeError(operator, "Operand must be a number.");
 	}
 
-	private void checkNumberOperands(Token operator, Object left, Object right) {
+	private static void checkNumberOperands(Token operator, Object left, Object right) {
 		if (left instanceof Double && right instanceof Double) return;
 		throw new RuntimeError(operator, "Operands must be numbers.");
 	}
 
-	private void checkStringOperands(Token operator, Object left, Object right) {
+	private static void checkStringOperands(Token operator, Object left, Object right) {
 		if (left instanceof String && right instanceof String) return;
 		throw new RuntimeError(operator, "Operands must be strings.");
 	}
 
-	private String stringify(Object object) {
+	static String stringify(Object object) {
 		if(object == null) return "nil";
 		if(object instanceof Double) {
 			String text = object.toString();
@@ -188,4 +514,452 @@ class Interpreter implements Stmt.Visitor<Void>, Expr.Visitor<Object> {
 		}
 		return object.toString();
 	}
+
+	// Iterative engine: the same semantics with blocks, if statements and
+	// expression operands kept on explicit stacks instead of the call stack,
+	// so nesting is limited by memory and maxDepth only.
+
+	private int maxDepth;
+
+	// an executing block or the program itself
+	private static class Frame {
+		final List<Stmt> statements;
+		final Environment previous;
+		int next = 0;
+
+		Frame(List<Stmt> statements, Environment previous) {
+			this.statements = statements;
+			this.previous = previous;
+		}
+	}
+
+	void interpretIterative(List<Stmt> statements, int maxDepth) {
+		this.maxDepth = maxDepth;
+		Environment globals = environment;
+		Frame[] frames = new Frame[16];
+		int depth = 0;
+		frames[depth++] = new Frame(statements, null);
+		try {
+			while(depth > 0) {
+				Frame frame = frames[depth - 1];
+				if(frame.next == frame.statements.size()) {
+					if(frame.previous != null)
+						environment = frame.previous;
+					frames[--depth] = null;
+					continue;
+				}
+
+				Stmt stmt = frame.statements.get(frame.next++);
+				// an if statement runs its branch in place, a probe what it wraps
+				while(stmt instanceof Stmt.If || stmt instanceof Stmt.Probe) {
+					if(stmt instanceof Stmt.Probe) {
+						Stmt.Probe probe = (Stmt.Probe)stmt;
+						probe.instrument.before(probe.statement, probe.line, environment);
+						stmt = probe.statement;
+						continue;
+					}
+					Stmt.If branch = (Stmt.If)stmt;
+					stmt = isTruthy(evaluateIterative(branch.condition))
+						? branch.thenBranch : branch.elseBranch;
+				}
+
+				List<Stmt> block = null;
+				if(stmt instanceof Stmt.Block)
+					block = ((Stmt.Block)stmt).statements;
+				else if(stmt instanceof Stmt.Lazy)
+					block = ((Stmt.Lazy)stmt).body.statements();
+				else if(stmt instanceof Stmt.Expression)
+					evaluateIterative(((Stmt.Expression)stmt).expression);
+				else if(stmt instanceof Stmt.Print)
+					out.println(stringify(evaluateIterative(((Stmt.Print)stmt).expression)));
+				else if(stmt instanceof Stmt.Var) {
+					Stmt.Var var = (Stmt.Var)stmt;
+					Object value = null;
+					if(var.initializer != null)
+						value = evaluateIterative(var.initializer);
+					environment.define(var.name.lexeme, value);
+				}
+				else if(stmt != null)
+					throw unsupported(stmt);
+
+				if(block != null) {
+					if(depth >= maxDepth)
+						throw new RuntimeError(firstToken(block), "Too much nesting.");
+					if(depth == frames.length)
+						frames = Arrays.copyOf(frames, depth * 2);
+					frames[depth++] = new Frame(block, environment);
+					environment = new Environment(environment);
+				}
+			}
+		} catch(RuntimeError error) {
+			Lox.runtimeError(error);
+		} catch(Parser.ParseError error) {
+			// a lazily parsed block had syntax errors, already reported
+		} finally {
+			environment = globals;
+		}
+	}
+
+	// expressions nested less than this recurse, deeper ones continue on the
+	// work stack, which keeps the common case as fast as evaluate()
+	private static final int SHALLOW = 32;
+
+	private Object evaluateIterative(Expr root) {
+		return evaluateShallow(root, 0);
+	}
+
+	// depth is the number of unfinished operators above expr
+	private Object evaluateShallow(Expr expr, int depth) {
+		if(expr instanceof Expr.Literal)
+			return ((Expr.Literal)expr).value;
+		if(expr instanceof Expr.Variable)
+			return environment.get(((Expr.Variable)expr).name);
+		if(expr instanceof Expr.Reuse)
+			return shared[((Expr.Reuse)expr).slot];
+		if(depth == SHALLOW)
+			return evaluateStack(expr, depth);
+		if(expr instanceof Expr.Grouping)
+			return evaluateShallow(((Expr.Grouping)expr).expression, depth);
+		if(expr instanceof Expr.Probe) {
+			Expr.Probe probe = (Expr.Probe)expr;
+			Object value = evaluateShallow(probe.expression, depth);
+			probe.instrument.after(probe.expression, value, environment);
+			return value;
+		}
+
+		if(depth + 1 > maxDepth)
+			throw new RuntimeError(firstToken(expr), "Too much nesting.");
+		if(expr instanceof Expr.Binary) {
+			Expr.Binary binary = (Expr.Binary)expr;
+			Object left = evaluateShallow(binary.left, depth + 1);
+			Object right = evaluateShallow(binary.right, depth + 1);
+			if(profile != null)
+				profile.operands(binary, left, right);
+			return binary(binary.operator, left, right);
+		}
+		if(expr instanceof Expr.Unary) {
+			Expr.Unary unary = (Expr.Unary)expr;
+			Object right = evaluateShallow(unary.right, depth + 1);
+			if(profile != null)
+				profile.operands(unary, null, right);
+			return unary(unary.operator, right);
+		}
+		if(expr instanceof Expr.Share) {
+			Expr.Share share = (Expr.Share)expr;
+			return share(share.slot, evaluateShallow(share.expression, depth + 1));
+		}
+		if(expr instanceof Expr.Unchecked) {
+			Expr inner = ((Expr.Unchecked)expr).expression;
+			if(inner instanceof Expr.Unary)
+				return -(double)evaluateShallow(((Expr.Unary)inner).right, depth + 1);
+			Expr.Binary binary = (Expr.Binary)inner;
+			Object left = evaluateShallow(binary.left, depth + 1);
+			Object right = evaluateShallow(binary.right, depth + 1);
+			return unchecked(binary.operator, left, right);
+		}
+		if(expr instanceof Expr.Speculated) {
+			Expr inner = ((Expr.Speculated)expr).expression;
+			if(inner instanceof Expr.Unary)
+				return speculated(inner, null, evaluateShallow(((Expr.Unary)inner).right, depth + 1));
+			Expr.Binary binary = (Expr.Binary)inner;
+			Object left = evaluateShallow(binary.left, depth + 1);
+			Object right = evaluateShallow(binary.right, depth + 1);
+			return speculated(binary, left, right);
+		}
+		if(expr instanceof Expr.Call) {
+			Expr.Call call = (Expr.Call)expr;
+			Object callee = evaluateShallow(call.callee, depth + 1);
+			if(isDirect(callee, call)) {
+				JavaFunction function = (JavaFunction)callee;
+				List<Expr> direct = call.arguments;
+				switch(direct.size()) {
+					case 0: return function.call(call.paren);
+					case 1: return function.call(call.paren, evaluateShallow(direct.get(0), depth + 1));
+					case 2: return function.call(call.paren,
+						evaluateShallow(direct.get(0), depth + 1), evaluateShallow(direct.get(1), depth + 1));
+					default: return function.call(call.paren,
+						evaluateShallow(direct.get(0), depth + 1), evaluateShallow(direct.get(1), depth + 1),
+						evaluateShallow(direct.get(2), depth + 1));
+				}
+			}
+			List<Object> arguments = new ArrayList<>(call.arguments.size());
+			for(Expr argument: call.arguments)
+				arguments.add(evaluateShallow(argument, depth + 1));
+			return call(call.paren, callee, arguments);
+		}
+		if(expr instanceof Expr.Index) {
+			Expr.Index index = (Expr.Index)expr;
+			Object array = evaluateShallow(index.array, depth + 1);
+			return LoxArray.index(index.bracket, array, evaluateShallow(index.index, depth + 1));
+		}
+		if(expr instanceof Expr.Store) {
+			Expr.Store store = (Expr.Store)expr;
+			Object array = evaluateShallow(store.array, depth + 1);
+			Object index = evaluateShallow(store.index, depth + 1);
+			Object value = evaluateShallow(store.value, depth + 1);
+			return LoxArray.store(store.bracket, array, index, value);
+		}
+		if(expr instanceof Expr.Length) {
+			Expr.Length length = (Expr.Length)expr;
+			return LoxArray.length(length.name, evaluateShallow(length.array, depth + 1));
+		}
+		if(expr instanceof Expr.Assign) {
+			Expr.Assign assign = (Expr.Assign)expr;
+			Object value = evaluateShallow(assign.value, depth + 1);
+			environment.assign(assign.name, value);
+			return value;
+		}
+		throw unsupported(expr);
+	}
+
+	// work stack of evaluateStack(): a node is pushed once to expand it and,
+	// if it has operands, once more with exit set to combine their values
+	private Expr[] work = new Expr[64];
+	private boolean[] exit = new boolean[64];
+	private Object[] values = new Object[64];
+
+	private Object evaluateStack(Expr root, int depth) {
+		Expr[] work = this.work;
+		boolean[] exit = this.exit;
+		Object[] values = this.values;
+		int top = 0;
+		int sp = 0;
+		int pending = depth;
+
+		work[top] = root;
+		exit[top++] = false;
+		while(top > 0) {
+			Expr expr = work[--top];
+			if(exit[top]) {
+				if(expr instanceof Expr.Probe) {
+					((Expr.Probe)expr).instrument.after(((Expr.Probe)expr).expression, values[sp - 1], environment);
+					continue;
+				}
+				pending--;
+				if(expr instanceof Expr.Binary) {
+					Object right = values[--sp];
+					if(profile != null)
+						profile.operands(expr, values[sp - 1], right);
+					values[sp - 1] = binary(((Expr.Binary)expr).operator, values[sp - 1], right);
+				} else if(expr instanceof Expr.Unary) {
+					if(profile != null)
+						profile.operands(expr, null, values[sp - 1]);
+					values[sp - 1] = unary(((Expr.Unary)expr).operator, values[sp - 1]);
+				} else if(expr instanceof Expr.Share) {
+					share(((Expr.Share)expr).slot, values[sp - 1]);
+				} else if(expr instanceof Expr.Unchecked) {
+					Expr inner = ((Expr.Unchecked)expr).expression;
+					if(inner instanceof Expr.Unary) {
+						values[sp - 1] = -(double)values[sp - 1];
+					} else {
+						Object right = values[--sp];
+						values[sp - 1] = unchecked(((Expr.Binary)inner).operator, values[sp - 1], right);
+					}
+				} else if(expr instanceof Expr.Speculated) {
+					Expr inner = ((Expr.Speculated)expr).expression;
+					if(inner instanceof Expr.Unary) {
+						values[sp - 1] = speculated(inner, null, values[sp - 1]);
+					} else {
+						Object right = values[--sp];
+						values[sp - 1] = speculated(inner, values[sp - 1], right);
+					}
+				} else if(expr instanceof Expr.Call) {
+					Expr.Call call = (Expr.Call)expr;
+					int n = call.arguments.size();
+					List<Object> arguments = new ArrayList<>(Arrays.asList(values).subList(sp - n, sp));
+					sp -= n;
+					values[sp - 1] = call(call.paren, values[sp - 1], arguments);
+				} else if(expr instanceof Expr.Index) {
+					Object index = values[--sp];
+					values[sp - 1] = LoxArray.index(((Expr.Index)expr).bracket, values[sp - 1], index);
+				} else if(expr instanceof Expr.Store) {
+					Object value = values[--sp];
+					Object index = values[--sp];
+					values[sp - 1] = LoxArray.store(((Expr.Store)expr).bracket, values[sp - 1], index, value);
+				} else if(expr instanceof Expr.Length) {
+					values[sp - 1] = LoxArray.length(((Expr.Length)expr).name, values[sp - 1]);
+				} else {
+					environment.assign(((Expr.Assign)expr).name, values[sp - 1]);
+				}
+				continue;
+			}
+
+			if(expr instanceof Expr.Literal) {
+				if(sp == values.length)
+					this.values = values = Arrays.copyOf(values, sp * 2);
+				values[sp++] = ((Expr.Literal)expr).value;
+				continue;
+			}
+			if(expr instanceof Expr.Variable) {
+				if(sp == values.length)
+					this.values = values = Arrays.copyOf(values, sp * 2);
+				values[sp++] = environment.get(((Expr.Variable)expr).name);
+				continue;
+			}
+			if(expr instanceof Expr.Reuse) {
+				if(sp == values.length)
+					this.values = values = Arrays.copyOf(values, sp * 2);
+				values[sp++] = shared[((Expr.Reuse)expr).slot];
+				continue;
+			}
+			if(expr instanceof Expr.Grouping) {
+				work[top++] = ((Expr.Grouping)expr).expression;
+				continue;
+			}
+			// around its expression, which is no deeper for it
+			if(expr instanceof Expr.Probe) {
+				if(top + 2 > work.length) {
+					this.work = work = Arrays.copyOf(work, work.length * 2);
+					this.exit = exit = Arrays.copyOf(exit, exit.length * 2);
+				}
+				work[top] = expr;
+				exit[top++] = true;
+				work[top] = ((Expr.Probe)expr).expression;
+				exit[top++] = false;
+				continue;
+			}
+
+			if(++pending > maxDepth)
+				throw new RuntimeError(firstToken(expr), "Too much nesting.");
+			if(top + 4 > work.length) {
+				this.work = work = Arrays.copyOf(work, work.length * 2);
+				this.exit = exit = Arrays.copyOf(exit, exit.length * 2);
+			}
+			work[top] = expr;
+			exit[top++] = true;
+			if(expr instanceof Expr.Binary) {
+				Expr.Binary binary = (Expr.Binary)expr;
+				work[top] = binary.right;
+				exit[top++] = false;
+				// left is evaluated first, right away when it is a leaf
+				Expr left = binary.left;
+				if(left instanceof Expr.Literal || left instanceof Expr.Variable) {
+					if(sp == values.length)
+						this.values = values = Arrays.copyOf(values, sp * 2);
+					values[sp++] = left instanceof Expr.Literal
+						? ((Expr.Literal)left).value
+						: environment.get(((Expr.Variable)left).name);
+				} else {
+					work[top] = left;
+					exit[top++] = false;
+				}
+			} else if(expr instanceof Expr.Unary) {
+				work[top] = ((Expr.Unary)expr).right;
+				exit[top++] = false;
+			} else if(expr instanceof Expr.Share) {
+				work[top] = ((Expr.Share)expr).expression;
+				exit[top++] = false;
+			} else if(expr instanceof Expr.Unchecked || expr instanceof Expr.Speculated) {
+				// the operands of the checked node it wraps
+				Expr inner = expr instanceof Expr.Unchecked
+					? ((Expr.Unchecked)expr).expression : ((Expr.Speculated)expr).expression;
+				if(inner instanceof Expr.Unary) {
+					work[top] = ((Expr.Unary)inner).right;
+					exit[top++] = false;
+				} else {
+					work[top] = ((Expr.Binary)inner).right;
+					exit[top++] = false;
+					work[top] = ((Expr.Binary)inner).left;
+					exit[top++] = false;
+				}
+			} else if(expr instanceof Expr.Call) {
+				// callee first, then the arguments from left to right
+				List<Expr> arguments = ((Expr.Call)expr).arguments;
+				while(top + 1 + arguments.size() > work.length) {
+					this.work = work = Arrays.copyOf(work, work.length * 2);
+					this.exit = exit = Arrays.copyOf(exit, exit.length * 2);
+				}
+				for(int i = arguments.size() - 1; i >= 0; i--) {
+					work[top] = arguments.get(i);
+					exit[top++] = false;
+				}
+				work[top] = ((Expr.Call)expr).callee;
+				exit[top++] = false;
+			} else if(expr instanceof Expr.Index) {
+				work[top] = ((Expr.Index)expr).index;
+				exit[top++] = false;
+				work[top] = ((Expr.Index)expr).array;
+				exit[top++] = false;
+			} else if(expr instanceof Expr.Store) {
+				work[top] = ((Expr.Store)expr).value;
+				exit[top++] = false;
+				work[top] = ((Expr.Store)expr).index;
+				exit[top++] = false;
+				work[top] = ((Expr.Store)expr).array;
+				exit[top++] = false;
+			} else if(expr instanceof Expr.Length) {
+				work[top] = ((Expr.Length)expr).array;
+				exit[top++] = false;
+			} else if(expr instanceof Expr.Assign) {
+				work[top] = ((Expr.Assign)expr).value;
+				exit[top++] = false;
+			} else {
+				throw unsupported(expr);
+			}
+		}
+
+		Object result = values[0];
+		values[0] = null;
+		return result;
+	}
+
+	// a node interpretIterative has no case for, a bug rather than an error
+	// of the program
+	private static IllegalStateException unsupported(Object node) {
+		return new IllegalStateException("unsupported node: " + node.getClass().getSimpleName());
+	}
+
+	// for the line of a nesting error
+	private static Token firstToken(Expr expr) {
+		while(true) {
+			if(expr instanceof Expr.Binary) {
+				Expr.Binary binary = (Expr.Binary)expr;
+				if(!(binary.left instanceof Expr.Binary || binary.left instanceof Expr.Grouping))
+					return binary.operator;
+				expr = binary.left;
+			} else if(expr instanceof Expr.Unary) {
+				return ((Expr.Unary)expr).operator;
+			} else if(expr instanceof Expr.Assign) {
+				return ((Expr.Assign)expr).name;
+			} else if(expr instanceof Expr.Variable) {
+				return ((Expr.Variable)expr).name;
+			} else if(expr instanceof Expr.Grouping) {
+				expr = ((Expr.Grouping)expr).expression;
+			} else if(expr instanceof Expr.Share) {
+				expr = ((Expr.Share)expr).expression;
+			} else if(expr instanceof Expr.Reuse) {
+				expr = ((Expr.Reuse)expr).expression;
+			} else if(expr instanceof Expr.Unchecked) {
+				expr = ((Expr.Unchecked)expr).expression;
+			} else if(expr instanceof Expr.Speculated) {
+				expr = ((Expr.Speculated)expr).expression;
+			} else if(expr instanceof Expr.Probe) {
+				expr = ((Expr.Probe)expr).expression;
+			} else if(expr instanceof Expr.Call) {
+				expr = ((Expr.Call)expr).callee;
+			} else if(expr instanceof Expr.Index) {
+				expr = ((Expr.Index)expr).array;
+			} else if(expr instanceof Expr.Store) {
+				expr = ((Expr.Store)expr).array;
+			} else if(expr instanceof Expr.Length) {
+				expr = ((Expr.Length)expr).array;
+			} else {
+				return new Token(TokenType.NIL, "", null, 0);
+			}
+		}
+	}
+
+	private static Token firstToken(List<Stmt> block) {
+		for(Stmt stmt: block) {
+			if(stmt instanceof Stmt.Var)
+				return ((Stmt.Var)stmt).name;
+			if(stmt instanceof Stmt.Expression)
+				return firstToken(((Stmt.Expression)stmt).expression);
+			if(stmt instanceof Stmt.Print)
+				return firstToken(((Stmt.Print)stmt).expression);
+			if(stmt instanceof Stmt.If)
+				return firstToken(((Stmt.If)stmt).condition);
+		}
+		return new Token(TokenType.NIL, "", null, 0);
+	}
 }
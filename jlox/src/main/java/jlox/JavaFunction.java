@@ -0,0 +1,236 @@
+package jlox;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.List;
+
+/*
+ * A public static Java method bound as a Lox function, see
+ * Interpreter.registerNative.
+ *
+ * The method handle is adapted once, when it is bound: every parameter gets
+ * a filter from Lox values and the return value one back, so the handle
+ * takes and returns plain Objects. Calls with up to three arguments invoke it
+ * exactly, without an argument list or array.
+ *
+ *	Java							Lox
+ *	double, float, Double	number
+ *	int, long						number that is a whole number
+ *	boolean, Boolean			true or false
+ *	String							string
+ *	char, Character				returns a string of that character
+ *	Object							any value, nil is null
+ *	void								returns nil
+ *	other numbers				returned as numbers
+ *	other objects				returned as they are
+ */
+final class JavaFunction implements LoxCallable {
+	private final String name;
+	private final int arity;
+	// (Object, ...)Object with arity parameters
+	private final MethodHandle handle;
+	// (Object[])Object, for calls through a list
+	private final MethodHandle spreader;
+
+	private JavaFunction(String name, MethodHandle handle) {
+		this.name = name;
+		this.arity = handle.type().parameterCount();
+		this.handle = handle;
+		this.spreader = handle.asSpreader(Object[].class, arity);
+	}
+
+	static JavaFunction of(String name, Method method) {
+		if(!Modifier.isStatic(method.getModifiers()))
+			throw new IllegalArgumentException(method + " is not static");
+		MethodHandle handle;
+		try {
+			handle = MethodHandles.publicLookup().unreflect(method);
+		} catch(IllegalAccessException e) {
+			throw new IllegalArgumentException(method + " is not public", e);
+		}
+
+		Class<?>[] parameters = method.getParameterTypes();
+		MethodHandle[] filters = new MethodHandle[parameters.length];
+		for(int i = 0; i < parameters.length; i++)
+			filters[i] = MethodHandles.insertArguments(parameter(parameters[i]), 1, i + 1);
+		handle = MethodHandles.filterArguments(handle, 0, filters);
+		handle = result(handle, method.getReturnType());
+		return new JavaFunction(name,
+			handle.asType(MethodType.genericMethodType(parameters.length)));
+	}
+
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+	// (Object value, int position) to the type of the parameter
+	private static MethodHandle parameter(Class<?> type) {
+		if(type == Object.class)
+			return MethodHandles.dropArguments(MethodHandles.identity(Object.class), 1, int.class);
+		Class<?> converted = type == float.class || type == Double.class ? double.class
+			: type == Boolean.class ? boolean.class
+			: type;
+		String converter;
+		if(converted == double.class)
+			converter = "toDouble";
+		else if(converted == int.class)
+			converter = "toInt";
+		else if(converted == long.class)
+			converter = "toLong";
+		else if(converted == boolean.class)
+			converter = "toBoolean";
+		else if(converted == String.class)
+			converter = "toString";
+		else
+			throw new IllegalArgumentException("unsupported parameter type " + type);
+
+		MethodHandle filter = converter(converter, MethodType.methodType(converted, Object.class, int.class));
+		// narrows to float, boxes to Double and Boolean
+		return MethodHandles.explicitCastArguments(filter, filter.type().changeReturnType(type));
+	}
+
+	private static MethodHandle converter(String name, MethodType type) {
+		try {
+			return LOOKUP.findStatic(JavaFunction.class, name, type);
+		} catch(ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	// makes a number of every numeric result, the rest asType adapts
+	private static MethodHandle result(MethodHandle handle, Class<?> type) {
+		if(type == int.class || type == long.class || type == float.class
+				|| type == short.class || type == byte.class)
+			return handle.asType(handle.type().changeReturnType(double.class));
+		if(Number.class.isAssignableFrom(type) && type != Double.class) {
+			MethodHandle filter = converter("fromNumber", MethodType.methodType(Object.class, Number.class));
+			return MethodHandles.filterReturnValue(
+				handle.asType(handle.type().changeReturnType(Number.class)), filter);
+		}
+		if(type == char.class || type == Character.class) {
+			MethodHandle filter = converter("fromChar", MethodType.methodType(Object.class, Character.class));
+			return MethodHandles.filterReturnValue(
+				handle.asType(handle.type().changeReturnType(Character.class)), filter);
+		}
+		return handle;
+	}
+
+	// thrown by the parameter filters, reported at the call
+	private static final class ArgumentError extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		ArgumentError(int position, String expected) {
+			super("Argument " + position + " must be " + expected + ".", null, false, false);
+		}
+	}
+
+	private static double toDouble(Object value, int position) {
+		if(value instanceof Double)
+			return (double)value;
+		throw new ArgumentError(position, "a number");
+	}
+
+	private static int toInt(Object value, int position) {
+		if(value instanceof Double) {
+			double d = (double)value;
+			if(d == (int)d)
+				return (int)d;
+		}
+		throw new ArgumentError(position, "a whole number");
+	}
+
+	private static long toLong(Object value, int position) {
+		if(value instanceof Double) {
+			double d = (double)value;
+			// 2^63 itself would saturate to Long.MAX_VALUE and compare equal
+			if(d == (long)d && d < 0x1p63)
+				return (long)d;
+		}
+		throw new ArgumentError(position, "a whole number");
+	}
+
+	private static boolean toBoolean(Object value, int position) {
+		if(value instanceof Boolean)
+			return (boolean)value;
+		throw new ArgumentError(position, "true or false");
+	}
+
+	private static String toString(Object value, int position) {
+		if(value instanceof String)
+			return (String)value;
+		throw new ArgumentError(position, "a string");
+	}
+
+	private static Object fromNumber(Number number) {
+		return number != null ? (Object)number.doubleValue() : null;
+	}
+
+	private static Object fromChar(Character c) {
+		return c != null ? c.toString() : null;
+	}
+
+	@Override
+	public int arity() {
+		return arity;
+	}
+
+	@Override
+	public Object call(Token paren, List<Object> arguments) {
+		try {
+			return (Object)spreader.invokeExact(arguments.toArray());
+		} catch(Throwable e) {
+			throw failed(paren, e);
+		}
+	}
+
+	// the calls Interpreter makes without a list, arity already checked
+
+	Object call(Token paren) {
+		try {
+			return (Object)handle.invokeExact();
+		} catch(Throwable e) {
+			throw failed(paren, e);
+		}
+	}
+
+	Object call(Token paren, Object a) {
+		try {
+			return (Object)handle.invokeExact(a);
+		} catch(Throwable e) {
+			throw failed(paren, e);
+		}
+	}
+
+	Object call(Token paren, Object a, Object b) {
+		try {
+			return (Object)handle.invokeExact(a, b);
+		} catch(Throwable e) {
+			throw failed(paren, e);
+		}
+	}
+
+	Object call(Token paren, Object a, Object b, Object c) {
+		try {
+			return (Object)handle.invokeExact(a, b, c);
+		} catch(Throwable e) {
+			throw failed(paren, e);
+		}
+	}
+
+	// errors of the JVM itself are not the script's
+	private RuntimeException failed(Token paren, Throwable e) {
+		if(e instanceof Error)
+			throw (Error)e;
+		if(e instanceof RuntimeError)
+			return (RuntimeError)e;
+		if(e instanceof ArgumentError)
+			return new RuntimeError(paren, e.getMessage());
+		return new RuntimeError(paren, name + " failed: " + e);
+	}
+
+	@Override
+	public String toString() {
+		return "<native fn>";
+	}
+}
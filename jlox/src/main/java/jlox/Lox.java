@@ -3,36 +3,250 @@ package jlox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.PrintStream;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.function.IntConsumer;
 
 public class Lox {
-	private static final Interpreter interpreter = new Interpreter();
+	private static Interpreter interpreter = new Interpreter();
+	private static final ArenaInterpreter arenaInterpreter = new ArenaInterpreter();
 
-	static boolean hadError = false;
-	static boolean hadRuntimeError = false;
+	// run programs from their flat Arena encoding instead of the Stmt tree
+	static boolean useArena = false;
+	// parse block bodies only when they first run
+	static boolean lazy = false;
+	// with lazy, report the syntax errors of block bodies up front all the
+	// same, see Parser
+	static boolean check = false;
+	// parse and run on explicit stacks with this nesting limit, 0 to recurse
+	static int maxDepth = 0;
+	// compute repeated pure subexpressions once, see ValueNumbering
+	static boolean cse = false;
+	// evaluate operations with proven operand types unchecked, see TypeInference
+	static boolean types = false;
+	// globals of every runIsolated script, null for their own
+	static SharedEnvironment sharedGlobals = null;
+	// where imports are looked for after the directory of the script
+	static List<Path> modulePath = new ArrayList<>();
+	// record the Profile of script files, or speculate on it once there is
+	// one
+	static boolean profiling = false;
+	// run top-level statements that do not depend on each other at the same
+	// time, see StatementGraph
+	static boolean parallel = false;
+	// print how --parallel split the program
+	static boolean graph = false;
+	// run script files under the Debugger, with commands from System.in
+	static boolean debug = false;
+	// print every statement of script files before it runs
+	static boolean trace = false;
+
+	// told as runFile has read its script and run has scanned, parsed and
+	// executed it, for MacroBenchmark
+	static IntConsumer phases = null;
+	static final int READ = 0;
+	static final int SCANNED = 1;
+	static final int PARSED = 2;
+	static final int EXECUTED = 3;
+
+	// Error state of the script running on each thread, so that LoxDaemon can
+	// run several scripts at once. err is null for System.err.
+	private static class Context {
+		boolean hadError = false;
+		boolean hadRuntimeError = false;
+		PrintStream err = null;
+		// the script file, null for source from elsewhere
+		Path script = null;
+	}
+
+	private static final ThreadLocal<Context> context =
+		ThreadLocal.withInitial(Context::new);
 
 	public static void main(String[] args) throws IOException {
 		System.out.println("Hello Lox!");
-		if(args.length > 1) {
-			System.out.println("Usage: jlox [script]");
+		List<String> arguments = options(args);
+
+		if(arguments.size() > 1) {
+			System.out.println("Usage: jlox [--arena] [--lazy] [--check] [--iterative] [--max-depth=n] [--cse] [--types] [--path=dirs] [--profile] [--parallel] [--graph] [--shared-globals] [--debug] [--trace] [script]");
 			System.exit(64);
-		} else if(args.length == 1) {
-			runFile(args[0]);
+		} else if(arguments.size() == 1) {
+			runFile(arguments.get(0));
 		} else {
 			runPrompt();
 		}
 	}
 
+	// sets the engine flags and returns the remaining arguments
+	static List<String> options(String[] args) {
+		List<String> arguments = new ArrayList<>();
+		for(String arg: args) {
+			if(arg.equals("--arena"))
+				useArena = true;
+			else if(arg.equals("--lazy"))
+				lazy = true;
+			else if(arg.equals("--check"))
+				check = true;
+			else if(arg.equals("--iterative"))
+				maxDepth = Integer.MAX_VALUE;
+			else if(arg.startsWith("--max-depth="))
+				maxDepth = Integer.parseInt(arg.substring("--max-depth=".length()));
+			else if(arg.equals("--cse"))
+				cse = true;
+			else if(arg.equals("--types"))
+				types = true;
+			else if(arg.startsWith("--path=")) {
+				for(String directory: arg.substring("--path=".length()).split(java.io.File.pathSeparator))
+					modulePath.add(Paths.get(directory));
+			}
+			else if(arg.equals("--profile"))
+				profiling = true;
+			else if(arg.equals("--parallel")) {
+				parallel = true;
+				// statements on other threads define globals at the same time
+				SharedEnvironment globals = new SharedEnvironment();
+				LoxArray.defineNatives(globals);
+				interpreter = new Interpreter(System.out, globals);
+			}
+			else if(arg.equals("--graph"))
+				graph = true;
+			else if(arg.equals("--debug"))
+				debug = true;
+			else if(arg.equals("--trace"))
+				trace = true;
+			else if(arg.equals("--shared-globals")) {
+				sharedGlobals = new SharedEnvironment();
+				LoxArray.defineNatives(sharedGlobals);
+			}
+			else
+				arguments.add(arg);
+		}
+		String conflict = conflict();
+		if(conflict != null) {
+			System.err.println(conflict);
+			System.exit(64);
+		}
+		return arguments;
+	}
+
+	// why the engine flags cannot go together, null if they can
+	static String conflict() {
+		if(parallel && maxDepth > 0)
+			return "--parallel cannot be combined with --iterative or --max-depth.";
+		if(parallel && profiling)
+			return "--parallel cannot be combined with --profile, its workers record nothing.";
+		// probes need every statement parsed, in the tree, on one thread
+		if((debug || trace) && (lazy || useArena || parallel))
+			return "--debug and --trace cannot be combined with --lazy, --arena or --parallel.";
+		return null;
+	}
+
 	public static void runFile(String path) throws IOException {
 		//System.out.println(path);
 		byte[] bytes = Files.readAllBytes(Paths.get(path));
-		run(new String(bytes, Charset.defaultCharset()));
+		context.get().script = Paths.get(path).toAbsolutePath();
+		String source = new String(bytes, Charset.defaultCharset());
+		phase(READ);
+		run(source);
+
+		int code = exitCode();
+		if(code != 0) System.exit(code);
+	}
+
+	// runs source in a fresh interpreter with its own error state and its own
+	// globals, or sharedGlobals when set, printing to out and err, and returns
+	// the exit code runFile would use
+	static int runIsolated(String source, PrintStream out, PrintStream err) {
+		return runIsolated(source, null, out, err);
+	}
+
+	// the same for the source of script, an absolute path, which imports,
+	// profiles and traces go by as they do for runFile
+	static int runIsolated(String source, Path script, PrintStream out, PrintStream err) {
+		Context saved = context.get();
+		Context isolated = new Context();
+		isolated.err = err;
+		isolated.script = script;
+		context.set(isolated);
+		try {
+			Environment globals = sharedGlobals;
+			if(globals == null) {
+				globals = parallel ? new SharedEnvironment() : new Environment();
+				LoxArray.defineNatives(globals);
+			}
+			run(source, new Interpreter(out, globals), new ArenaInterpreter(out, globals));
+			return exitCode();
+		} finally {
+			context.set(saved);
+		}
+	}
+
+	// parses source and its imports with its own error state, syntax errors
+	// going to err, and returns null if there were any
+	static List<Stmt> parseIsolated(String source, PrintStream err) {
+		List<List<Stmt>> parsed = new ArrayList<>();
+		boolean failed = isolated(err, () -> {
+			Parser parser = new Parser(new Scanner(source).scanTokens());
+			List<Stmt> statements = parser.parse();
+			if(!hadError())
+				parsed.add(link(parser.imports(), statements));
+		});
+		return failed ? null : parsed.get(0);
+	}
+
+	// runs work with its own error state, errors going to err, and returns
+	// whether it reported any
+	static boolean isolated(PrintStream err, Runnable work) {
+		Context saved = context.get();
+		Context isolated = new Context();
+		isolated.err = err;
+		isolated.script = saved.script;
+		context.set(isolated);
+		try {
+			work.run();
+			return isolated.hadError;
+		} finally {
+			context.set(saved);
+		}
+	}
+
+	// the statements of the modules imports names, dependencies first, then
+	// statements, or null once errors are reported
+	private static List<Stmt> link(List<Token> imports, List<Stmt> statements) {
+		if(imports.isEmpty())
+			return statements;
+		Path script = context.get().script;
+		Path directory = script != null ? script.getParent() : Paths.get("").toAbsolutePath();
+		List<Stmt> linked = new ModuleLoader(directory, modulePath, maxDepth).load(imports);
+		if(linked == null)
+			return null;
+		linked.addAll(statements);
+		return linked;
+	}
 
-		if(hadError) System.exit(65);
-		if(hadRuntimeError) System.exit(70);
+	static int exitCode() {
+		if(hadError()) return 65;
+		if(hadRuntimeError()) return 70;
+		return 0;
+	}
+
+	static boolean hadError() {
+		return context.get().hadError;
+	}
+
+	static boolean hadRuntimeError() {
+		return context.get().hadRuntimeError;
+	}
+
+	static void clearErrors() {
+		Context c = context.get();
+		c.hadError = false;
+		c.hadRuntimeError = false;
 	}
 
 	public static void runPrompt() throws IOException {
@@ -44,22 +258,120 @@ public class Lox {
 			String line = reader.readLine();
 			if(line == null) break;
 			run(line);
-			hadError = false;
+			context.get().hadError = false;
 		}
 
 	}
 
 	public static void run(String source){
+		run(source, interpreter, arenaInterpreter);
+	}
+
+	private static void run(String source,
+			Interpreter interpreter, ArenaInterpreter arenaInterpreter) {
 		Scanner scanner = new Scanner(source);
 		List<Token> tokens = scanner.scanTokens();
-		Parser parser = new Parser(tokens);
-		List<Stmt> statements = parser.parse();
+		phase(SCANNED);
+		// kept next to the script, and only for the tree interpreters as the
+		// arena one records nothing. Blocks are all parsed to be specialized
+		Path script = context.get().script;
+		Path sidecar = null;
+		Profile profile = null;
+		if(profiling && script != null && !useArena) {
+			sidecar = Paths.get(script + ".profile");
+			try {
+				profile = Profile.load(sidecar, source, tokens);
+			} catch(IOException | RuntimeException e) {
+				err(context.get()).println("Cannot read profile " + sidecar + ", starting a new one.");
+				profile = new Profile(source, tokens);
+			}
+		}
+		// probes go on the tree, all parsed, and run by the tree interpreter
+		Debugger debugger = null;
+		if((debug || trace) && script != null) {
+			debugger = new Debugger(source,
+				debug ? new BufferedReader(new InputStreamReader(System.in)) : null, err(context.get()));
+			debugger.trace = trace;
+		}
+		Parser parser = new Parser(tokens, lazy && profile == null, check);
+		Map<Stmt, Integer> lines = debugger != null ? parser.recordLines() : null;
+		// a program with imports is linked as statements, then put in an arena
+		boolean imports = tokens.get(0).type == TokenType.IMPORT;
+		if(useArena && !imports) {
+			Arena arena = parser.parseArena();
+			if (hadError())
+				return;
+			phase(PARSED);
+			arenaInterpreter.interpret(arena);
+			phase(EXECUTED);
+			return;
+		}
+		List<Stmt> statements = maxDepth > 0 ? parser.parseIterative(maxDepth) : parser.parse();
 		
 		// stop if there was a synthax error
-		if (hadError)
+		if (hadError())
+			return;
+		statements = link(parser.imports(), statements);
+		if (statements == null)
 			return;
 
-		interpreter.interpret(statements);
+		if(cse) {
+			ValueNumbering numbering = new ValueNumbering();
+			statements = numbering.rewrite(statements);
+			err(context.get()).println("Eliminated " + numbering.eliminated
+				+ " common subexpression nodes.");
+		}
+		if(types)
+			statements = new TypeInference(sharedGlobals != null).infer(statements);
+		if(profile != null)
+			statements = profile.specialize(statements);
+		if(debugger != null)
+			statements = debugger.attach(statements, lines);
+
+		if(useArena) {
+			Arena arena = new Arena(1024);
+			for(Stmt statement: statements)
+				arena.add(statement);
+			Arena finished = arena.finish();
+			phase(PARSED);
+			arenaInterpreter.interpret(finished);
+			phase(EXECUTED);
+			return;
+		}
+		phase(PARSED);
+		boolean recording = profile != null && !profile.loaded;
+		interpreter.profile = recording ? profile : null;
+		interpreter.missed = 0;
+		try {
+			if(parallel) {
+				StatementGraph graph = new StatementGraph(statements);
+				if(Lox.graph)
+					err(context.get()).println(graph.report());
+				interpreter.interpretParallel(statements, graph);
+			} else if(maxDepth > 0)
+				interpreter.interpretIterative(statements, maxDepth);
+			else
+				interpreter.interpret(statements);
+		} catch(Debugger.Quit quit) {
+			// the program ends here
+		} finally {
+			interpreter.profile = null;
+		}
+		phase(EXECUTED);
+		// a speculation that missed makes the profile stale
+		try {
+			if(recording)
+				profile.save(sidecar);
+			else if(profile != null && interpreter.missed > 0)
+				Files.deleteIfExists(sidecar);
+		} catch(IOException e) {
+			err(context.get()).println("Cannot write profile " + sidecar + ".");
+		}
+	}
+
+	private static void phase(int phase) {
+		if(phases != null)
+			phases.accept(phase);
 	}
 
 	static void error(int line, String message){
@@ -67,8 +379,18 @@ public class Lox {
 	}
 
 	static void report(int line, String where, String message){
-		System.err.println("[line " + line + "] Error" + where + ": " + message);
-		hadError = true;
+		Context c = context.get();
+		err(c).println("[line " + line + "] Error" + where + ": " + message);
+		c.hadError = true;
+	}
+
+	// where the errors of the running script go
+	static PrintStream err() {
+		return err(context.get());
+	}
+
+	private static PrintStream err(Context c) {
+		return c.err != null ? c.err : System.err;
 	}
 
 	static void error(Token token, String message) {
@@ -80,7 +402,8 @@ public class Lox {
 	}
 
 	static void runtimeError(RuntimeError error) {
-		System.err.println(error.getMessage() + "\n[line " + error.token.line + "]");
-		hadRuntimeError = true;
+		Context c = context.get();
+		err(c).println(error.getMessage() + "\n[line " + error.token.line + "]");
+		c.hadRuntimeError = true;
 	}
 }
@@ -0,0 +1,212 @@
+package jlox;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/*
+ * Array value. Its elements live in a double[] while they are all numbers,
+ * so numbers are stored, filled, copied and summed without boxing. The
+ * first time anything else is stored, the elements move to an Object[] for
+ * good.
+ *
+ *	array(n)			new array of n zeros
+ *	fill(a, value)		sets every element, returns a
+ *	copy(a)				new array with the elements of a
+ *	sum(a)				sum of the elements, which must be numbers
+ *	a[i], a[i] = v		element i, i a whole number below a.length
+ *	a.length			number of elements
+ */
+final class LoxArray {
+	// exactly one of them is set
+	private double[] numbers;
+	private Object[] objects;
+
+	LoxArray(int length) {
+		numbers = new double[length];
+	}
+
+	private LoxArray(double[] numbers, Object[] objects) {
+		this.numbers = numbers;
+		this.objects = objects;
+	}
+
+	int length() {
+		return numbers != null ? numbers.length : objects.length;
+	}
+
+	Object get(int i) {
+		return numbers != null ? (Object)numbers[i] : objects[i];
+	}
+
+	void set(int i, Object value) {
+		if(numbers != null) {
+			if(value instanceof Double) {
+				numbers[i] = (double)value;
+				return;
+			}
+			generalize();
+		}
+		objects[i] = value;
+	}
+
+	void fill(Object value) {
+		if(numbers != null) {
+			if(value instanceof Double) {
+				Arrays.fill(numbers, (double)value);
+				return;
+			}
+			objects = new Object[numbers.length];
+			numbers = null;
+		}
+		Arrays.fill(objects, value);
+	}
+
+	LoxArray copy() {
+		if(numbers != null)
+			return new LoxArray(numbers.clone(), null);
+		return new LoxArray(null, objects.clone());
+	}
+
+	double sum(Token paren) {
+		double sum = 0;
+		if(numbers != null) {
+			for(double number: numbers)
+				sum += number;
+			return sum;
+		}
+		for(Object object: objects) {
+			if(!(object instanceof Double))
+				throw new RuntimeError(paren, "Can only sum numbers.");
+			sum += (double)object;
+		}
+		return sum;
+	}
+
+	private void generalize() {
+		objects = new Object[numbers.length];
+		for(int i = 0; i < numbers.length; i++)
+			objects[i] = numbers[i];
+		numbers = null;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		append(sb, Collections.newSetFromMap(new IdentityHashMap<>()));
+		return sb.toString();
+	}
+
+	// an array that contains itself prints as [...] inside
+	private void append(StringBuilder sb, Set<LoxArray> open) {
+		if(!open.add(this)) {
+			sb.append("[...]");
+			return;
+		}
+		sb.append('[');
+		for(int i = 0; i < length(); i++) {
+			if(i > 0)
+				sb.append(", ");
+			Object element = get(i);
+			if(element instanceof LoxArray)
+				((LoxArray)element).append(sb, open);
+			else
+				sb.append(Interpreter.stringify(element));
+		}
+		sb.append(']');
+		open.remove(this);
+	}
+
+	// a[i] of Expr.Index
+	static Object index(Token bracket, Object array, Object index) {
+		LoxArray a = array(bracket, array);
+		return a.get(a.position(bracket, index));
+	}
+
+	// a[i] = value of Expr.Store
+	static Object store(Token bracket, Object array, Object index, Object value) {
+		LoxArray a = array(bracket, array);
+		a.set(a.position(bracket, index), value);
+		return value;
+	}
+
+	// a.length of Expr.Length
+	static Object length(Token name, Object array) {
+		if(!(array instanceof LoxArray))
+			throw new RuntimeError(name, "Only arrays have a length.");
+		return (double)((LoxArray)array).length();
+	}
+
+	private static LoxArray array(Token bracket, Object array) {
+		if(!(array instanceof LoxArray))
+			throw new RuntimeError(bracket, "Only arrays can be indexed.");
+		return (LoxArray)array;
+	}
+
+	private int position(Token bracket, Object index) {
+		if(!(index instanceof Double) || (double)index != Math.rint((double)index))
+			throw new RuntimeError(bracket, "Index must be a whole number.");
+		double i = (double)index;
+		if(i < 0 || i >= length())
+			throw new RuntimeError(bracket, "Index " + Interpreter.stringify(index)
+				+ " is out of bounds for length " + length() + ".");
+		return (int)i;
+	}
+
+	private interface Body {
+		Object call(Token paren, List<Object> arguments);
+	}
+
+	private static final class Native implements LoxCallable {
+		private final int arity;
+		private final Body body;
+
+		Native(int arity, Body body) {
+			this.arity = arity;
+			this.body = body;
+		}
+
+		@Override
+		public int arity() {
+			return arity;
+		}
+
+		@Override
+		public Object call(Token paren, List<Object> arguments) {
+			return body.call(paren, arguments);
+		}
+
+		@Override
+		public String toString() {
+			return "<native fn>";
+		}
+	}
+
+	// the array functions, for a new global scope
+	static void defineNatives(Environment globals) {
+		globals.define("array", new Native(1, (paren, arguments) -> {
+			Object length = arguments.get(0);
+			if(!(length instanceof Double) || (double)length < 0
+					|| (double)length != Math.rint((double)length) || (double)length > Integer.MAX_VALUE)
+				throw new RuntimeError(paren, "Array length must be a whole number of at least 0.");
+			return new LoxArray((int)(double)length);
+		}));
+		globals.define("fill", new Native(2, (paren, arguments) -> {
+			LoxArray array = argument(paren, arguments.get(0));
+			array.fill(arguments.get(1));
+			return array;
+		}));
+		globals.define("copy", new Native(1, (paren, arguments) ->
+			argument(paren, arguments.get(0)).copy()));
+		globals.define("sum", new Native(1, (paren, arguments) ->
+			argument(paren, arguments.get(0)).sum(paren)));
+	}
+
+	private static LoxArray argument(Token paren, Object array) {
+		if(!(array instanceof LoxArray))
+			throw new RuntimeError(paren, "Argument must be an array.");
+		return (LoxArray)array;
+	}
+}
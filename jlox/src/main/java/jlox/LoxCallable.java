@@ -0,0 +1,10 @@
+package jlox;
+
+import java.util.List;
+
+// A value that can be called, see Expr.Call. paren is the closing paren of
+// the call, for the line of runtime errors.
+interface LoxCallable {
+	int arity();
+	Object call(Token paren, List<Object> arguments);
+}
@@ -0,0 +1,70 @@
+package jlox;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/*
+ * Runs a script on a LoxDaemon and exits with the script's exit code.
+ *
+ *	jlox-client socket script
+ *
+ * If no daemon listens on socket the script runs in this JVM instead.
+ */
+public class LoxClient {
+	public static void main(String[] args) throws IOException {
+		if(args.length != 2) {
+			System.out.println("Usage: jlox-client socket script");
+			System.exit(64);
+		}
+
+		Path script = Paths.get(args[1]).toAbsolutePath();
+		byte[] source = Files.readAllBytes(script);
+		SocketChannel channel;
+		try {
+			channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+			channel.connect(UnixDomainSocketAddress.of(args[0]));
+		} catch(IOException e) {
+			Lox.runFile(args[1]);
+			return;
+		}
+
+		int code = run(channel, script, source, System.out, System.err);
+		System.out.flush();
+		System.exit(code);
+	}
+
+	// sends the request for source, the contents of script, copies the output
+	// of the response to out and err and returns the exit code
+	static int run(SocketChannel channel, Path script, byte[] source,
+			PrintStream out, PrintStream err) throws IOException {
+		DataOutputStream request = new DataOutputStream(Channels.newOutputStream(channel));
+		request.writeUTF(script != null ? script.toString() : "");
+		request.writeInt(source.length);
+		request.write(source);
+		request.flush();
+
+		DataInputStream response =
+			new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+		while(true) {
+			byte tag = response.readByte();
+			int length = response.readInt();
+			if(tag == LoxDaemon.EXIT)
+				return length;
+			byte[] bytes = new byte[length];
+			response.readFully(bytes);
+			PrintStream target = tag == LoxDaemon.ERR ? err : out;
+			target.write(bytes, 0, length);
+			target.flush();
+		}
+	}
+}
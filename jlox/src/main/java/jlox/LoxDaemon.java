@@ -0,0 +1,162 @@
+package jlox;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+ * Keeps a warm JVM around and runs scripts sent over a Unix domain socket,
+ * so that shell pipelines do not pay JVM startup on every call.
+ *
+ *	jlox-daemon [--arena] [--lazy] [--check] [--iterative] [--max-depth=n] [--cse] [--types] [--path=dirs] [--profile] [--parallel] [--graph] [--trace] [--shared-globals] socket
+ *
+ * Protocol, all integers big endian:
+ *	request		the absolute path of the script as DataOutput.writeUTF
+ *						writes it, empty for none, then int length and that
+ *						many source bytes in the platform charset
+ *	response	frames of byte tag, int length, bytes, where the tag is
+ *						OUT or ERR for output and EXIT (length is the exit code, no
+ *						bytes follow) ends the response
+ *
+ * Every request runs on a worker thread in its own interpreter, with its own
+ * globals and error state, see Lox.runIsolated. With --shared-globals all
+ * requests share one SharedEnvironment instead, so that globals one script
+ * defines stay visible to the scripts after it. Imports and profiles go by
+ * the script path as they do for jlox, and a source longer than MAX_SOURCE
+ * or of a negative length is answered with an error and exit code 64.
+ * There is no --debug, the daemon has no terminal of the client's.
+ */
+public class LoxDaemon {
+	static final byte OUT = 'o';
+	static final byte ERR = 'e';
+	static final byte EXIT = 'x';
+	// longest source a request may send
+	static final int MAX_SOURCE = 64 << 20;
+
+	public static void main(String[] args) throws IOException {
+		List<String> arguments = Lox.options(args);
+		if(arguments.size() != 1 || Lox.debug) {
+			System.out.println("Usage: jlox-daemon [--arena] [--lazy] [--check] [--iterative] [--max-depth=n] [--cse] [--types] [--path=dirs] [--profile] [--parallel] [--graph] [--trace] [--shared-globals] socket");
+			System.exit(64);
+		}
+
+		Path socket = Paths.get(arguments.get(0));
+		Files.deleteIfExists(socket);
+		ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		server.bind(UnixDomainSocketAddress.of(socket));
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			try {
+				Files.deleteIfExists(socket);
+			} catch(IOException e) {
+				// nothing left to do
+			}
+		}));
+
+		ExecutorService workers =
+			Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		System.err.println("jlox daemon listening on " + socket);
+		while(true) {
+			SocketChannel client = server.accept();
+			workers.execute(() -> serve(client));
+		}
+	}
+
+	// answers the request of client and closes it
+	static void serve(SocketChannel client) {
+		try(SocketChannel channel = client) {
+			DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+			String path = in.readUTF();
+			int length = in.readInt();
+
+			DataOutputStream response = new DataOutputStream(
+					new BufferedOutputStream(Channels.newOutputStream(channel)));
+			Frames frames = new Frames(response);
+			PrintStream out = new PrintStream(new BufferedOutputStream(frames.stream(OUT)));
+			PrintStream err = new PrintStream(frames.stream(ERR), true);
+			frames.flushBeforeErr = out;
+
+			if(length < 0 || length > MAX_SOURCE) {
+				err.println("Source of " + length + " bytes, expect 0 to " + MAX_SOURCE + ".");
+				frames.exit(64);
+				return;
+			}
+			byte[] source = new byte[length];
+			in.readFully(source);
+			Path script;
+			try {
+				script = path.isEmpty() ? null : Paths.get(path).toAbsolutePath();
+			} catch(InvalidPathException e) {
+				err.println("Invalid script path '" + path + "'.");
+				frames.exit(64);
+				return;
+			}
+
+			int code;
+			try {
+				code = Lox.runIsolated(new String(source, Charset.defaultCharset()), script, out, err);
+			} catch(StackOverflowError | RuntimeException e) {
+				err.println("Internal error: " + e);
+				code = 70;
+			}
+			out.flush();
+			frames.exit(code);
+		} catch(IOException e) {
+			// the client went away, nothing to report to
+		}
+	}
+
+	// writes the output of one request as frames
+	private static class Frames {
+		private final DataOutputStream response;
+		// stdout is buffered, flush it first so that output stays in order
+		PrintStream flushBeforeErr;
+
+		Frames(DataOutputStream response) {
+			this.response = response;
+		}
+
+		OutputStream stream(byte tag) {
+			return new OutputStream() {
+				@Override public void write(int b) throws IOException {
+					write(new byte[] { (byte)b }, 0, 1);
+				}
+
+				@Override public void write(byte[] b, int off, int len) throws IOException {
+					if(tag == ERR && flushBeforeErr != null)
+						flushBeforeErr.flush();
+					frame(tag, b, off, len);
+				}
+			};
+		}
+
+		private synchronized void frame(byte tag, byte[] b, int off, int len) throws IOException {
+			response.writeByte(tag);
+			response.writeInt(len);
+			response.write(b, off, len);
+			if(tag == ERR)
+				response.flush();
+		}
+
+		synchronized void exit(int code) throws IOException {
+			response.writeByte(EXIT);
+			response.writeInt(code);
+			response.flush();
+		}
+	}
+}
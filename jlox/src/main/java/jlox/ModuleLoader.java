@@ -0,0 +1,210 @@
+package jlox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+ * Loads the modules a script imports and everything they import in turn.
+ *
+ *	import "util";		util.lox in the directory of the importing file,
+ *				else in the first directory of the search path having it
+ *
+ * A module is its statements. Those of every module are run once, before
+ * the script and after the modules it imports, all in the same globals: a
+ * module sees what its imports define and the script sees all of it.
+ *
+ * Modules are read and parsed on a pool of threads, each as soon as an
+ * importer is parsed, so modules apart in the graph are parsed at the same
+ * time. Parsed modules are cached by path across loads, and parsed again
+ * only when their file changes. The graph is then walked on the calling
+ * thread, which reports missing modules, modules with syntax errors and
+ * import cycles as errors at the import.
+ */
+final class ModuleLoader {
+	private static final class Module {
+		final Path path;
+		final List<Stmt> statements;
+		final List<Token> imports;
+		// the syntax errors, empty for none
+		final String errors;
+		final long modified;
+
+		Module(Path path, List<Stmt> statements, List<Token> imports, String errors, long modified) {
+			this.path = path;
+			this.statements = statements;
+			this.imports = imports;
+			this.errors = errors;
+			this.modified = modified;
+		}
+	}
+
+	private static final Map<Path, Module> cache = new ConcurrentHashMap<>();
+
+	private static final ExecutorService pool =
+		Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), work -> {
+			Thread thread = new Thread(work, "module-loader");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+	private final Path directory;
+	private final List<Path> searchPath;
+	private final int maxDepth;
+	// the modules of this load by path, loaded or being loaded
+	private final Map<Path, CompletableFuture<Module>> loading = new ConcurrentHashMap<>();
+	// the file of each import, none for those not found
+	private final Map<Token, Path> resolved = new ConcurrentHashMap<>();
+
+	// imports of the script are looked for in directory, then searchPath.
+	// maxDepth is that of parseIterative, 0 to parse recursively
+	ModuleLoader(Path directory, List<Path> searchPath, int maxDepth) {
+		this.directory = directory;
+		this.searchPath = searchPath;
+		this.maxDepth = maxDepth;
+	}
+
+	static void clearCache() {
+		cache.clear();
+	}
+
+	// the statements of the modules imported, dependencies first, or null
+	// once errors are reported
+	List<Stmt> load(List<Token> imports) {
+		for(Token name: imports)
+			request(name, directory);
+		// a module requests its imports before it is done, so once the ones
+		// seen are done, every one is
+		int seen;
+		do {
+			List<CompletableFuture<Module>> futures = new ArrayList<>(loading.values());
+			seen = futures.size();
+			for(CompletableFuture<Module> future: futures)
+				future.join();
+		} while(loading.size() != seen);
+
+		List<Stmt> statements = new ArrayList<>();
+		boolean failed = false;
+		Set<Path> done = new HashSet<>();
+		List<Path> chain = new ArrayList<>();
+		for(Token name: imports)
+			failed |= !link(name, chain, done, statements);
+		return failed ? null : statements;
+	}
+
+	private void request(Token name, Path from) {
+		Path path = resolve((String)name.literal + ".lox", from);
+		if(path == null)
+			return;
+		resolved.put(name, path);
+		if(loading.containsKey(path))
+			return;
+		CompletableFuture<Module> future = new CompletableFuture<>();
+		if(loading.putIfAbsent(path, future) != null)
+			return;
+		pool.execute(() -> {
+			try {
+				Module module = module(path, maxDepth);
+				for(Token dependency: module.imports)
+					request(dependency, path.getParent());
+				future.complete(module);
+			} catch(Throwable e) {
+				future.completeExceptionally(e);
+			}
+		});
+	}
+
+	private Path resolve(String file, Path from) {
+		Path path = from.resolve(file);
+		for(int i = 0; !Files.isRegularFile(path); i++) {
+			if(i == searchPath.size())
+				return null;
+			path = searchPath.get(i).resolve(file);
+		}
+		try {
+			return path.toRealPath();
+		} catch(IOException e) {
+			return null;
+		}
+	}
+
+	private static Module module(Path path, int maxDepth) {
+		long modified;
+		String source;
+		try {
+			modified = Files.getLastModifiedTime(path).toMillis();
+			Module cached = cache.get(path);
+			if(cached != null && cached.modified == modified)
+				return cached;
+			source = new String(Files.readAllBytes(path), Charset.defaultCharset());
+		} catch(IOException e) {
+			return new Module(path, List.of(), List.of(), "Cannot read " + path + ".\n", -1);
+		}
+
+		ByteArrayOutputStream errors = new ByteArrayOutputStream();
+		List<List<Stmt>> parsed = new ArrayList<>();
+		List<Token> imports = new ArrayList<>();
+		Lox.isolated(new PrintStream(errors, true), () -> {
+			Parser parser = new Parser(new Scanner(source).scanTokens());
+			parsed.add(maxDepth > 0 ? parser.parseIterative(maxDepth) : parser.parse());
+			imports.addAll(parser.imports());
+		});
+		Module module = new Module(path, parsed.get(0), imports,
+			errors.toString(), modified);
+		cache.put(path, module);
+		return module;
+	}
+
+	// adds the statements of the module name and of those it imports not yet
+	// done, dependencies first, and returns false if errors were reported.
+	// chain is the modules being linked, from the script down
+	private boolean link(Token name, List<Path> chain, Set<Path> done, List<Stmt> statements) {
+		Path path = resolved.get(name);
+		if(path == null) {
+			Lox.error(name, "Cannot find module " + name.literal + ".");
+			return false;
+		}
+		if(done.contains(path))
+			return true;
+		if(chain.contains(path)) {
+			StringBuilder cycle = new StringBuilder("Import cycle");
+			for(Path module: chain.subList(chain.indexOf(path), chain.size()))
+				cycle.append(' ').append(name(module)).append(" ->");
+			Lox.error(name, cycle.append(' ').append(name(path)).append('.').toString());
+			return false;
+		}
+
+		Module module = loading.get(path).join();
+		if(!module.errors.isEmpty()) {
+			Lox.err().print(module.errors);
+			Lox.error(name, "Errors in module " + name.literal + ".");
+			done.add(path);
+			return false;
+		}
+		boolean linked = true;
+		chain.add(path);
+		for(Token dependency: module.imports)
+			linked &= link(dependency, chain, done, statements);
+		chain.remove(chain.size() - 1);
+		done.add(path);
+		statements.addAll(module.statements);
+		return linked;
+	}
+
+	private static String name(Path module) {
+		String file = module.getFileName().toString();
+		return file.substring(0, file.length() - ".lox".length());
+	}
+}
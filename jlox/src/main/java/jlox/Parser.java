@@ -2,12 +2,17 @@ package jlox;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
 
 import static jlox.TokenType.*;
 
 /* LOX GRAMMAR
 {{{
-	program -> declaration* EOF ;
+	program -> import* declaration* EOF ;
+
+	import -> "import" STRING ";" ;
 
 	declaration -> varDecl | statement ;
 
@@ -26,28 +31,125 @@ import static jlox.TokenType.*;
 	printStmt -> "print" expression ";" ;
 
 	expression 	-> assignment ;
-	assignment -> IDENTIFIER "=" assignment | equality ;
+	assignment -> ( call "[" expression "]" | IDENTIFIER ) "=" assignment
+							| equality ;
 
 	equality 		-> comparison (( "!=" | "==" ) comparison )* ;
 	comparison 	-> term (( ">" | ">=" | "<" | "<=" ) term )* ;
 	term 				-> factor (( "-" | "+" ) factor )* ;
 	factor 			-> unary (( "/" | "*" ) unary )* ;
-	unary 			-> ("!" | "-")* unary | primary ;
+	unary 			-> ("!" | "-")* unary | call ;
+	call 				-> primary ( "(" arguments? ")" | "[" expression "]" | "." "length" )* ;
+	arguments 	-> expression ( "," expression )* ;
 	primary 		-> NUMBER | STRING | "true" | "false" | "nil"
 								| "(" expression ")" | IDENTIFIER;
 }
 */
 class Parser {
-	private static class ParseError extends RuntimeException {};
+	static class ParseError extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+	}
 	private final List<Token> tokens;
 	private int current = 0;
+	private boolean hadError = false;
+	// the module names of the program's imports, see ModuleLoader
+	private final List<Token> imports = new ArrayList<>();
+
+	// lazy mode only: index of the matching '}' of every '{', -1 if unmatched
+	private final int[] braces;
+	// lazy mode only: parse deferred bodies up front as well, for their errors
+	private final boolean check;
+	// iterative mode only: deepest nesting allowed, 0 in recursive mode
+	private int maxDepth = 0;
+	// the line each statement starts on, once recordLines is called
+	private Map<Stmt, Integer> lines = null;
 
 	Parser(List<Token> tokens) {
+		this(tokens, false);
+	}
+
+	// a lazy parser leaves block bodies unparsed until they first run
+	Parser(List<Token> tokens, boolean lazy) {
+		this(tokens, lazy, false);
+	}
+
+	// a checking lazy parser reports every syntax error of the bodies it
+	// defers as an eager parse would, then drops what it parsed of them
+	Parser(List<Token> tokens, boolean lazy, boolean check) {
+		this.tokens = tokens;
+		this.braces = lazy ? matchBraces(tokens) : null;
+		this.check = check;
+	}
+
+	private Parser(List<Token> tokens, int[] braces, int current) {
 		this.tokens = tokens;
+		this.braces = braces;
+		this.current = current;
+		this.check = false;
 	}
 
-	// program -> declaration* EOF ;
+	private static int[] matchBraces(List<Token> tokens) {
+		int[] braces = new int[tokens.size()];
+		int[] open = new int[16];
+		int depth = 0;
+		for(int i = 0; i < braces.length; i++) {
+			switch(tokens.get(i).type) {
+				case LEFT_BRACE:
+					if(depth == open.length)
+						open = Arrays.copyOf(open, depth * 2);
+					open[depth++] = i;
+					braces[i] = -1;
+					break;
+				case RIGHT_BRACE:
+					if(depth > 0)
+						braces[open[--depth]] = i;
+					break;
+			}
+		}
+		return braces;
+	}
+
+	// A block body that has been brace matched but not parsed. It is parsed
+	// the first time it runs; syntax errors are reported then, with the same
+	// messages an eager parse gives, and throw ParseError to stop execution.
+	// Unless the parser checked it, that is after what ran before it, and
+	// not at all if it never runs.
+	//
+	// A tree may run on several threads, so the first parse is synchronized.
+	// One that failed is not kept, and every thread that runs the body
+	// reports its errors to its own script.
+	static class Deferred {
+		private final List<Token> tokens;
+		private final int[] braces;
+		private final int start;
+		private volatile List<Stmt> statements;
+
+		private Deferred(List<Token> tokens, int[] braces, int start) {
+			this.tokens = tokens;
+			this.braces = braces;
+			this.start = start;
+		}
+
+		List<Stmt> statements() {
+			List<Stmt> parsed = statements;
+			if(parsed != null)
+				return parsed;
+			synchronized(this) {
+				if(statements == null) {
+					Parser parser = new Parser(tokens, braces, start);
+					parsed = parser.block();
+					if(parser.hadError)
+						throw new ParseError();
+					statements = parsed;
+				}
+				return statements;
+			}
+		}
+	}
+
+	// program -> import* declaration* EOF ;
 	List<Stmt> parse() {
+		importHeader();
 		List<Stmt> statements = new ArrayList<>();
 		while(!isAtEnd()) {
 			statements.add(declaration());
@@ -56,13 +158,75 @@ class Parser {
 		return statements;
 	}
 
+	// same as parse(), but each declaration goes into the arena as soon as it
+	// is parsed so that only one statement tree is alive at a time
+	Arena parseArena() {
+		importHeader();
+		Arena arena = new Arena(tokens.size());
+		while(!isAtEnd()) {
+			Stmt statement = declaration();
+			if(statement != null)
+				arena.add(statement);
+		}
+
+		return arena.finish();
+	}
+
+	// Same as parse(), but nesting is tracked on explicit stacks instead of
+	// the call stack, so only memory and maxDepth limit how deep a program
+	// can nest. Trees and error messages are the ones parse() gives.
+	List<Stmt> parseIterative(int maxDepth) {
+		this.maxDepth = maxDepth;
+		importHeader();
+		List<Stmt> statements = new ArrayList<>();
+		try {
+			while(!isAtEnd()) {
+				statements.add(iterativeDeclaration());
+			}
+		} catch (NestingError error) {
+			// already reported, nothing after it can be trusted
+		}
+
+		return statements;
+	}
+
+	// import -> "import" STRING ";" ; they all come before the declarations
+	private void importHeader() {
+		while(match(IMPORT)) {
+			try {
+				imports.add(consume(STRING, "Expect module name after 'import'."));
+				consume(SEMICOLON, "Expect ';' after module name.");
+			} catch (ParseError error) {
+				synchronize();
+			}
+		}
+	}
+
+	List<Token> imports() {
+		return imports;
+	}
+
+	// keeps the line of every statement parse() finds from now on, for
+	// Instrumentation, as a statement of literals has no token to tell it
+	Map<Stmt, Integer> recordLines() {
+		lines = new IdentityHashMap<>();
+		return lines;
+	}
+
+	private Stmt line(int line, Stmt stmt) {
+		if(lines != null && stmt != null)
+			lines.put(stmt, line);
+		return stmt;
+	}
+
 // declaration -> varDecl | statement ;
 	private Stmt declaration() {
 		try{
+			int line = peek().line;
 			if(match(VAR))
-				return varDeclaration();
+				return line(line, varDeclaration());
 
-			return statement();
+			return line(line, statement());
 		} catch (ParseError error) {
 			synchronize();
 			return null;
@@ -71,15 +235,33 @@ class Parser {
 
 	// statement -> exprStmt | printStmt | block ;
 	private Stmt statement() {
+		if(check(IMPORT))
+			throw error(peek(), "Imports must come before declarations.");
 		if(match(IF))
 			return ifStatement();
 		if(match(PRINT))
 			return printStatement();
 		if(match(LEFT_BRACE))
-			return new Stmt.Block(block());
+			return braces != null ? lazyBlock() : new Stmt.Block(block());
 		return expressionStatement();
 	}
 
+	private Stmt lazyBlock() {
+		int close = braces[current - 1];
+		// unmatched, parse it now to report the error where an eager parse would
+		if(close < 0)
+			return new Stmt.Block(block());
+
+		Stmt lazy = new Stmt.Lazy(new Deferred(tokens, braces, current));
+		// the very parse of an eager parser, errors, recovery and all
+		if(check) {
+			block();
+			return lazy;
+		}
+		current = close + 1;
+		return lazy;
+	}
+
 	private List<Stmt> block() {
 		List<Stmt> statements = new ArrayList<>();
 
@@ -114,11 +296,11 @@ class Parser {
 		consume(LEFT_PAREN, "Expect '(' after 'if'.");
 		Expr condition = expression();
 		consume(RIGHT_PAREN, "Expect ')' after if condition.");
-		Stmt thenBranch = statement();
+		Stmt thenBranch = line(peek().line, statement());
 
 		Stmt elseBranch = null;
 		if(match(ELSE))
-			elseBranch = statement();
+			elseBranch = line(peek().line, statement());
 
 		return new Stmt.If(condition, thenBranch, elseBranch);
 	}
@@ -131,12 +313,10 @@ class Parser {
 	}
 
 
-	private boolean match(TokenType ...tokenTypes){
-		for(TokenType type: tokenTypes){
-			if(check(type)){
-				advance();
-				return true;
-			}
+	private boolean match(TokenType type){
+		if(check(type)){
+			advance();
+			return true;
 		}
 		return false;
 	}
@@ -172,6 +352,7 @@ class Parser {
 	}
 
 	private ParseError error(Token token, String message) {
+		hadError = true;
 		Lox.error(token, message);
 		return new ParseError();
 	}
@@ -201,12 +382,15 @@ class Parser {
 	 * expression 	-> assignment
 	 */
 	Expr expression() {
+		if(maxDepth > 0)
+			return iterativeExpression();
 		return assignment();
 	}
 
-	// assignment -> IDENTIFIER "=" assignment | equality ;
+	// assignment -> ( call "[" expression "]" | IDENTIFIER ) "=" assignment
+	//							| equality ;
 	private Expr assignment() {
-		Expr expr = equality();
+		Expr expr = binary(1);
 
 		if(match(EQUAL)) {
 			Token equals = previous();
@@ -216,69 +400,105 @@ class Parser {
 				Token name = ((Expr.Variable)expr).name;
 				return new Expr.Assign(name, value);
 			}
+			if(expr instanceof Expr.Index) {
+				Expr.Index index = (Expr.Index)expr;
+				return new Expr.Store(index.array, index.bracket, index.index, value);
+			}
 
 			error(equals, "Invalid assignment target.");
 		}
 		return expr;
 	}
 
-	/*
-	 * equality 		-> comparison (( "!=" | "==" ) comparison )* ;
-	 */
-	Expr equality() {
-		Expr e = comparison();
-
-		while(match(BANG_EQUAL, EQUAL_EQUAL)) {
-			e = new Expr.Binary(e, previous(), comparison());			
-		}
-		return e;	
+	// binding power of every binary operator, from equality (1) to factor
+	// (4), 0 for the tokens that are not one
+	private static final int[] BINDING = new int[TokenType.values().length];
+	static{
+		BINDING[BANG_EQUAL.ordinal()] = 1;
+		BINDING[EQUAL_EQUAL.ordinal()] = 1;
+		BINDING[GREATER.ordinal()] = 2;
+		BINDING[GREATER_EQUAL.ordinal()] = 2;
+		BINDING[LESS.ordinal()] = 2;
+		BINDING[LESS_EQUAL.ordinal()] = 2;
+		BINDING[MINUS.ordinal()] = 3;
+		BINDING[PLUS.ordinal()] = 3;
+		BINDING[SLASH.ordinal()] = 4;
+		BINDING[STAR.ordinal()] = 4;
 	}
 
 	/*
-	 * comparison 	-> term (( ">" | ">=" | "<" | "<=" ) term )* ;
+	 * equality, comparison, term and factor by precedence climbing: an
+	 * operand, then every operator that binds at least as tight as minimum
+	 * with a right operand of the operators that bind tighter still, so each
+	 * level is left associative. Builds the trees the grammar does.
 	 */
-	Expr comparison() {
-		Expr e = term();
+	private Expr binary(int minimum) {
+		Expr e = unary();
 
-		while(match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)) {
-			e = new Expr.Binary(e, previous(), term());			
+		while(true) {
+			Token operator = peek();
+			// 0, not an operator, is below every minimum
+			int binding = BINDING[operator.type.ordinal()];
+			if(binding < minimum)
+				return e;
+			current++;
+			e = new Expr.Binary(e, operator, binary(binding + 1));
 		}
-		return e;	
 	}
 
 	/*
-	 * term 				-> factor (( "-" | "+" ) factor )* ;
+	 * unary 			-> ("!" | "-")* unary | call ;
 	 */
-	Expr term() {
-		Expr e = factor();
-
-		while(match(MINUS, PLUS)) {
-			e = new Expr.Binary(e, previous(), factor());			
-		}
-		return e;
+	Expr unary() {
+		TokenType type = peek().type;
+		if(type == BANG || type == MINUS)
+			return new Expr.Unary(advance(), unary());
+		return call();
 	}
 
 	/*
-	 * factor 			-> unary (( "/" | "*" ) unary )* ;
+	 * call 				-> primary ( "(" arguments? ")" | "[" expression "]" | "." "length" )* ;
 	 */
-	Expr factor() {
-		Expr e = unary();
-
-		while(match(SLASH, STAR)) {
-			e = new Expr.Binary(e, previous(), unary());			
+	Expr call() {
+		Expr e = primary();
+
+		while(true) {
+			if(match(LEFT_PAREN)) {
+				e = finishCall(e);
+			} else if(match(LEFT_BRACKET)) {
+				Expr index = expression();
+				Token bracket = consume(RIGHT_BRACKET, "Expect ']' after index.");
+				e = new Expr.Index(e, bracket, index);
+			} else if(match(DOT)) {
+				e = new Expr.Length(e, length());
+			} else {
+				return e;
+			}
 		}
-		return e;
-
 	}
 
 	/*
-	 * unary 			-> ("!" | "-")* unary | primary ;
+	 * arguments 	-> expression ( "," expression )* ;
 	 */
-	Expr unary() {
-		if(match(BANG, MINUS)){
-			return new Expr.Unary(previous(), unary());
+	private Expr finishCall(Expr callee) {
+		List<Expr> arguments = new ArrayList<>();
+		if(!check(RIGHT_PAREN)) {
+			do {
+				if(arguments.size() >= 255)
+					error(peek(), "Can't have more than 255 arguments.");
+				arguments.add(expression());
+			} while(match(COMMA));
 		}
-		return primary();
+		Token paren = consume(RIGHT_PAREN, "Expect ')' after arguments.");
+		return new Expr.Call(callee, paren, arguments);
+	}
+
+	// the property after a '.', arrays have nothing but their length
+	private Token length() {
+		Token name = consume(IDENTIFIER, "Expect 'length' after '.'.");
+		if(!name.lexeme.equals("length"))
+			throw error(name, "Expect 'length' after '.'.");
+		return name;
 	}
 
 	/*
@@ -286,17 +506,297 @@ class Parser {
 	 *					| "(" expression ")" ;
 	 */
 	Expr primary() {
-		if(match(TRUE)) return new Expr.Literal(true);
-		if(match(FALSE)) return new Expr.Literal(false);
-		if(match(NIL)) return new Expr.Literal(null);
-		if(match(NUMBER, STRING)) return new Expr.Literal(previous().literal);
-		if(match(IDENTIFIER)) return new Expr.Variable(previous());
 		if(match(LEFT_PAREN)){
 			Expr e = expression();
 			consume(RIGHT_PAREN, "Expect ')' after expression");
 			return new Expr.Grouping(e);
 		}
+		return primaryOperand();
+	}
+
+	private static class NestingError extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+	}
+
+	private NestingError tooDeep() {
+		error(peek(), "Too much nesting.");
+		return new NestingError();
+	}
+
+	// An open block or if statement of iterativeDeclaration().
+	private static class Frame {
+		// block
+		final List<Stmt> statements;
+		// if statement, elseBranch is set once "else" has been seen
+		final Expr condition;
+		Stmt thenBranch;
+		boolean elseBranch;
+
+		Frame(List<Stmt> statements, Expr condition) {
+			this.statements = statements;
+			this.condition = condition;
+		}
+	}
+
+	// declaration() with its nested blocks and if statements kept on a stack.
+	// A ParseError unwinds to the innermost open block, the same place where
+	// the recursive declaration() would have caught it.
+	private Stmt iterativeDeclaration() {
+		ArrayList<Frame> frames = new ArrayList<>();
+		while(true) {
+			Stmt stmt;
+			Frame top = frames.isEmpty() ? null : frames.get(frames.size() - 1);
+			boolean closing = false;
+			try {
+				if(top != null && top.statements != null
+						&& (check(RIGHT_BRACE) || isAtEnd())) {
+					closing = true;
+					consume(RIGHT_BRACE, "Expect '}' after block.");
+					frames.remove(frames.size() - 1);
+					stmt = new Stmt.Block(top.statements);
+				} else if((top == null || top.statements != null) && match(VAR)) {
+					stmt = varDeclaration();
+				} else if(check(IMPORT)) {
+					throw error(peek(), "Imports must come before declarations.");
+				} else if(match(IF)) {
+					consume(LEFT_PAREN, "Expect '(' after 'if'.");
+					Expr condition = expression();
+					consume(RIGHT_PAREN, "Expect ')' after if condition.");
+					push(frames, new Frame(null, condition));
+					continue;
+				} else if(match(PRINT)) {
+					stmt = printStatement();
+				} else if(match(LEFT_BRACE)) {
+					push(frames, new Frame(new ArrayList<>(), null));
+					continue;
+				} else {
+					stmt = expressionStatement();
+				}
+			} catch (ParseError error) {
+				// the '}' of a block belongs to the declaration around it
+				if(closing)
+					frames.remove(frames.size() - 1);
+				while(!frames.isEmpty() && frames.get(frames.size() - 1).statements == null)
+					frames.remove(frames.size() - 1);
+				synchronize();
+				stmt = null;
+				if(frames.isEmpty())
+					return null;
+			}
+
+			// hand the finished statement to the frames waiting for it
+			while(true) {
+				if(frames.isEmpty())
+					return stmt;
+				Frame frame = frames.get(frames.size() - 1);
+				if(frame.statements != null) {
+					frame.statements.add(stmt);
+					break;
+				}
+				if(!frame.elseBranch) {
+					frame.thenBranch = stmt;
+					if(match(ELSE)) {
+						frame.elseBranch = true;
+						break;
+					}
+					stmt = new Stmt.If(frame.condition, stmt, null);
+				} else {
+					stmt = new Stmt.If(frame.condition, frame.thenBranch, stmt);
+				}
+				frames.remove(frames.size() - 1);
+			}
+		}
+	}
+
+	private void push(ArrayList<Frame> frames, Frame frame) {
+		if(frames.size() >= maxDepth)
+			throw tooDeep();
+		frames.add(frame);
+	}
+
+	// entries of the operator stack of iterativeExpression()
+	private static final int GROUP = -1;
+	private static final int ASSIGN = -2;
+	private static final int UNARY = -3;
+	private static final int INDEX = -4;
+	private static final int CALL = -5;
+
+	private static int precedence(TokenType type) {
+		return BINDING[type.ordinal()];
+	}
+
+	// stacks of iterativeExpression(), kept between calls
+	private Expr[] operands = new Expr[16];
+	private Token[] operators = new Token[16];
+	private int[] kinds = new int[16];
+	// operand count when each operator was pushed, where the arguments of a
+	// call start
+	private int[] bases = new int[16];
+	private int operandCount;
+	private int operatorCount;
+
+	// expression() by operator precedence on explicit operand and operator
+	// stacks. Builds the same trees as the recursive chain from assignment()
+	// down to primary() and reports the same errors in the same order.
+	private Expr iterativeExpression() {
+		operandCount = 0;
+		operatorCount = 0;
+
+		while(true) {
+			// operand: prefix operators and groupings, then a primary
+			while(true) {
+				if(operatorCount >= maxDepth)
+					throw tooDeep();
+				TokenType type = peek().type;
+				if(type == BANG || type == MINUS) {
+					pushOperator(UNARY, advance());
+				} else if(type == LEFT_PAREN) {
+					pushOperator(GROUP, advance());
+				} else {
+					pushOperand(primaryOperand());
+					break;
+				}
+			}
+
+			// operator: close what the operand completes, then take the next one
+			operator:
+			while(true) {
+				// postfix operators bind tighter than prefix ones
+				switch(peek().type) {
+					case LEFT_BRACKET:
+						pushOperator(INDEX, advance());
+						break operator;
+					case LEFT_PAREN: {
+						Token paren = advance();
+						if(!check(RIGHT_PAREN)) {
+							pushOperator(CALL, paren);
+							break operator;
+						}
+						operands[operandCount - 1] =
+							new Expr.Call(operands[operandCount - 1], advance(), new ArrayList<>());
+						continue;
+					}
+					case DOT:
+						advance();
+						operands[operandCount - 1] = new Expr.Length(operands[operandCount - 1], length());
+						continue;
+				}
+
+				while(operatorCount > 0 && kinds[operatorCount - 1] == UNARY) {
+					Token operator = operators[--operatorCount];
+					operands[operandCount - 1] = new Expr.Unary(operator, operands[operandCount - 1]);
+				}
+
+				TokenType type = peek().type;
+				int precedence = precedence(type);
+				if(precedence > 0) {
+					reduce(precedence);
+					pushOperator(precedence, advance());
+					break;
+				}
+				if(type == EQUAL) {
+					reduce(1);
+					pushOperator(ASSIGN, advance());
+					break;
+				}
+
+				int group = operatorCount - 1;
+				while(group >= 0 && kinds[group] != GROUP && kinds[group] != INDEX && kinds[group] != CALL)
+					group--;
+				if(group >= 0) {
+					reduceAssignments();
+					if(kinds[group] == GROUP) {
+						consume(RIGHT_PAREN, "Expect ')' after expression");
+						operatorCount--;
+						operands[operandCount - 1] = new Expr.Grouping(operands[operandCount - 1]);
+					} else if(kinds[group] == INDEX) {
+						Token bracket = consume(RIGHT_BRACKET, "Expect ']' after index.");
+						operatorCount--;
+						Expr index = operands[--operandCount];
+						operands[operandCount - 1] = new Expr.Index(operands[operandCount - 1], bracket, index);
+					} else if(match(COMMA)) {
+						if(operandCount - bases[group] >= 255)
+							error(peek(), "Can't have more than 255 arguments.");
+						break;
+					} else {
+						Token paren = consume(RIGHT_PAREN, "Expect ')' after arguments.");
+						operatorCount--;
+						int base = bases[group];
+						List<Expr> arguments = new ArrayList<>(Arrays.asList(operands).subList(base, operandCount));
+						Arrays.fill(operands, base, operandCount, null);
+						operandCount = base;
+						operands[base - 1] = new Expr.Call(operands[base - 1], paren, arguments);
+					}
+					continue;
+				}
+
+				reduceAssignments();
+				Expr expr = operands[--operandCount];
+				operands[operandCount] = null;
+				return expr;
+			}
+		}
+	}
+
+	private void pushOperator(int kind, Token operator) {
+		if(operatorCount == operators.length) {
+			operators = Arrays.copyOf(operators, operatorCount * 2);
+			kinds = Arrays.copyOf(kinds, operatorCount * 2);
+			bases = Arrays.copyOf(bases, operatorCount * 2);
+		}
+		kinds[operatorCount] = kind;
+		bases[operatorCount] = operandCount;
+		operators[operatorCount++] = operator;
+	}
+
+	private void pushOperand(Expr operand) {
+		if(operandCount == operands.length)
+			operands = Arrays.copyOf(operands, operandCount * 2);
+		operands[operandCount++] = operand;
+	}
+
+	// primary() without the grouping case, calls and indexing are postfix
+	// operators of iterativeExpression()
+	private Expr primaryOperand() {
+		switch(peek().type) {
+			case TRUE: advance(); return new Expr.Literal(true);
+			case FALSE: advance(); return new Expr.Literal(false);
+			case NIL: advance(); return new Expr.Literal(null);
+			case NUMBER:
+			case STRING: return new Expr.Literal(advance().literal);
+			case IDENTIFIER: return new Expr.Variable(advance());
+		}
 		throw error(peek(), "Expect expression.");
 	}
-}
 
+	// builds the binary expressions on top of the stack that bind at least as
+	// tight as precedence, they are all left associative
+	private void reduce(int precedence) {
+		while(operatorCount > 0 && kinds[operatorCount - 1] >= precedence) {
+			Token operator = operators[--operatorCount];
+			Expr right = operands[--operandCount];
+			operands[operandCount - 1] = new Expr.Binary(operands[operandCount - 1], operator, right);
+		}
+	}
+
+	// closes everything down to the innermost open group, assignments are
+	// right associative so the innermost one is built first
+	private void reduceAssignments() {
+		reduce(1);
+		while(operatorCount > 0 && kinds[operatorCount - 1] == ASSIGN) {
+			Token equals = operators[--operatorCount];
+			Expr value = operands[--operandCount];
+			Expr expr = operands[operandCount - 1];
+			if(expr instanceof Expr.Variable) {
+				Token name = ((Expr.Variable)expr).name;
+				operands[operandCount - 1] = new Expr.Assign(name, value);
+			} else if(expr instanceof Expr.Index) {
+				Expr.Index index = (Expr.Index)expr;
+				operands[operandCount - 1] = new Expr.Store(index.array, index.bracket, index.index, value);
+			} else {
+				error(equals, "Invalid assignment target.");
+			}
+			reduce(1);
+		}
+	}
+}
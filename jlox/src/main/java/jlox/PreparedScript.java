@@ -0,0 +1,125 @@
+package jlox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * A script compiled once and run many times with different inputs.
+ *
+ *	PreparedScript script = PreparedScript.compile("print a + b; a * b;", "a", "b");
+ *	PreparedScript.Result result = script.run(2, 3);
+ *	result.output		"5\n"
+ *	result.value		6.0, the last statement's value if it is an expression
+ *
+ * compile scans, parses and applies the ValueNumbering and TypeInference
+ * rewrites. Nothing of that is done again: every run gets a new Interpreter
+ * over a copy of the global scope, with the parameters defined in it, and
+ * nothing a run does is seen by another. The statements are never changed
+ * after compile, so one PreparedScript runs on any number of threads at once.
+ *
+ * Arguments are Lox values, other Numbers are taken as doubles. Runtime
+ * errors are thrown to the caller.
+ */
+final class PreparedScript {
+	private final List<Stmt> statements;
+	private final List<String> parameters;
+	// the natives, copied for each run and never changed itself
+	private final Environment globals = new Environment();
+
+	private PreparedScript(List<Stmt> statements, List<String> parameters) {
+		this.statements = statements;
+		this.parameters = parameters;
+		LoxArray.defineNatives(globals);
+	}
+
+	static final class Result {
+		// what the script printed
+		final String output;
+		final Object value;
+
+		Result(String output, Object value) {
+			this.output = output;
+			this.value = value;
+		}
+	}
+
+	// syntax errors are the message of the IllegalArgumentException
+	static PreparedScript compile(String source, String... parameters) {
+		Set<String> names = new HashSet<>();
+		for(String parameter: parameters)
+			if(!names.add(parameter))
+				throw new IllegalArgumentException("duplicate parameter " + parameter);
+
+		ByteArrayOutputStream errors = new ByteArrayOutputStream();
+		List<Stmt> statements = Lox.parseIsolated(source, new PrintStream(errors, true));
+		if(statements == null)
+			throw new IllegalArgumentException(errors.toString().trim());
+		statements = new TypeInference().infer(new ValueNumbering().rewrite(statements));
+		return new PreparedScript(Collections.unmodifiableList(statements), List.of(parameters));
+	}
+
+	List<String> parameters() {
+		return parameters;
+	}
+
+	// arguments in the order of the parameters
+	Result run(Object... arguments) {
+		if(arguments.length != parameters.size())
+			throw new IllegalArgumentException("expected " + parameters.size()
+				+ " arguments but got " + arguments.length);
+		Environment environment = globals.copy();
+		for(int i = 0; i < arguments.length; i++)
+			environment.define(parameters.get(i), value(arguments[i]));
+		return run(environment);
+	}
+
+	// arguments by the names of the parameters
+	Result run(Map<String, ?> arguments) {
+		Environment environment = globals.copy();
+		for(String parameter: parameters) {
+			if(!arguments.containsKey(parameter))
+				throw new IllegalArgumentException("missing argument " + parameter);
+			environment.define(parameter, value(arguments.get(parameter)));
+		}
+		if(arguments.size() != parameters.size())
+			for(String name: arguments.keySet())
+				if(!parameters.contains(name))
+					throw new IllegalArgumentException("unknown parameter " + name);
+		return run(environment);
+	}
+
+	// what a thread's runs print to, made once as a PrintStream is not cheap
+	private static final class Capture {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final PrintStream out = new PrintStream(bytes, false);
+		boolean busy = false;
+	}
+
+	private static final ThreadLocal<Capture> captures = ThreadLocal.withInitial(Capture::new);
+
+	private Result run(Environment environment) {
+		Capture capture = captures.get();
+		// a run within a run, from a native, gets its own
+		if(capture.busy)
+			capture = new Capture();
+		capture.busy = true;
+		capture.bytes.reset();
+		try {
+			Object value = new Interpreter(capture.out, environment).run(statements);
+			return new Result(capture.bytes.toString(), value);
+		} finally {
+			capture.busy = false;
+		}
+	}
+
+	private static Object value(Object argument) {
+		if(argument instanceof Number && !(argument instanceof Double))
+			return ((Number)argument).doubleValue();
+		return argument;
+	}
+}
@@ -0,0 +1,351 @@
+package jlox;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Operand types of the runs of a script, kept in a file next to it so that
+ * a run starts from what the runs before it saw.
+ *
+ *	jlox profile <sha-256 of the source>
+ *	operands 3:4 1		the operator that is token 4 of line 3 only saw
+ *				numbers, in the type bits of TypeInference
+ *
+ * Branch counts are not kept: an if of the tree interpreter evaluates its
+ * condition and runs one branch either way, so nothing could be
+ * specialized on them. Lines the file does not know are skipped.
+ *
+ * A run either records or speculates. When the file is missing, or was
+ * written for another source, the Interpreter records into the profile
+ * while it runs and save writes that to the file. When it is loaded,
+ * specialize wraps every unary minus and binary operator that only ever
+ * saw numbers, or only strings for PLUS, in an Expr.Speculated, which is
+ * evaluated like an Expr.Unchecked and falls back to the checked operation
+ * when an operand is something else after all, and nothing is recorded.
+ * A run where that happened drops the file, so the next one records again.
+ */
+final class Profile implements Stmt.Visitor<Stmt>, Expr.Visitor<Expr> {
+	private final String hash;
+	// "line:index" of every token of the script, the index counted on its line
+	private final Map<Token, String> positions = new IdentityHashMap<>();
+	// from the file, by position
+	private final Map<String, Integer> savedOperands = new HashMap<>();
+	// recorded by this run
+	private final Map<Token, int[]> operands = new IdentityHashMap<>();
+
+	// operations wrapped by specialize
+	int speculated = 0;
+	// whether the file had a profile of the source
+	boolean loaded = false;
+
+	Profile(String source, List<Token> tokens) {
+		hash = hash(source);
+		int line = 0;
+		int index = 0;
+		for(Token token: tokens) {
+			if(token.line != line) {
+				line = token.line;
+				index = 0;
+			}
+			positions.put(token, line + ":" + index++);
+		}
+	}
+
+	// the profile of source in file, empty if there is none for it
+	static Profile load(Path file, String source, List<Token> tokens) throws IOException {
+		Profile profile = new Profile(source, tokens);
+		List<String> lines;
+		try {
+			lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+		} catch(NoSuchFileException e) {
+			return profile;
+		}
+		if(lines.isEmpty() || !lines.get(0).equals("jlox profile " + profile.hash))
+			return profile;
+		profile.loaded = true;
+		for(String line: lines.subList(1, lines.size())) {
+			String[] fields = line.split(" ");
+			if(fields[0].equals("operands") && fields.length == 3)
+				profile.savedOperands.put(fields[1], Integer.parseInt(fields[2]));
+		}
+		return profile;
+	}
+
+	// writes what was loaded with what this run recorded to file
+	void save(Path file) throws IOException {
+		Map<String, Integer> operands = new HashMap<>(savedOperands);
+		for(Map.Entry<Token, int[]> seen: this.operands.entrySet()) {
+			String position = positions.get(seen.getKey());
+			if(position != null)
+				operands.merge(position, seen.getValue()[0], (a, b) -> a | b);
+		}
+		List<String> lines = new ArrayList<>();
+		lines.add("jlox profile " + hash);
+		for(String position: sorted(operands.keySet()))
+			lines.add("operands " + position + " " + operands.get(position));
+		Files.write(file, lines, StandardCharsets.UTF_8);
+	}
+
+	// in source order
+	private static List<String> sorted(Set<String> positions) {
+		List<String> sorted = new ArrayList<>(positions);
+		sorted.sort(Comparator.comparingInt((String p) -> Integer.parseInt(p.substring(0, p.indexOf(':'))))
+			.thenComparingInt(p -> Integer.parseInt(p.substring(p.indexOf(':') + 1))));
+		return sorted;
+	}
+
+	// operation is a Unary or Binary, left is ignored for a Unary
+	void operands(Expr operation, Object left, Object right) {
+		Token operator = operation instanceof Expr.Unary
+			? ((Expr.Unary)operation).operator : ((Expr.Binary)operation).operator;
+		int[] seen = operands.get(operator);
+		if(seen == null)
+			operands.put(operator, seen = new int[1]);
+		if(operation instanceof Expr.Binary)
+			seen[0] |= type(left);
+		seen[0] |= type(right);
+	}
+
+	// the types of the operations in the file, null if never run
+	Integer operandTypes(Token operator) {
+		String position = positions.get(operator);
+		return position != null ? savedOperands.get(position) : null;
+	}
+
+	private static int type(Object value) {
+		if(value instanceof Double)
+			return TypeInference.NUMBER;
+		if(value instanceof String)
+			return TypeInference.STRING;
+		if(value instanceof Boolean)
+			return TypeInference.BOOL;
+		if(value == null)
+			return TypeInference.NIL;
+		return TypeInference.OTHER;
+	}
+
+	// the operations of statements that only saw the types they need wrapped
+	// in an Expr.Speculated. Lazy blocks are left as they are
+	List<Stmt> specialize(List<Stmt> statements) {
+		List<Stmt> result = null;
+		for(int i = 0; i < statements.size(); i++) {
+			Stmt stmt = statements.get(i);
+			Stmt specialized = stmt.accept(this);
+			if(specialized != stmt && result == null)
+				result = new ArrayList<>(statements.subList(0, i));
+			if(result != null)
+				result.add(specialized);
+		}
+		return result != null ? result : statements;
+	}
+
+	private Expr specialize(Expr expr) {
+		return expr.accept(this);
+	}
+
+	@Override
+	public Stmt visitBlockStmt(Stmt.Block stmt) {
+		List<Stmt> statements = specialize(stmt.statements);
+		return statements == stmt.statements ? stmt : new Stmt.Block(statements);
+	}
+
+	@Override
+	public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+		Expr expression = specialize(stmt.expression);
+		return expression == stmt.expression ? stmt : new Stmt.Expression(expression);
+	}
+
+	@Override
+	public Stmt visitIfStmt(Stmt.If stmt) {
+		Expr condition = specialize(stmt.condition);
+		Stmt thenBranch = stmt.thenBranch.accept(this);
+		Stmt elseBranch = stmt.elseBranch != null ? stmt.elseBranch.accept(this) : null;
+		if(condition == stmt.condition && thenBranch == stmt.thenBranch
+				&& elseBranch == stmt.elseBranch)
+			return stmt;
+		return new Stmt.If(condition, thenBranch, elseBranch);
+	}
+
+	@Override
+	public Stmt visitLazyStmt(Stmt.Lazy stmt) {
+		return stmt;
+	}
+
+	@Override
+	public Stmt visitPrintStmt(Stmt.Print stmt) {
+		Expr expression = specialize(stmt.expression);
+		return expression == stmt.expression ? stmt : new Stmt.Print(expression);
+	}
+
+	@Override
+	public Stmt visitVarStmt(Stmt.Var stmt) {
+		if(stmt.initializer == null)
+			return stmt;
+		Expr initializer = specialize(stmt.initializer);
+		return initializer == stmt.initializer ? stmt : new Stmt.Var(stmt.name, initializer);
+	}
+
+	@Override
+	public Expr visitAssignExpr(Expr.Assign expr) {
+		Expr value = specialize(expr.value);
+		return value == expr.value ? expr : new Expr.Assign(expr.name, value);
+	}
+
+	@Override
+	public Expr visitVariableExpr(Expr.Variable expr) {
+		return expr;
+	}
+
+	@Override
+	public Expr visitUnaryExpr(Expr.Unary expr) {
+		Expr right = specialize(expr.right);
+		Expr.Unary unary = right == expr.right ? expr : new Expr.Unary(expr.operator, right);
+		Integer types = operandTypes(expr.operator);
+		if(expr.operator.type == TokenType.MINUS && types != null && types == TypeInference.NUMBER) {
+			speculated++;
+			return new Expr.Speculated(unary);
+		}
+		return unary;
+	}
+
+	@Override
+	public Expr visitBinaryExpr(Expr.Binary expr) {
+		Expr left = specialize(expr.left);
+		Expr right = specialize(expr.right);
+		Expr.Binary binary = left == expr.left && right == expr.right
+			? expr : new Expr.Binary(left, expr.operator, right);
+		Integer types = operandTypes(expr.operator);
+		if(types == null)
+			return binary;
+		switch(expr.operator.type) {
+			case GREATER: case GREATER_EQUAL: case LESS: case LESS_EQUAL:
+			case MINUS: case SLASH: case STAR:
+				if(types != TypeInference.NUMBER)
+					return binary;
+				break;
+			case PLUS:
+				if(types != TypeInference.NUMBER && types != TypeInference.STRING)
+					return binary;
+				break;
+			default:
+				return binary;
+		}
+		speculated++;
+		return new Expr.Speculated(binary);
+	}
+
+	@Override
+	public Expr visitGroupingExpr(Expr.Grouping expr) {
+		Expr expression = specialize(expr.expression);
+		return expression == expr.expression ? expr : new Expr.Grouping(expression);
+	}
+
+	@Override
+	public Expr visitLiteralExpr(Expr.Literal expr) {
+		return expr;
+	}
+
+	@Override
+	public Expr visitCallExpr(Expr.Call expr) {
+		Expr callee = specialize(expr.callee);
+		List<Expr> arguments = new ArrayList<>(expr.arguments.size());
+		boolean changed = callee != expr.callee;
+		for(Expr argument: expr.arguments) {
+			Expr specialized = specialize(argument);
+			changed |= specialized != argument;
+			arguments.add(specialized);
+		}
+		return changed ? new Expr.Call(callee, expr.paren, arguments) : expr;
+	}
+
+	@Override
+	public Expr visitIndexExpr(Expr.Index expr) {
+		Expr array = specialize(expr.array);
+		Expr index = specialize(expr.index);
+		if(array == expr.array && index == expr.index)
+			return expr;
+		return new Expr.Index(array, expr.bracket, index);
+	}
+
+	@Override
+	public Expr visitStoreExpr(Expr.Store expr) {
+		Expr array = specialize(expr.array);
+		Expr index = specialize(expr.index);
+		Expr value = specialize(expr.value);
+		if(array == expr.array && index == expr.index && value == expr.value)
+			return expr;
+		return new Expr.Store(array, expr.bracket, index, value);
+	}
+
+	@Override
+	public Expr visitLengthExpr(Expr.Length expr) {
+		Expr array = specialize(expr.array);
+		return array == expr.array ? expr : new Expr.Length(array, expr.name);
+	}
+
+	@Override
+	public Expr visitShareExpr(Expr.Share expr) {
+		Expr expression = specialize(expr.expression);
+		return expression == expr.expression ? expr : new Expr.Share(expr.slot, expression);
+	}
+
+	@Override
+	public Expr visitReuseExpr(Expr.Reuse expr) {
+		return expr;
+	}
+
+	// proven already, though its operands may not be
+	@Override
+	public Expr visitUncheckedExpr(Expr.Unchecked expr) {
+		Expr inner = expr.expression;
+		if(inner instanceof Expr.Unary) {
+			Expr.Unary unary = (Expr.Unary)inner;
+			Expr right = specialize(unary.right);
+			return right == unary.right ? expr
+				: new Expr.Unchecked(new Expr.Unary(unary.operator, right));
+		}
+		Expr.Binary binary = (Expr.Binary)inner;
+		Expr left = specialize(binary.left);
+		Expr right = specialize(binary.right);
+		if(left == binary.left && right == binary.right)
+			return expr;
+		return new Expr.Unchecked(new Expr.Binary(left, binary.operator, right));
+	}
+
+	@Override
+	public Expr visitSpeculatedExpr(Expr.Speculated expr) {
+		return expr;
+	}
+
+	@Override
+	public Stmt visitProbeStmt(Stmt.Probe stmt) {
+		return stmt;
+	}
+
+	@Override
+	public Expr visitProbeExpr(Expr.Probe expr) {
+		return expr;
+	}
+
+	private static String hash(String source) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			return HexFormat.of().formatHex(digest.digest(source.getBytes(StandardCharsets.UTF_8)));
+		} catch(NoSuchAlgorithmException e) {
+			throw new AssertionError(e);
+		}
+	}
+}
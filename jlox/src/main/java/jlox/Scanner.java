@@ -1,5 +1,6 @@
 package jlox;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Map;
@@ -11,6 +12,10 @@ class Scanner {
 	private final String source;
 	private final List<Token> tokens = new ArrayList<>();
 
+	// ASCII copy of the source for the SWAR fast paths, null if not ASCII
+	private final byte[] bytes;
+	private final ByteBuffer words;
+
 	private int start = 0;
 	private int current = 0;
 	private int line = 1;
@@ -25,6 +30,7 @@ class Scanner {
 		keywords.put("for", FOR);
 		keywords.put("fun", FUN);
 		keywords.put("if", IF);
+		keywords.put("import", IMPORT);
 		keywords.put("nil", NIL);
 		keywords.put("or", OR);
 		keywords.put("print", PRINT);
@@ -37,7 +43,13 @@ class Scanner {
 	}
 
 	Scanner(String source) {
+		this(source, true);
+	}
+
+	Scanner(String source, boolean fastPath) {
 		this.source = source;
+		this.bytes = fastPath ? Swar.ascii(source) : null;
+		this.words = bytes != null ? Swar.wrap(bytes) : null;
 	}
 
 	List<Token> scanTokens() {
@@ -59,6 +71,8 @@ class Scanner {
 			case ')': addToken(RIGHT_PAREN); break;
 			case '{': addToken(LEFT_BRACE); break;
 			case '}': addToken(RIGHT_BRACE); break;
+			case '[': addToken(LEFT_BRACKET); break;
+			case ']': addToken(RIGHT_BRACKET); break;
 			case ',': addToken(COMMA); break;
 			case '.': addToken(DOT); break;
 			case '-': addToken(MINUS); break;
@@ -74,11 +88,14 @@ class Scanner {
 
 			// comments
 			case '/':
-								if(match('/'))
+								if(match('/')) {
 								// a comment goes till the end of the line
-									while(peek() != '\n' && !isAtEnd())
-										advance();
-								else 
+									if(bytes != null)
+										current = Swar.indexOf(words, bytes, current, bytes.length, '\n');
+									else
+										while(peek() != '\n' && !isAtEnd())
+											advance();
+								} else 
 									addToken(SLASH);
 								break;
 
@@ -87,6 +104,8 @@ class Scanner {
 			case '\r':
 			case '\t':
 								// ignore whitespace
+								if(bytes != null)
+									current = Swar.skipBlanks(words, bytes, current, bytes.length);
 								break;
 			case '\n':
 								line++;
@@ -113,6 +132,11 @@ class Scanner {
 	}
 
 	private void string() {
+		if(bytes != null) {
+			int end = Swar.indexOf(words, bytes, current, bytes.length, '"');
+			line += Swar.count(words, bytes, current, end, '\n');
+			current = end;
+		}
 		while (peek() != '"' && !isAtEnd()) {
 			if(peek() == '\n')
 				line++;
@@ -133,22 +157,30 @@ class Scanner {
 	}
 
 	private void number() {
-		while(isDigit(peek()))
-			advance();
+		digits();
 
 		// look for a fractional part	
 		if (peek() == '.' && isDigit(peekNext())){
 			advance(); // consume the "."
 
-			while(isDigit(peek()))
-				advance();
+			digits();
 		}
 
-		addToken(NUMBER,
-				Double.parseDouble(source.substring(start, current)));
+		addToken(NUMBER, DoubleParser.parse(source, start, current));
+	}
+
+	private void digits() {
+		if(bytes != null) {
+			current = Swar.skipDigits(words, bytes, current, bytes.length);
+			return;
+		}
+		while(isDigit(peek()))
+			advance();
 	}
 
 	private void identifier() {
+		if(bytes != null)
+			current = Swar.skipAlphanumeric(words, bytes, current, bytes.length);
 		while(isAlphanumeric(peek()))
 			advance();
 
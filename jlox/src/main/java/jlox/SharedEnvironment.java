@@ -0,0 +1,60 @@
+package jlox;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Global scope shared by interpreters on several threads, see
+ * Lox.sharedGlobals. Block scopes stay plain Environments owned by the
+ * thread running the block.
+ *
+ * Reads take no lock. define and assign go through the ConcurrentHashMap,
+ * which writes an empty bin with a CAS and otherwise locks only that bin, so
+ * writers of different names rarely meet.
+ *
+ * Every define and assign is atomic: a read sees either the old or the new
+ * value, never a torn one. Once it returns, every read that starts later, on
+ * any thread, sees the new value or a newer one, together with everything
+ * the writing thread did before it. A read followed by an assign, as in
+ * n = n + 1, is two operations, so concurrent updates like it can be lost.
+ */
+final class SharedEnvironment extends Environment {
+	// stands for nil, which the map cannot hold
+	private static final Object NIL = new Object();
+
+	// the map of Environment, which the methods below alone touch
+	private final ConcurrentHashMap<String, Object> values;
+
+	SharedEnvironment() {
+		this(new ConcurrentHashMap<>());
+	}
+
+	private SharedEnvironment(ConcurrentHashMap<String, Object> values) {
+		super(null, values);
+		this.values = values;
+	}
+
+	// shared in turn, with the names defined when it is taken
+	@Override
+	Environment copy() {
+		return new SharedEnvironment(new ConcurrentHashMap<>(values));
+	}
+
+	@Override
+	void define(String name, Object value) {
+		values.put(name, value != null ? value : NIL);
+	}
+
+	@Override
+	Object lookup(String name) {
+		Object value = values.get(name);
+		if(value == null)
+			return UNDEFINED;
+		return value != NIL ? value : null;
+	}
+
+	// variables are never removed, so present once is present for good
+	@Override
+	boolean replace(String name, Object value) {
+		return values.replace(name, value != null ? value : NIL) != null;
+	}
+}
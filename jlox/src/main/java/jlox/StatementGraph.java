@@ -0,0 +1,352 @@
+package jlox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Which top-level statements have to run after which, for
+ * Interpreter.interpretParallel.
+ *
+ * A statement reads the variables it names and writes those it declares or
+ * assigns, anywhere inside it: a var in a nested block counts as a write
+ * although it only defines a local, which orders more than needed but never
+ * less. A statement runs after the last earlier one writing a variable it
+ * reads or writes, and after every earlier one reading a variable it writes
+ * since that write. The elements of arrays count as one more variable,
+ * read by indexing and length and written by stores, as any array may be
+ * the same as another.
+ *
+ * Calls, which may run anything a native does, CSE slots, which live in one
+ * Interpreter, and lazy blocks, whose statements are not known yet, make a
+ * statement a barrier: it runs after every earlier statement and before
+ * every later one.
+ *
+ * Most statements take far less time than handing them to another thread,
+ * so they run as tasks: runs of consecutive statements of at least TASK
+ * nodes together, in program order, waiting for what any of them waits for.
+ * A barrier is a task of its own.
+ */
+final class StatementGraph implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
+	// the elements of every array, as a variable no name can clash with
+	private static final String ELEMENTS = "[]";
+	// nodes of a task, short of its last statement
+	static final int TASK = 2048;
+
+	final int size;
+	// the earlier statements each has to wait for
+	private final int[][] after;
+	private final boolean[] barrier;
+	// statements on the longest chain of dependencies
+	final int steps;
+	final int barriers;
+
+	final int tasks;
+	// the first statement of each task, then size
+	private final int[] start;
+	// the earlier tasks each has to wait for
+	private final int[][] taskAfter;
+	// tasks on the longest chain of dependencies
+	final int taskSteps;
+
+	// what the statement being visited reads and writes, and its size
+	private final Set<String> reads = new HashSet<>();
+	private final Set<String> writes = new HashSet<>();
+	private boolean sequential;
+	private int nodes;
+
+	StatementGraph(List<Stmt> statements) {
+		size = statements.size();
+		after = new int[size][];
+		barrier = new boolean[size];
+		Map<String, Integer> lastWriter = new HashMap<>();
+		// readers of each variable since its last write
+		Map<String, List<Integer>> readers = new HashMap<>();
+		int[] step = new int[size];
+		int lastBarrier = -1;
+		int longest = 0;
+		int count = 0;
+		int[] taskOf = new int[size];
+		List<Integer> starts = new ArrayList<>();
+		int taskNodes = 0;
+
+		for(int i = 0; i < size; i++) {
+			reads.clear();
+			writes.clear();
+			sequential = false;
+			nodes = 0;
+			visit(statements.get(i));
+
+			if(starts.isEmpty() || sequential || barrier[i - 1] || taskNodes >= TASK) {
+				starts.add(i);
+				taskNodes = 0;
+			}
+			taskOf[i] = starts.size() - 1;
+			taskNodes += nodes;
+
+			Set<Integer> waits = new HashSet<>();
+			if(sequential) {
+				barrier[i] = true;
+				count++;
+				// everything since the last barrier, which follows the rest
+				for(int j = lastBarrier + 1; j < i; j++)
+					waits.add(j);
+				if(lastBarrier >= 0)
+					waits.add(lastBarrier);
+				lastBarrier = i;
+				lastWriter.clear();
+				readers.clear();
+			} else {
+				if(lastBarrier >= 0)
+					waits.add(lastBarrier);
+				for(String name: reads) {
+					Integer writer = lastWriter.get(name);
+					if(writer != null)
+						waits.add(writer);
+				}
+				for(String name: writes) {
+					Integer writer = lastWriter.get(name);
+					if(writer != null)
+						waits.add(writer);
+					List<Integer> since = readers.get(name);
+					if(since != null)
+						waits.addAll(since);
+				}
+				for(String name: reads)
+					if(!writes.contains(name))
+						readers.computeIfAbsent(name, n -> new ArrayList<>()).add(i);
+				for(String name: writes) {
+					lastWriter.put(name, i);
+					readers.remove(name);
+				}
+			}
+			waits.remove(i);
+
+			after[i] = new int[waits.size()];
+			int k = 0;
+			for(int j: waits) {
+				after[i][k++] = j;
+				step[i] = Math.max(step[i], step[j]);
+			}
+			step[i]++;
+			longest = Math.max(longest, step[i]);
+		}
+		steps = longest;
+		barriers = count;
+
+		tasks = starts.size();
+		start = new int[tasks + 1];
+		for(int t = 0; t < tasks; t++)
+			start[t] = starts.get(t);
+		start[tasks] = size;
+		taskAfter = new int[tasks][];
+		int[] taskStep = new int[tasks];
+		longest = 0;
+		for(int t = 0; t < tasks; t++) {
+			Set<Integer> waits = new HashSet<>();
+			for(int i = start[t]; i < start[t + 1]; i++)
+				for(int j: after[i])
+					if(taskOf[j] != t)
+						waits.add(taskOf[j]);
+			taskAfter[t] = new int[waits.size()];
+			int k = 0;
+			for(int u: waits) {
+				taskAfter[t][k++] = u;
+				taskStep[t] = Math.max(taskStep[t], taskStep[u]);
+			}
+			taskStep[t]++;
+			longest = Math.max(longest, taskStep[t]);
+		}
+		taskSteps = longest;
+	}
+
+	int[] after(int statement) {
+		return after[statement];
+	}
+
+	boolean barrier(int statement) {
+		return barrier[statement];
+	}
+
+	// the statements of task, from start(task) to start(task + 1)
+	int start(int task) {
+		return start[task];
+	}
+
+	int[] taskAfter(int task) {
+		return taskAfter[task];
+	}
+
+	boolean taskBarrier(int task) {
+		return barrier[start[task]];
+	}
+
+	String report() {
+		return "Found " + size + " statements in " + steps + " steps with "
+			+ barriers + " barriers, average parallelism " + ratio(size, steps)
+			+ ", run as " + tasks + " tasks in " + taskSteps + " steps.";
+	}
+
+	private static double ratio(int count, int steps) {
+		return steps == 0 ? 0.0 : Math.round(count * 10.0 / steps) / 10.0;
+	}
+
+	private void visit(Stmt stmt) {
+		nodes++;
+		stmt.accept(this);
+	}
+
+	private void visit(Expr expr) {
+		nodes++;
+		expr.accept(this);
+	}
+
+	@Override
+	public Void visitBlockStmt(Stmt.Block stmt) {
+		for(Stmt statement: stmt.statements)
+			visit(statement);
+		return null;
+	}
+
+	@Override
+	public Void visitExpressionStmt(Stmt.Expression stmt) {
+		visit(stmt.expression);
+		return null;
+	}
+
+	@Override
+	public Void visitIfStmt(Stmt.If stmt) {
+		visit(stmt.condition);
+		visit(stmt.thenBranch);
+		if(stmt.elseBranch != null)
+			visit(stmt.elseBranch);
+		return null;
+	}
+
+	@Override
+	public Void visitLazyStmt(Stmt.Lazy stmt) {
+		sequential = true;
+		return null;
+	}
+
+	@Override
+	public Void visitPrintStmt(Stmt.Print stmt) {
+		visit(stmt.expression);
+		return null;
+	}
+
+	@Override
+	public Void visitVarStmt(Stmt.Var stmt) {
+		if(stmt.initializer != null)
+			visit(stmt.initializer);
+		writes.add(stmt.name.lexeme);
+		return null;
+	}
+
+	@Override
+	public Void visitAssignExpr(Expr.Assign expr) {
+		visit(expr.value);
+		writes.add(expr.name.lexeme);
+		return null;
+	}
+
+	@Override
+	public Void visitVariableExpr(Expr.Variable expr) {
+		reads.add(expr.name.lexeme);
+		return null;
+	}
+
+	@Override
+	public Void visitUnaryExpr(Expr.Unary expr) {
+		visit(expr.right);
+		return null;
+	}
+
+	@Override
+	public Void visitBinaryExpr(Expr.Binary expr) {
+		visit(expr.left);
+		visit(expr.right);
+		return null;
+	}
+
+	@Override
+	public Void visitGroupingExpr(Expr.Grouping expr) {
+		visit(expr.expression);
+		return null;
+	}
+
+	@Override
+	public Void visitLiteralExpr(Expr.Literal expr) {
+		return null;
+	}
+
+	@Override
+	public Void visitCallExpr(Expr.Call expr) {
+		sequential = true;
+		return null;
+	}
+
+	@Override
+	public Void visitIndexExpr(Expr.Index expr) {
+		visit(expr.array);
+		visit(expr.index);
+		reads.add(ELEMENTS);
+		return null;
+	}
+
+	@Override
+	public Void visitStoreExpr(Expr.Store expr) {
+		visit(expr.array);
+		visit(expr.index);
+		visit(expr.value);
+		writes.add(ELEMENTS);
+		return null;
+	}
+
+	@Override
+	public Void visitLengthExpr(Expr.Length expr) {
+		visit(expr.array);
+		reads.add(ELEMENTS);
+		return null;
+	}
+
+	@Override
+	public Void visitShareExpr(Expr.Share expr) {
+		sequential = true;
+		return null;
+	}
+
+	@Override
+	public Void visitReuseExpr(Expr.Reuse expr) {
+		sequential = true;
+		return null;
+	}
+
+	@Override
+	public Void visitUncheckedExpr(Expr.Unchecked expr) {
+		visit(expr.expression);
+		return null;
+	}
+
+	@Override
+	public Void visitSpeculatedExpr(Expr.Speculated expr) {
+		visit(expr.expression);
+		return null;
+	}
+
+	// the instrument may look at anything
+	@Override
+	public Void visitProbeStmt(Stmt.Probe stmt) {
+		sequential = true;
+		return null;
+	}
+
+	@Override
+	public Void visitProbeExpr(Expr.Probe expr) {
+		sequential = true;
+		return null;
+	}
+}
@@ -8,8 +8,10 @@ abstract class Stmt {
 		R visitBlockStmt(Block stmt);
 		R visitExpressionStmt(Expression stmt);
 		R visitIfStmt(If stmt);
+		R visitLazyStmt(Lazy stmt);
 		R visitPrintStmt(Print stmt);
 		R visitVarStmt(Var stmt);
+		R visitProbeStmt(Probe stmt);
 	}
 
 	abstract <R> R accept(Visitor<R> visitor);
@@ -54,6 +56,18 @@ abstract class Stmt {
 		}
 	}
 
+	static class Lazy extends Stmt {
+		final Parser.Deferred body;
+
+		Lazy(Parser.Deferred body) {
+			this.body = body;
+		}
+
+		@Override <R> R accept(Visitor<R> visitor) {
+			return visitor.visitLazyStmt(this);
+		}
+	}
+
 	static class Print extends Stmt {
 		final Expr expression;
 
@@ -80,4 +94,20 @@ abstract class Stmt {
 		}
 	}
 
+	static class Probe extends Stmt {
+		final Instrument instrument;
+		final int line;
+		final Stmt statement;
+
+		Probe(Instrument instrument, int line, Stmt statement) {
+			this.instrument = instrument;
+			this.line = line;
+			this.statement = statement;
+		}
+
+		@Override <R> R accept(Visitor<R> visitor) {
+			return visitor.visitProbeStmt(this);
+		}
+	}
+
 }
\ No newline at end of file
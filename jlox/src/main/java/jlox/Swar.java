@@ -0,0 +1,140 @@
+package jlox;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/*
+ * SIMD within a register helpers for the scanner.
+ *
+ * Every routine reads the source 8 bytes at a time as a little endian long
+ * and computes one flag bit per byte (the high bit of each lane). They all
+ * assume that the input is pure ASCII (every byte < 0x80), so no lane can
+ * carry into its neighbour. Scanner only uses them when that holds.
+ *
+ * This is SWAR on longs rather than the Vector API because that API is
+ * still an incubator module, which every build and every run would have to
+ * add with --add-modules jdk.incubator.vector.
+ */
+final class Swar {
+	private static final long ONES = 0x0101010101010101L;
+	private static final long HIGH = 0x8080808080808080L;
+	private static final long LOW = 0x7f7f7f7f7f7f7f7fL;
+
+	private Swar() {}
+
+	// returns the source as bytes if every char is ASCII, null otherwise
+	static byte[] ascii(String source) {
+		int length = source.length();
+		byte[] bytes = new byte[length];
+		for(int i = 0; i < length; i++) {
+			char c = source.charAt(i);
+			if(c >= 0x80)
+				return null;
+			bytes[i] = (byte)c;
+		}
+		return bytes;
+	}
+
+	static ByteBuffer wrap(byte[] bytes) {
+		return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	// high bit set in every lane equal to c
+	private static long eq(long word, char c) {
+		long x = word ^ (ONES * c);
+		return ~((x + LOW) | x) & HIGH;
+	}
+
+	// high bit set in every lane within [lo, hi]
+	private static long between(long word, char lo, char hi) {
+		long ge = word + ONES * (0x80 - lo);
+		long gt = word + ONES * (0x7f - hi);
+		return ge & ~gt & HIGH;
+	}
+
+	private static long blank(long word) {
+		return eq(word, ' ') | eq(word, '\t') | eq(word, '\r');
+	}
+
+	private static long digit(long word) {
+		return between(word, '0', '9');
+	}
+
+	private static long alphanumeric(long word) {
+		return between(word, 'a', 'z') | between(word, 'A', 'Z')
+			| between(word, '0', '9') | eq(word, '_');
+	}
+
+	private static int lane(long mask) {
+		return Long.numberOfTrailingZeros(mask) >>> 3;
+	}
+
+	// first index >= from that is not ' ', '\t' or '\r'
+	static int skipBlanks(ByteBuffer words, byte[] bytes, int from, int to) {
+		int i = from;
+		for(; i + 8 <= to; i += 8) {
+			long miss = ~blank(words.getLong(i)) & HIGH;
+			if(miss != 0)
+				return i + lane(miss);
+		}
+		while(i < to && (bytes[i] == ' ' || bytes[i] == '\t' || bytes[i] == '\r'))
+			i++;
+		return i;
+	}
+
+	// first index >= from that is not a digit
+	static int skipDigits(ByteBuffer words, byte[] bytes, int from, int to) {
+		int i = from;
+		for(; i + 8 <= to; i += 8) {
+			long miss = ~digit(words.getLong(i)) & HIGH;
+			if(miss != 0)
+				return i + lane(miss);
+		}
+		while(i < to && bytes[i] >= '0' && bytes[i] <= '9')
+			i++;
+		return i;
+	}
+
+	// first index >= from that is not [a-zA-Z0-9_]
+	static int skipAlphanumeric(ByteBuffer words, byte[] bytes, int from, int to) {
+		int i = from;
+		for(; i + 8 <= to; i += 8) {
+			long miss = ~alphanumeric(words.getLong(i)) & HIGH;
+			if(miss != 0)
+				return i + lane(miss);
+		}
+		while(i < to && isAlphanumeric(bytes[i]))
+			i++;
+		return i;
+	}
+
+	// first index >= from holding c, or to if there is none
+	static int indexOf(ByteBuffer words, byte[] bytes, int from, int to, char c) {
+		int i = from;
+		for(; i + 8 <= to; i += 8) {
+			long hit = eq(words.getLong(i), c);
+			if(hit != 0)
+				return i + lane(hit);
+		}
+		while(i < to && bytes[i] != c)
+			i++;
+		return i;
+	}
+
+	// number of bytes equal to c in [from, to)
+	static int count(ByteBuffer words, byte[] bytes, int from, int to, char c) {
+		int n = 0;
+		int i = from;
+		for(; i + 8 <= to; i += 8)
+			n += Long.bitCount(eq(words.getLong(i), c));
+		for(; i < to; i++)
+			if(bytes[i] == c)
+				n++;
+		return n;
+	}
+
+	private static boolean isAlphanumeric(byte b) {
+		return b == '_' || b >= 'a' && b <= 'z' || b >= 'A' && b <= 'Z'
+			|| b >= '0' && b <= '9';
+	}
+}
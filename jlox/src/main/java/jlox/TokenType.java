@@ -3,6 +3,7 @@ package jlox;
 enum TokenType {
 	// Single-character tokens
 	LEFT_PAREN, RIGHT_PAREN, LEFT_BRACE, RIGHT_BRACE,
+	LEFT_BRACKET, RIGHT_BRACKET,
 	COMMA, DOT, MINUS, PLUS, SEMICOLON, SLASH, STAR,
 
 	// One or tow character tokens
@@ -15,8 +16,8 @@ enum TokenType {
 	IDENTIFIER, STRING, NUMBER,
 
 	// Keywords
-	AND, CLASS, ELSE, FALSE, FUN, FOR, IF, NIL, OR, PRINT, RETURN, SUPER,
-	THIS, TRUE, VAR, WHILE,
+	AND, CLASS, ELSE, FALSE, FUN, FOR, IF, IMPORT, NIL, OR, PRINT, RETURN,
+	SUPER, THIS, TRUE, VAR, WHILE,
 
 
 	EOF
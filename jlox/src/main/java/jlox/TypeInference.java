@@ -0,0 +1,391 @@
+package jlox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Flow sensitive type inference.
+ *
+ * Follows the program in execution order with the set of types each visible
+ * variable may hold, as a union of NUMBER, STRING, BOOL, NIL and OTHER for
+ * arrays and functions. Blocks open
+ * a scope, both branches of an if start from the types before it and their
+ * results are merged. A unary or binary expression whose operands are
+ * proven to have the types its operator needs is wrapped in an
+ * Expr.Unchecked, which the interpreter evaluates without checking them.
+ * Everything else keeps its checks and error messages.
+ *
+ * Expressions stop the program at their first runtime error, so whatever
+ * follows one may assume its checks passed.
+ *
+ * Shared globals, see Lox.sharedGlobals, can be given any value by other
+ * scripts at any time, so they are inferred to hold any type.
+ */
+final class TypeInference implements Stmt.Visitor<Stmt>, Expr.Visitor<Expr> {
+	static final int NUMBER = 1;
+	static final int STRING = 2;
+	static final int BOOL = 4;
+	static final int NIL = 8;
+	static final int OTHER = 16;
+	static final int ANY = NUMBER | STRING | BOOL | NIL | OTHER;
+
+	// operations proven not to need their checks
+	int proven = 0;
+
+	// globals are shared with other scripts
+	private final boolean sharedGlobals;
+
+	// innermost scope last
+	private final List<Map<String, Integer>> scopes = new ArrayList<>();
+	// every type change, so that a branch can be undone
+	private final List<Change> changes = new ArrayList<>();
+	// types of the values saved by Expr.Share
+	private final Map<Integer, Integer> shared = new HashMap<>();
+	// type of the expression visited last
+	private int type;
+
+	TypeInference() {
+		this(false);
+	}
+
+	TypeInference(boolean sharedGlobals) {
+		this.sharedGlobals = sharedGlobals;
+	}
+
+	private static class Change {
+		final Map<String, Integer> scope;
+		final String name;
+		final Integer old;
+		int now;
+
+		Change(Map<String, Integer> scope, String name, Integer old) {
+			this.scope = scope;
+			this.name = name;
+			this.old = old;
+		}
+	}
+
+	List<Stmt> infer(List<Stmt> statements) {
+		scopes.add(new HashMap<>());
+		try {
+			return statements(statements);
+		} finally {
+			scopes.clear();
+			changes.clear();
+		}
+	}
+
+	private List<Stmt> statements(List<Stmt> statements) {
+		List<Stmt> result = null;
+		for(int i = 0; i < statements.size(); i++) {
+			Stmt stmt = statements.get(i);
+			Stmt inferred = stmt.accept(this);
+			if(inferred != stmt && result == null)
+				result = new ArrayList<>(statements.subList(0, i));
+			if(result != null)
+				result.add(inferred);
+		}
+		return result != null ? result : statements;
+	}
+
+	private Expr infer(Expr expr) {
+		return expr.accept(this);
+	}
+
+	private void set(Map<String, Integer> scope, String name, int type) {
+		if(sharedGlobals && scope == scopes.get(0))
+			type = ANY;
+		changes.add(new Change(scope, name, scope.get(name)));
+		scope.put(name, type);
+	}
+
+	private Map<String, Integer> scopeOf(String name) {
+		for(int i = scopes.size() - 1; i >= 0; i--)
+			if(scopes.get(i).containsKey(name))
+				return scopes.get(i);
+		return null;
+	}
+
+	private void undo(int mark) {
+		for(int i = changes.size() - 1; i >= mark; i--) {
+			Change change = changes.remove(i);
+			if(change.old == null)
+				change.scope.remove(change.name);
+			else
+				change.scope.put(change.name, change.old);
+		}
+	}
+
+	@Override
+	public Stmt visitBlockStmt(Stmt.Block stmt) {
+		scopes.add(new HashMap<>());
+		try {
+			List<Stmt> statements = statements(stmt.statements);
+			return statements == stmt.statements ? stmt : new Stmt.Block(statements);
+		} finally {
+			scopes.remove(scopes.size() - 1);
+		}
+	}
+
+	@Override
+	public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+		Expr expression = infer(stmt.expression);
+		return expression == stmt.expression ? stmt : new Stmt.Expression(expression);
+	}
+
+	// Runs the then branch, remembers what it changed and undoes it, runs the
+	// else branch and then widens every variable either of them changed to
+	// the union of both outcomes.
+	@Override
+	public Stmt visitIfStmt(Stmt.If stmt) {
+		Expr condition = infer(stmt.condition);
+
+		int mark = changes.size();
+		Stmt thenBranch = stmt.thenBranch.accept(this);
+		List<Change> thenChanges = new ArrayList<>(changes.subList(mark, changes.size()));
+		for(Change change: thenChanges)
+			change.now = change.scope.get(change.name) != null ? change.scope.get(change.name) : ANY;
+		undo(mark);
+
+		Stmt elseBranch = stmt.elseBranch != null ? stmt.elseBranch.accept(this) : null;
+		int end = changes.size();
+		for(Change change: thenChanges)
+			widen(change.scope, change.name, change.now);
+		for(int i = mark; i < end; i++) {
+			Change change = changes.get(i);
+			if(change.old != null)
+				widen(change.scope, change.name, change.old);
+		}
+
+		if(condition == stmt.condition && thenBranch == stmt.thenBranch
+				&& elseBranch == stmt.elseBranch)
+			return stmt;
+		return new Stmt.If(condition, thenBranch, elseBranch);
+	}
+
+	private void widen(Map<String, Integer> scope, String name, int type) {
+		Integer now = scope.get(name);
+		int widened = now != null ? now | type : ANY;
+		if(now == null || widened != now)
+			set(scope, name, widened);
+	}
+
+	// the body is not parsed yet and may assign anything it can see
+	@Override
+	public Stmt visitLazyStmt(Stmt.Lazy stmt) {
+		for(Map<String, Integer> scope: scopes)
+			for(String name: new ArrayList<>(scope.keySet()))
+				set(scope, name, ANY);
+		return stmt;
+	}
+
+	@Override
+	public Stmt visitPrintStmt(Stmt.Print stmt) {
+		Expr expression = infer(stmt.expression);
+		return expression == stmt.expression ? stmt : new Stmt.Print(expression);
+	}
+
+	@Override
+	public Stmt visitVarStmt(Stmt.Var stmt) {
+		Expr initializer = null;
+		type = NIL;
+		if(stmt.initializer != null)
+			initializer = infer(stmt.initializer);
+		set(scopes.get(scopes.size() - 1), stmt.name.lexeme, type);
+		return initializer == stmt.initializer ? stmt : new Stmt.Var(stmt.name, initializer);
+	}
+
+	@Override
+	public Expr visitAssignExpr(Expr.Assign expr) {
+		Expr value = infer(expr.value);
+		Map<String, Integer> scope = scopeOf(expr.name.lexeme);
+		if(scope != null)
+			set(scope, expr.name.lexeme, type);
+		return value == expr.value ? expr : new Expr.Assign(expr.name, value);
+	}
+
+	@Override
+	public Expr visitVariableExpr(Expr.Variable expr) {
+		Map<String, Integer> scope = scopeOf(expr.name.lexeme);
+		type = scope != null ? scope.get(expr.name.lexeme) : ANY;
+		return expr;
+	}
+
+	@Override
+	public Expr visitUnaryExpr(Expr.Unary expr) {
+		Expr right = infer(expr.right);
+		if(expr.operator.type == TokenType.BANG) {
+			type = BOOL;
+		} else {
+			boolean proof = type == NUMBER;
+			type = NUMBER;
+			if(proof) {
+				proven++;
+				return new Expr.Unchecked(new Expr.Unary(expr.operator, right));
+			}
+		}
+		return right == expr.right ? expr : new Expr.Unary(expr.operator, right);
+	}
+
+	@Override
+	public Expr visitBinaryExpr(Expr.Binary expr) {
+		Expr left = infer(expr.left);
+		int leftType = type;
+		Expr right = infer(expr.right);
+		int rightType = type;
+
+		boolean proof;
+		switch(expr.operator.type) {
+			case PLUS:
+				proof = leftType == rightType && (leftType == NUMBER || leftType == STRING);
+				type = 0;
+				if((leftType & NUMBER) != 0 && (rightType & NUMBER) != 0)
+					type |= NUMBER;
+				if((leftType & STRING) != 0 && (rightType & STRING) != 0)
+					type |= STRING;
+				// mixed operands make nil
+				if(!proof)
+					type |= NIL;
+				break;
+			case MINUS:
+			case STAR:
+			case SLASH:
+				proof = leftType == NUMBER && rightType == NUMBER;
+				type = NUMBER;
+				break;
+			case GREATER:
+			case GREATER_EQUAL:
+			case LESS:
+			case LESS_EQUAL:
+				proof = leftType == NUMBER && rightType == NUMBER;
+				type = BOOL;
+				break;
+			default:
+				// equality checks nothing
+				proof = false;
+				type = BOOL;
+		}
+
+		Expr binary = left == expr.left && right == expr.right
+			? expr : new Expr.Binary(left, expr.operator, right);
+		if(proof) {
+			proven++;
+			return new Expr.Unchecked(binary);
+		}
+		return binary;
+	}
+
+	@Override
+	public Expr visitGroupingExpr(Expr.Grouping expr) {
+		Expr expression = infer(expr.expression);
+		return expression == expr.expression ? expr : new Expr.Grouping(expression);
+	}
+
+	@Override
+	public Expr visitLiteralExpr(Expr.Literal expr) {
+		if(expr.value instanceof Double)
+			type = NUMBER;
+		else if(expr.value instanceof String)
+			type = STRING;
+		else if(expr.value instanceof Boolean)
+			type = BOOL;
+		else
+			type = NIL;
+		return expr;
+	}
+
+	// natives may return anything
+	@Override
+	public Expr visitCallExpr(Expr.Call expr) {
+		Expr callee = infer(expr.callee);
+		List<Expr> arguments = new ArrayList<>(expr.arguments.size());
+		boolean changed = callee != expr.callee;
+		for(Expr argument: expr.arguments) {
+			Expr inferred = infer(argument);
+			changed |= inferred != argument;
+			arguments.add(inferred);
+		}
+		type = ANY;
+		return changed ? new Expr.Call(callee, expr.paren, arguments) : expr;
+	}
+
+	@Override
+	public Expr visitIndexExpr(Expr.Index expr) {
+		Expr array = infer(expr.array);
+		Expr index = infer(expr.index);
+		type = ANY;
+		if(array == expr.array && index == expr.index)
+			return expr;
+		return new Expr.Index(array, expr.bracket, index);
+	}
+
+	@Override
+	public Expr visitStoreExpr(Expr.Store expr) {
+		Expr array = infer(expr.array);
+		Expr index = infer(expr.index);
+		Expr value = infer(expr.value);
+		if(array == expr.array && index == expr.index && value == expr.value)
+			return expr;
+		return new Expr.Store(array, expr.bracket, index, value);
+	}
+
+	@Override
+	public Expr visitLengthExpr(Expr.Length expr) {
+		Expr array = infer(expr.array);
+		type = NUMBER;
+		return array == expr.array ? expr : new Expr.Length(array, expr.name);
+	}
+
+	@Override
+	public Expr visitShareExpr(Expr.Share expr) {
+		Expr expression = infer(expr.expression);
+		shared.put(expr.slot, type);
+		return expression == expr.expression ? expr : new Expr.Share(expr.slot, expression);
+	}
+
+	// the saved value was computed by the Share of the slot before it
+	@Override
+	public Expr visitReuseExpr(Expr.Reuse expr) {
+		Integer saved = shared.get(expr.slot);
+		type = saved != null ? saved : ANY;
+		return expr;
+	}
+
+	// already proven, only its type is needed
+	@Override
+	public Expr visitUncheckedExpr(Expr.Unchecked expr) {
+		int count = proven;
+		infer(expr.expression);
+		proven = count;
+		return expr;
+	}
+
+	// a guess from a Profile, kept whatever is proven
+	@Override
+	public Expr visitSpeculatedExpr(Expr.Speculated expr) {
+		int count = proven;
+		infer(expr.expression);
+		proven = count;
+		return expr;
+	}
+
+	// attached by Instrumentation, which comes last, so only the types of
+	// what they run are needed
+	@Override
+	public Stmt visitProbeStmt(Stmt.Probe stmt) {
+		int count = proven;
+		stmt.statement.accept(this);
+		proven = count;
+		return stmt;
+	}
+
+	@Override
+	public Expr visitProbeExpr(Expr.Probe expr) {
+		int count = proven;
+		infer(expr.expression);
+		proven = count;
+		return expr;
+	}
+}
@@ -0,0 +1,547 @@
+package jlox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Common subexpression elimination by value numbering.
+ *
+ * A region is a run of statements of one block up to the next nested block,
+ * if statement or lazy body, which start regions of their own. Within a
+ * region every expression free of assignments gets a value number from its
+ * operator and the numbers of its operands. A variable keeps its number
+ * until it is assigned or declared again. A unary or binary expression whose
+ * number was already computed earlier in the region, in evaluation order,
+ * becomes a Reuse of the value its first occurrence saved with a Share.
+ *
+ * The first occurrence always runs before its reuses and a runtime error
+ * stops the program, so evaluation order and errors do not change.
+ *
+ * Expression nodes are identified by their index in evaluation order, which
+ * the analysis and the rewrite both count, so no node needs hashing.
+ */
+final class ValueNumbering {
+	// expression nodes that are no longer evaluated
+	int eliminated = 0;
+	// most slots any region needs
+	int slots = 0;
+
+	// Numbers start over in every region. Entries of the arrays below are
+	// valid while their stamp is the one of the region, so ending a region
+	// clears nothing.
+	private int stamp = 1;
+	private int nextNumber = 0;
+
+	// numbers of the operations and number literals computed in the region,
+	// keyed by operator and operand numbers or by the bits of the number
+	private final Numbers operations = new Numbers();
+	private final Numbers doubles = new Numbers();
+	private Map<Object, Integer> constants = new HashMap<>();
+	// number of each variable by the index of its name
+	private final Map<String, Integer> names = new HashMap<>();
+	private int[] variables = new int[16];
+	private int[] stamps = new int[16];
+	// index of the first expression computing each number
+	private int[] available = new int[64];
+	private int[] availableStamps = new int[64];
+	// expression nodes visited so far, and the count after each statement
+	// expression so that the rewrite can step over the unchanged ones
+	private int visited = 0;
+	private int[] ends = new int[64];
+	private int endCount = 0;
+
+	// reuses found in the region so far: their index, node count and the
+	// index of the first occurrence they repeat
+	private int[] found = new int[48];
+	private int foundCount = 0;
+
+	// index << 32 | slot of each first occurrence that is reused and
+	// index << 32 | -1 - slot of each reuse, sorted once the analysis is done
+	private long[] marks = new long[16];
+	private int markCount = 0;
+
+	List<Stmt> rewrite(List<Stmt> statements) {
+		region(statements);
+		if(markCount == 0)
+			return statements;
+		Arrays.sort(marks, 0, markCount);
+		return new Rewriter().statements(statements);
+	}
+
+	private void region(List<Stmt> statements) {
+		clear();
+		for(Stmt stmt: statements)
+			statement(stmt);
+		clear();
+	}
+
+	// ends the region: gives out its slots and forgets what it computed
+	private void clear() {
+		if(foundCount > 0) {
+			Map<Integer, Integer> slotOf = new HashMap<>();
+			for(int i = 0; i < foundCount; i += 3) {
+				Integer slot = slotOf.get(found[i + 2]);
+				if(slot == null) {
+					slot = slotOf.size();
+					slotOf.put(found[i + 2], slot);
+					mark(found[i + 2], slot);
+				}
+				mark(found[i], -1 - slot);
+				eliminated += found[i + 1];
+			}
+			slots = Math.max(slots, slotOf.size());
+			foundCount = 0;
+		}
+
+		operations.clear();
+		doubles.clear();
+		if(!constants.isEmpty())
+			constants = new HashMap<>();
+		nextNumber = 0;
+		stamp++;
+	}
+
+	private void mark(int index, int slot) {
+		if(markCount == marks.length)
+			marks = Arrays.copyOf(marks, markCount * 2);
+		marks[markCount++] = (long)index << 32 | (slot & 0xffffffffL);
+	}
+
+	private void statement(Stmt stmt) {
+		if(stmt instanceof Stmt.Expression) {
+			root(((Stmt.Expression)stmt).expression);
+		} else if(stmt instanceof Stmt.Print) {
+			root(((Stmt.Print)stmt).expression);
+		} else if(stmt instanceof Stmt.Var) {
+			Stmt.Var var = (Stmt.Var)stmt;
+			if(var.initializer != null)
+				root(var.initializer);
+			forget(var.name);
+		} else if(stmt instanceof Stmt.If) {
+			Stmt.If branch = (Stmt.If)stmt;
+			root(branch.condition);
+			branch(branch.thenBranch);
+			if(branch.elseBranch != null)
+				branch(branch.elseBranch);
+		} else if(stmt instanceof Stmt.Block) {
+			region(((Stmt.Block)stmt).statements);
+		} else {
+			// a lazy body is not parsed yet
+			clear();
+		}
+	}
+
+	private void branch(Stmt stmt) {
+		if(stmt instanceof Stmt.Block)
+			region(((Stmt.Block)stmt).statements);
+		else
+			region(Arrays.asList(stmt));
+	}
+
+	private void root(Expr expr) {
+		expression(expr);
+		if(endCount == ends.length)
+			ends = Arrays.copyOf(ends, endCount * 2);
+		ends[endCount++] = visited;
+	}
+
+	// Numbers expr and its operands in evaluation order, -1 when it assigns.
+	// Operands are numbered first, so when expr turns out to repeat an
+	// earlier expression the reuses found inside it are dropped again. Its
+	// operands repeat operands of that earlier expression, so they did not
+	// make anything new available.
+	private int expression(Expr expr) {
+		int index = visited++;
+		if(expr instanceof Expr.Literal)
+			return constant(((Expr.Literal)expr).value);
+		if(expr instanceof Expr.Variable) {
+			int name = name(((Expr.Variable)expr).name);
+			if(stamps[name] != stamp) {
+				variables[name] = next();
+				stamps[name] = stamp;
+			}
+			return variables[name];
+		}
+		if(expr instanceof Expr.Grouping)
+			return expression(((Expr.Grouping)expr).expression);
+		if(expr instanceof Expr.Assign) {
+			expression(((Expr.Assign)expr).value);
+			forget(((Expr.Assign)expr).name);
+			return -1;
+		}
+		// calls and array elements are not numbered, nothing they do can
+		// change a variable
+		if(expr instanceof Expr.Call) {
+			expression(((Expr.Call)expr).callee);
+			for(Expr argument: ((Expr.Call)expr).arguments)
+				expression(argument);
+			return -1;
+		}
+		if(expr instanceof Expr.Index) {
+			expression(((Expr.Index)expr).array);
+			expression(((Expr.Index)expr).index);
+			return -1;
+		}
+		if(expr instanceof Expr.Store) {
+			expression(((Expr.Store)expr).array);
+			expression(((Expr.Store)expr).index);
+			expression(((Expr.Store)expr).value);
+			return -1;
+		}
+		if(expr instanceof Expr.Length) {
+			expression(((Expr.Length)expr).array);
+			return -1;
+		}
+		if(!(expr instanceof Expr.Binary || expr instanceof Expr.Unary))
+			return -1;
+
+		int mark = foundCount;
+		int number;
+		if(expr instanceof Expr.Unary) {
+			Expr.Unary unary = (Expr.Unary)expr;
+			int right = expression(unary.right);
+			if(right < 0)
+				return -1;
+			number = operations.number(operation(unary.operator.type, UNARY, right), this);
+		} else {
+			Expr.Binary binary = (Expr.Binary)expr;
+			int left = expression(binary.left);
+			int right = expression(binary.right);
+			if(left < 0 || right < 0)
+				return -1;
+			number = operations.number(operation(binary.operator.type, left, right), this);
+		}
+
+		if(availableStamps[number] != stamp) {
+			available[number] = index;
+			availableStamps[number] = stamp;
+		} else {
+			foundCount = mark;
+			if(foundCount + 3 > found.length)
+				found = Arrays.copyOf(found, found.length * 2);
+			found[foundCount++] = index;
+			found[foundCount++] = visited - index;
+			found[foundCount++] = available[number];
+		}
+		return number;
+	}
+
+	// operand numbers take 29 bits each, the operator the 6 bits left
+	private static final int UNARY = (1 << 29) - 1;
+
+	private static long operation(TokenType operator, int left, int right) {
+		return (long)(operator.ordinal() + 1) << 58 | (long)left << 29 | right;
+	}
+
+	private int constant(Object value) {
+		if(value instanceof Double)
+			return doubles.number(Double.doubleToLongBits((Double)value), this);
+		Object key = value != null ? value : TokenType.NIL;
+		Integer known = constants.get(key);
+		if(known == null) {
+			known = next();
+			constants.put(key, known);
+		}
+		return known;
+	}
+
+	private int name(Token token) {
+		Integer index = names.get(token.lexeme);
+		if(index == null) {
+			index = names.size();
+			names.put(token.lexeme, index);
+			if(index == variables.length) {
+				variables = Arrays.copyOf(variables, index * 2);
+				stamps = Arrays.copyOf(stamps, index * 2);
+			}
+		}
+		return index;
+	}
+
+	// the variable gets a new number when it is read next
+	private void forget(Token name) {
+		int index = name(name);
+		stamps[index] = 0;
+	}
+
+	private int next() {
+		if(nextNumber == available.length) {
+			available = Arrays.copyOf(available, nextNumber * 2);
+			availableStamps = Arrays.copyOf(availableStamps, nextNumber * 2);
+		}
+		return nextNumber++;
+	}
+
+	// open addressing table from long keys to numbers, without boxing. A slot
+	// is in use when its stamp is the current one, so clearing is free and
+	// the arrays are kept for the next region.
+	private static final class Numbers {
+		private long[] keys = new long[256];
+		private int[] values = new int[256];
+		private int[] stamps = new int[256];
+		private int stamp = 1;
+		private int size = 0;
+
+		void clear() {
+			if(size == 0)
+				return;
+			stamp++;
+			size = 0;
+		}
+
+		int number(long key, ValueNumbering numbering) {
+			int mask = keys.length - 1;
+			int i = mix(key) & mask;
+			while(stamps[i] == stamp) {
+				if(keys[i] == key)
+					return values[i];
+				i = (i + 1) & mask;
+			}
+			int number = numbering.next();
+			keys[i] = key;
+			values[i] = number;
+			stamps[i] = stamp;
+			if(++size * 2 > keys.length)
+				grow();
+			return number;
+		}
+
+		private void grow() {
+			long[] oldKeys = keys;
+			int[] oldValues = values;
+			int[] oldStamps = stamps;
+			keys = new long[oldKeys.length * 2];
+			values = new int[oldKeys.length * 2];
+			stamps = new int[oldKeys.length * 2];
+			int mask = keys.length - 1;
+			for(int j = 0; j < oldKeys.length; j++) {
+				if(oldStamps[j] != stamp)
+					continue;
+				int i = mix(oldKeys[j]) & mask;
+				while(stamps[i] == stamp)
+					i = (i + 1) & mask;
+				keys[i] = oldKeys[j];
+				values[i] = oldValues[j];
+				stamps[i] = stamp;
+			}
+		}
+
+		// finalizer of MurmurHash3, integral doubles differ in their high bits only
+		private static int mix(long key) {
+			key ^= key >>> 33;
+			key *= 0xff51afd7ed558ccdL;
+			key ^= key >>> 33;
+			key *= 0xc4ceb9fe1a85ec53L;
+			key ^= key >>> 33;
+			return (int)key;
+		}
+	}
+
+	// nodes the analysis counts in a pure expression
+	private static int size(Expr expr) {
+		if(expr instanceof Expr.Binary)
+			return 1 + size(((Expr.Binary)expr).left) + size(((Expr.Binary)expr).right);
+		if(expr instanceof Expr.Unary)
+			return 1 + size(((Expr.Unary)expr).right);
+		if(expr instanceof Expr.Grouping)
+			return 1 + size(((Expr.Grouping)expr).expression);
+		return 1;
+	}
+
+	// copies the tree with the marks applied, counting nodes in the order of
+	// the analysis and keeping the nodes that did not change
+	private class Rewriter implements Stmt.Visitor<Stmt>, Expr.Visitor<Expr> {
+		private int index = 0;
+		private int next = 0;
+		private int root = 0;
+
+		List<Stmt> statements(List<Stmt> statements) {
+			List<Stmt> result = null;
+			for(int i = 0; i < statements.size(); i++) {
+				Stmt stmt = statements.get(i);
+				Stmt rewritten = next < markCount ? stmt.accept(this) : stmt;
+				if(rewritten != stmt && result == null)
+					result = new ArrayList<>(statements.subList(0, i));
+				if(result != null)
+					result.add(rewritten);
+			}
+			return result != null ? result : statements;
+		}
+
+		// a statement expression, left as it is when no mark falls in it
+		private Expr rewriteRoot(Expr expr) {
+			int end = ends[root++];
+			if(next == markCount || (int)(marks[next] >>> 32) >= end) {
+				index = end;
+				return expr;
+			}
+			return rewrite(expr);
+		}
+
+		private Expr rewrite(Expr expr) {
+			int at = index++;
+			if(next == markCount || (int)(marks[next] >>> 32) != at) {
+				if(expr instanceof Expr.Literal || expr instanceof Expr.Variable)
+					return expr;
+				return expr.accept(this);
+			}
+
+			int slot = (int)marks[next++];
+			if(slot < 0) {
+				index = at + size(expr);
+				return new Expr.Reuse(-1 - slot, expr);
+			}
+			return new Expr.Share(slot, expr.accept(this));
+		}
+
+		@Override
+		public Stmt visitBlockStmt(Stmt.Block stmt) {
+			List<Stmt> statements = statements(stmt.statements);
+			return statements == stmt.statements ? stmt : new Stmt.Block(statements);
+		}
+
+		@Override
+		public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+			Expr expression = rewriteRoot(stmt.expression);
+			return expression == stmt.expression ? stmt : new Stmt.Expression(expression);
+		}
+
+		@Override
+		public Stmt visitIfStmt(Stmt.If stmt) {
+			Expr condition = rewriteRoot(stmt.condition);
+			Stmt thenBranch = stmt.thenBranch.accept(this);
+			Stmt elseBranch = stmt.elseBranch != null ? stmt.elseBranch.accept(this) : null;
+			if(condition == stmt.condition && thenBranch == stmt.thenBranch
+					&& elseBranch == stmt.elseBranch)
+				return stmt;
+			return new Stmt.If(condition, thenBranch, elseBranch);
+		}
+
+		@Override
+		public Stmt visitLazyStmt(Stmt.Lazy stmt) {
+			return stmt;
+		}
+
+		@Override
+		public Stmt visitPrintStmt(Stmt.Print stmt) {
+			Expr expression = rewriteRoot(stmt.expression);
+			return expression == stmt.expression ? stmt : new Stmt.Print(expression);
+		}
+
+		@Override
+		public Stmt visitVarStmt(Stmt.Var stmt) {
+			if(stmt.initializer == null)
+				return stmt;
+			Expr initializer = rewriteRoot(stmt.initializer);
+			return initializer == stmt.initializer ? stmt : new Stmt.Var(stmt.name, initializer);
+		}
+
+		@Override
+		public Expr visitAssignExpr(Expr.Assign expr) {
+			Expr value = rewrite(expr.value);
+			return value == expr.value ? expr : new Expr.Assign(expr.name, value);
+		}
+
+		@Override
+		public Expr visitVariableExpr(Expr.Variable expr) {
+			return expr;
+		}
+
+		@Override
+		public Expr visitUnaryExpr(Expr.Unary expr) {
+			Expr right = rewrite(expr.right);
+			return right == expr.right ? expr : new Expr.Unary(expr.operator, right);
+		}
+
+		@Override
+		public Expr visitBinaryExpr(Expr.Binary expr) {
+			Expr left = rewrite(expr.left);
+			Expr right = rewrite(expr.right);
+			if(left == expr.left && right == expr.right)
+				return expr;
+			return new Expr.Binary(left, expr.operator, right);
+		}
+
+		@Override
+		public Expr visitGroupingExpr(Expr.Grouping expr) {
+			Expr expression = rewrite(expr.expression);
+			return expression == expr.expression ? expr : new Expr.Grouping(expression);
+		}
+
+		@Override
+		public Expr visitLiteralExpr(Expr.Literal expr) {
+			return expr;
+		}
+
+		@Override
+		public Expr visitCallExpr(Expr.Call expr) {
+			Expr callee = rewrite(expr.callee);
+			List<Expr> arguments = new ArrayList<>(expr.arguments.size());
+			boolean changed = callee != expr.callee;
+			for(Expr argument: expr.arguments) {
+				Expr rewritten = rewrite(argument);
+				changed |= rewritten != argument;
+				arguments.add(rewritten);
+			}
+			return changed ? new Expr.Call(callee, expr.paren, arguments) : expr;
+		}
+
+		@Override
+		public Expr visitIndexExpr(Expr.Index expr) {
+			Expr array = rewrite(expr.array);
+			Expr index = rewrite(expr.index);
+			if(array == expr.array && index == expr.index)
+				return expr;
+			return new Expr.Index(array, expr.bracket, index);
+		}
+
+		@Override
+		public Expr visitStoreExpr(Expr.Store expr) {
+			Expr array = rewrite(expr.array);
+			Expr index = rewrite(expr.index);
+			Expr value = rewrite(expr.value);
+			if(array == expr.array && index == expr.index && value == expr.value)
+				return expr;
+			return new Expr.Store(array, expr.bracket, index, value);
+		}
+
+		@Override
+		public Expr visitLengthExpr(Expr.Length expr) {
+			Expr array = rewrite(expr.array);
+			return array == expr.array ? expr : new Expr.Length(array, expr.name);
+		}
+
+		@Override
+		public Expr visitShareExpr(Expr.Share expr) {
+			return expr;
+		}
+
+		@Override
+		public Expr visitReuseExpr(Expr.Reuse expr) {
+			return expr;
+		}
+
+		@Override
+		public Expr visitUncheckedExpr(Expr.Unchecked expr) {
+			return expr;
+		}
+
+		@Override
+		public Expr visitSpeculatedExpr(Expr.Speculated expr) {
+			return expr;
+		}
+
+		@Override
+		public Stmt visitProbeStmt(Stmt.Probe stmt) {
+			return stmt;
+		}
+
+		@Override
+		public Expr visitProbeExpr(Expr.Probe expr) {
+			return expr;
+		}
+	}
+}
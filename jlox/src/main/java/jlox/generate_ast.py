@@ -44,8 +44,10 @@ types = {
         "Block": ["List<Stmt> statements",],
         "Expression": ["Expr expression",],
         "If": ["Expr condition", "Stmt thenBranch", "Stmt elseBranch",],
+        "Lazy": ["Parser.Deferred body",],
         "Print": ["Expr expression",],
         "Var": ["Token name", "Expr initializer",],
+        "Probe": ["Instrument instrument", "int line", "Stmt statement",],
     },
     "Expr":{
         "Assign": ["Token name", "Expr value",],
@@ -54,6 +56,15 @@ types = {
         "Binary": ["Expr left", "Token operator", "Expr right",],
         "Grouping": ["Expr expression",],
         "Literal": ["Object value",],
+        "Call": ["Expr callee", "Token paren", "List<Expr> arguments",],
+        "Index": ["Expr array", "Token bracket", "Expr index",],
+        "Store": ["Expr array", "Token bracket", "Expr index", "Expr value",],
+        "Length": ["Expr array", "Token name",],
+        "Share": ["int slot", "Expr expression",],
+        "Reuse": ["int slot", "Expr expression",],
+        "Unchecked": ["Expr expression",],
+        "Speculated": ["Expr expression",],
+        "Probe": ["Instrument instrument", "Expr expression",],
     },
 }
 
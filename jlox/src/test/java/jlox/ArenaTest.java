@@ -0,0 +1,46 @@
+package jlox;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Running the Arena encoding of a program must print what the Stmt tree does.
+ */
+public class ArenaTest extends TestCase
+{
+    private static String run(String source, boolean arena)
+    {
+        return Output.of(out -> {
+            List<Token> tokens = new Scanner(source).scanTokens();
+            if (arena)
+                new ArenaInterpreter(out).interpret(new Parser(tokens).parseArena());
+            else
+                new Interpreter(out).interpret(new Parser(tokens).parse());
+        });
+    }
+
+    private static void assertSameOutput(String source)
+    {
+        assertEquals(source, run(source, false), run(source, true));
+    }
+
+    public void testSamples()
+    {
+        assertSameOutput("var a = 1; { var a = 2; print a; } print a;");
+        assertSameOutput("var s = \"a\" + \"b\"; if (s == \"ab\") print s; else print 0;");
+        assertSameOutput("print (1 + 2) * 3 - 4 / 8; print !nil; print -(2);");
+        assertSameOutput("var a; a = 3; print a >= 3; print a != 3;");
+        assertSameOutput("print 1;\nprint -\"x\";\nprint 2;");
+        assertSameOutput("print 1 < \"x\";");
+        assertSameOutput("{\n\n  print missing;\n}");
+        assertSameOutput("undefined = 1;");
+    }
+
+    public void testGeneratedPrograms()
+    {
+        for (int seed = 1; seed <= 20; seed++)
+            assertSameOutput(ProgramGenerator.generate(
+                new ProgramGenerator.Shape("test").statements(200).depth(4).strings(0.4).seed(seed)));
+    }
+}
@@ -0,0 +1,84 @@
+package jlox;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Arrays and the native functions on them, in every engine.
+ */
+public class ArrayTest extends TestCase
+{
+    private static final int TREE = 0;
+    private static final int ITERATIVE = 1;
+    private static final int ARENA = 2;
+
+    private static String run(String source, int engine)
+    {
+        return Output.of(out -> {
+            Parser parser = new Parser(new Scanner(source).scanTokens());
+            if (engine == ARENA) {
+                Arena arena = parser.parseArena();
+                if (!Lox.hadError())
+                    new ArenaInterpreter(out).interpret(arena);
+            } else if (engine == ITERATIVE) {
+                List<Stmt> statements = parser.parseIterative(Integer.MAX_VALUE);
+                if (!Lox.hadError())
+                    new Interpreter(out).interpretIterative(statements, Integer.MAX_VALUE);
+            } else {
+                List<Stmt> statements = parser.parse();
+                if (!Lox.hadError())
+                    new Interpreter(out).interpret(statements);
+            }
+        });
+    }
+
+    private static void assertOutput(String expected, String source)
+    {
+        assertEquals(source, expected, run(source, TREE));
+        assertEquals(source, expected, run(source, ITERATIVE));
+        assertEquals(source, expected, run(source, ARENA));
+    }
+
+    public void testNumbers()
+    {
+        assertOutput("[0, 0, 0]\n3\n", "var a = array(3); print a; print a.length;");
+        assertOutput("[1, 2.5, 0]\n3.5\n",
+            "var a = array(3); a[0] = 1; a[1] = a[0] + 1.5; print a; print sum(a);");
+        assertOutput("[7, 7]\n14\n", "print fill(array(2), 7); print sum(fill(array(2), 7));");
+        assertOutput("[1, 0]\n[0, 0]\n",
+            "var a = array(2); var b = copy(a); a[0] = 1; print a; print b;");
+        assertOutput("4\n", "var a = array(2); print a[1] = 4;");
+        assertOutput("-1\n", "var a = fill(array(1), 1); print -a[0];");
+    }
+
+    public void testOtherValues()
+    {
+        assertOutput("[1, x, nil]\n", "var a = array(3); a[0] = 1; a[1] = \"x\"; a[2] = nil; print a;");
+        assertOutput("[true, true]\n", "print fill(array(2), true);");
+        assertOutput("[[0], [...]]\n", "var a = array(2); a[0] = array(1); a[1] = a; print a;");
+        assertOutput("3\n", "var a = array(2); a[0] = \"x\"; a[0] = 1; a[1] = 2; print sum(a);");
+        assertOutput("<native fn>\n", "print sum;");
+    }
+
+    public void testErrors()
+    {
+        assertOutput("Index 2 is out of bounds for length 2.\n[line 1]\n", "print array(2)[2];");
+        assertOutput("Index must be a whole number.\n[line 1]\n", "print array(2)[0.5];");
+        assertOutput("Only arrays can be indexed.\n[line 2]\n", "var a = 1;\na[0] = 2;");
+        assertOutput("Only arrays have a length.\n[line 1]\n", "print nil.length;");
+        assertOutput("Can only sum numbers.\n[line 1]\n", "var a = array(1); a[0] = \"s\"; print sum(a);");
+        assertOutput("Expected 1 arguments but got 2.\n[line 1]\n", "print array(1, 2);");
+        assertOutput("Can only call functions.\n[line 1]\n", "print 1(2);");
+        assertOutput("Array length must be a whole number of at least 0.\n[line 1]\n", "print array(-1);");
+        assertOutput("Argument must be an array.\n[line 1]\n", "print copy(3);");
+    }
+
+    public void testSyntaxErrors()
+    {
+        assertOutput("[line 1] Errorat ';': Expect ']' after index.\n", "print a[1;");
+        assertOutput("[line 1] Errorat ';': Expect ')' after arguments.\n", "print sum(a;");
+        assertOutput("[line 1] Errorat 'size': Expect 'length' after '.'.\n", "print a.size;");
+        assertOutput("[line 1] Errorat '=': Invalid assignment target.\n", "sum(a) = 1;");
+    }
+}
@@ -0,0 +1,96 @@
+package jlox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A rules script over many records: one Interpreter per record against
+ * BatchInterpreter.
+ *
+ * mvn test-compile
+ * java -cp target/classes:target/test-classes jlox.BatchBenchmark [records]
+ */
+public class BatchBenchmark
+{
+    static final String RULES =
+        "var total = price * quantity;\n"
+        + "var tax = total * 0.2;\n"
+        + "if (total > 1000) {\n"
+        + "  var discount = total * 0.05;\n"
+        + "  if (member) discount = discount * 2;\n"
+        + "  total = total - discount;\n"
+        + "} else if (member) {\n"
+        + "  total = total - 5;\n"
+        + "}\n"
+        + "var score = (total + tax) / (quantity + 1) - price * 0.5;\n"
+        + "var flagged = score > 400 == !member;\n"
+        + "if (flagged) print total + tax;\n";
+
+    public static void main(String[] args)
+    {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        Random random = new Random(3);
+        double[] price = new double[records];
+        double[] quantity = new double[records];
+        boolean[] member = new boolean[records];
+        for (int i = 0; i < records; i++) {
+            price[i] = random.nextInt(100000) / 100.0;
+            quantity[i] = random.nextInt(20);
+            member[i] = random.nextBoolean();
+        }
+        List<Stmt> statements = new Parser(new Scanner(RULES).scanTokens()).parse();
+
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(captured);
+        String[] outputs = new String[records];
+        Runnable scalar = () -> {
+            for (int i = 0; i < records; i++) {
+                Environment globals = new Environment();
+                LoxArray.defineNatives(globals);
+                globals.define("price", price[i]);
+                globals.define("quantity", quantity[i]);
+                globals.define("member", member[i]);
+                captured.reset();
+                new Interpreter(out, globals).interpret(statements);
+                out.flush();
+                outputs[i] = captured.toString();
+            }
+        };
+        BatchInterpreter[] last = new BatchInterpreter[1];
+        Runnable batch = () -> {
+            BatchInterpreter interpreter = new BatchInterpreter(records);
+            interpreter.bind("price", price);
+            interpreter.bind("quantity", quantity);
+            interpreter.bind("member", member);
+            interpreter.interpret(statements);
+            last[0] = interpreter;
+        };
+
+        for (int r = 0; r < 3; r++) {
+            scalar.run();
+            batch.run();
+        }
+        long scalarTime = best(scalar, 5);
+        long batchTime = best(batch, 5);
+        for (int i = 0; i < records; i++)
+            if (!outputs[i].replace(System.lineSeparator(), "\n").equals(last[0].output(i)))
+                throw new AssertionError("record " + i);
+        System.out.printf("records  %d%n", records);
+        System.out.printf("scalar   %.1f ns per record%n", (double)scalarTime / records);
+        System.out.printf("batch    %.1f ns per record%n", (double)batchTime / records);
+        System.out.printf("speedup  %.1fx%n", (double)scalarTime / batchTime);
+    }
+
+    static long best(Runnable run, int rounds)
+    {
+        long best = Long.MAX_VALUE;
+        for (int r = 0; r < rounds; r++) {
+            long start = System.nanoTime();
+            run.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+}
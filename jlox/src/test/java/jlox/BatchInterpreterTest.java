@@ -0,0 +1,151 @@
+package jlox;
+
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Every record run in a batch must print and fail exactly as it does in an
+ * Interpreter of its own.
+ */
+public class BatchInterpreterTest extends TestCase
+{
+    // three batches, the last one partial
+    private static final int RECORDS = 2 * BatchInterpreter.BATCH + 300;
+
+    private final double[] price = new double[RECORDS];
+    private final double[] quantity = new double[RECORDS];
+    private final boolean[] member = new boolean[RECORDS];
+    private final String[] name = new String[RECORDS];
+
+    protected void setUp()
+    {
+        Random random = new Random(5);
+        for (int i = 0; i < RECORDS; i++) {
+            price[i] = random.nextInt(10) == 0 ? 0 : random.nextInt(20000) / 100.0;
+            quantity[i] = random.nextInt(10);
+            member[i] = random.nextBoolean();
+            name[i] = "n" + random.nextInt(100);
+        }
+    }
+
+    private static String describe(String output, RuntimeError error)
+    {
+        if (error == null)
+            return output;
+        return output + error.getMessage() + "\n[line " + error.token.line + "]\n";
+    }
+
+    private String scalar(List<Stmt> statements, int i)
+    {
+        return Output.of(out -> {
+            Environment globals = new Environment();
+            LoxArray.defineNatives(globals);
+            globals.define("price", price[i]);
+            globals.define("quantity", quantity[i]);
+            globals.define("member", member[i]);
+            globals.define("name", name[i]);
+            new Interpreter(out, globals).interpret(statements);
+        });
+    }
+
+    private void assertSameAsScalar(String source)
+    {
+        List<Stmt> statements = new Parser(new Scanner(source).scanTokens()).parse();
+        assertSameAsScalar(source, statements);
+        assertSameAsScalar(source, new TypeInference().infer(new ValueNumbering().rewrite(statements)));
+    }
+
+    private void assertSameAsScalar(String source, List<Stmt> statements)
+    {
+        BatchInterpreter batch = new BatchInterpreter(RECORDS);
+        batch.bind("price", price);
+        batch.bind("quantity", quantity);
+        batch.bind("member", member);
+        batch.bind("name", name);
+        batch.interpret(statements);
+        for (int i = 0; i < RECORDS; i++)
+            assertEquals(source + "\nrecord " + i, scalar(statements, i),
+                describe(batch.output(i), batch.error(i)));
+    }
+
+    public void testNumbersAndBranches()
+    {
+        assertSameAsScalar(
+            "var total = price * quantity;\n"
+            + "if (total > 100) {\n"
+            + "  var discount = total / 10;\n"
+            + "  total = total - discount;\n"
+            + "  print \"discount\";\n"
+            + "} else if (member) total = total - 1;\n"
+            + "print total;\n"
+            + "print (total >= 50) == member;\n"
+            + "print !(quantity < 5) != !member;");
+        assertSameAsScalar(
+            "var z = 0 * -1;\n"
+            + "print z == 0;\n"
+            + "var n = price / price;\n"
+            + "print n == n;\n"
+            + "print price / 0;\n"
+            + "print (price * quantity) + (price * quantity) + -(price * quantity);");
+    }
+
+    public void testMixedValues()
+    {
+        assertSameAsScalar(
+            "var s = name + \"!\";\n"
+            + "if (member) s = price;\n"
+            + "print s;\n"
+            + "print s == price;\n"
+            + "var t;\n"
+            + "if (quantity > 3) t = true; else if (quantity > 1) t = 1;\n"
+            + "print t;\n"
+            + "print !t;\n"
+            + "print 1 + name;");
+        assertSameAsScalar(
+            "var a = array(3);\n"
+            + "a[0] = price;\n"
+            + "if (quantity > 2) a[1] = name;\n"
+            + "print a;\n"
+            + "print a.length;\n"
+            + "print sum(a);\n"
+            + "print \"after\";");
+    }
+
+    public void testErrors()
+    {
+        assertSameAsScalar(
+            "var r = 10 / quantity;\n"
+            + "if (quantity > 5) print -name;\n"
+            + "print r;\n"
+            + "{ var x = price; if (member) x = name; print x - 1; }\n"
+            + "print \"end\";");
+        assertSameAsScalar(
+            "if (member) print missing;\n"
+            + "print 1;\n"
+            + "if (quantity > 8) missing = 2;\n"
+            + "print 2;");
+        assertSameAsScalar(
+            "print price;\n"
+            + "price(1);\n"
+            + "print \"never\";");
+    }
+
+    public void testNativesPerBatch()
+    {
+        assertSameAsScalar("print array; array = price; print array;");
+    }
+
+    public void testColumnLength()
+    {
+        BatchInterpreter batch = new BatchInterpreter(RECORDS);
+        try {
+            batch.bind("price", new double[RECORDS - 1]);
+            fail();
+        } catch (IllegalArgumentException expected) {
+            assertEquals("column price has " + (RECORDS - 1) + " values for " + RECORDS + " records",
+                expected.getMessage());
+        }
+    }
+}
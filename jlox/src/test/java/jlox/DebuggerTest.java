@@ -0,0 +1,152 @@
+package jlox;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Probes attached to the statements and assignments asked for and nothing
+ * else, and the debugger stopping, printing and tracing on them.
+ */
+public class DebuggerTest extends TestCase
+{
+    private static final String SOURCE = "var a = 1;\n"
+        + "var b = 2;\n"
+        + "if (a < b) {\n"
+        + "  a = a + b;\n"
+        + "  print a;\n"
+        + "}\n"
+        + "print 7; print 8;\n"
+        + "b = 10;\n"
+        + "print b;\n";
+
+    protected void tearDown()
+    {
+        Lox.debug = false;
+        Lox.trace = false;
+        Lox.lazy = false;
+        Lox.useArena = false;
+        Lox.parallel = false;
+    }
+
+    /** Runs SOURCE under a debugger given commands, null to only trace, returning what both printed. */
+    private static String debug(String commands)
+    {
+        return debug(SOURCE, commands);
+    }
+
+    private static String debug(String source, String commands)
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream stream = new PrintStream(output, true);
+        Parser parser = new Parser(new Scanner(source).scanTokens());
+        Map<Stmt, Integer> lines = parser.recordLines();
+        List<Stmt> statements = parser.parse();
+        Debugger debugger = new Debugger(source,
+            commands != null ? new BufferedReader(new StringReader(commands)) : null, stream);
+        debugger.trace = commands == null;
+        try {
+            new Interpreter(stream).run(debugger.attach(statements, lines));
+        } catch (Debugger.Quit quit) {
+            stream.println("quit");
+        }
+        return output.toString().replace("\r", "");
+    }
+
+    public void testNothingAttached()
+    {
+        Parser parser = new Parser(new Scanner(SOURCE).scanTokens());
+        Map<Stmt, Integer> lines = parser.recordLines();
+        List<Stmt> statements = parser.parse();
+        Instrumentation instrumentation = new Instrumentation(null, lines, line -> false, name -> false);
+        assertSame(statements, instrumentation.attach(statements));
+        assertEquals(0, instrumentation.probes);
+
+        // the two statements of line 7 and the assignments to b
+        instrumentation = new Instrumentation(null, lines, line -> line == 7, name -> name.equals("b"));
+        List<Stmt> attached = instrumentation.attach(statements);
+        assertEquals(3, instrumentation.probes);
+        assertTrue(attached.get(3) instanceof Stmt.Probe);
+        assertEquals(7, ((Stmt.Probe)attached.get(3)).line);
+        assertSame(statements.get(2), attached.get(2));
+        assertTrue(((Stmt.Expression)attached.get(5)).expression instanceof Expr.Probe);
+    }
+
+    public void testLinesOfLiterals()
+    {
+        Parser parser = new Parser(new Scanner("print 1;\n\nif (true)\n  print 2;\nelse { print 3; }").scanTokens());
+        Map<Stmt, Integer> lines = parser.recordLines();
+        List<Stmt> statements = parser.parse();
+        Stmt.If branch = (Stmt.If)statements.get(1);
+        assertEquals(Integer.valueOf(1), lines.get(statements.get(0)));
+        assertEquals(Integer.valueOf(3), lines.get(branch));
+        assertEquals(Integer.valueOf(4), lines.get(branch.thenBranch));
+        assertEquals(Integer.valueOf(5), lines.get(((Stmt.Block)branch.elseBranch).statements.get(0)));
+    }
+
+    public void testBreakWatchPrint()
+    {
+        assertEquals("[line 1] var a = 1;\n"
+            + "(lox) Breakpoint at line 8.\n"
+            + "(lox) No statement starts on line 6.\n"
+            + "(lox) (lox) 3\n7\n8\n"
+            + "[line 8] b = 10;\n"
+            + "(lox) 4\n"
+            + "(lox) Undefined variable'nope'.\n"
+            + "(lox) [line 1] Errorat end: Expect expression.\n"
+            + "(lox) [line 8] b is now 10\n"
+            + "(lox) 10\n",
+            debug("b 8\nb 6\nw b\nc\np a + 1\np nope\np (\nc\nc\n"));
+    }
+
+    public void testStepAndQuit()
+    {
+        // the if and its block are one stop, the two prints another
+        assertEquals("[line 1] var a = 1;\n"
+            + "(lox) [line 2] var b = 2;\n"
+            + "(lox) [line 3] if (a < b) {\n"
+            + "(lox) [line 4] a = a + b;\n"
+            + "(lox) [line 5] print a;\n"
+            + "(lox) 3\n[line 7] print 7; print 8;\n"
+            + "(lox) quit\n",
+            debug("s\ns\ns\ns\ns\nq\n"));
+        // out of commands, it runs to the end
+        assertEquals("[line 1] var a = 1;\n(lox) 3\n7\n8\n10\n", debug(""));
+    }
+
+    public void testWatchIsByName()
+    {
+        // the shadowing local stops, the var that defines x again does not
+        assertEquals("[line 1] var x = 1;\n"
+            + "(lox) (lox) [line 2] x is now 2\n"
+            + "(lox) [line 3] x is now 3\n"
+            + "(lox) 3\n5\n",
+            debug("var x = 1;\nx = 2;\n{ var x = 0; x = 3; print x; }\nvar x = 5;\nprint x;\n", "w x\nc\nc\nc\n"));
+    }
+
+    public void testConflictingFlags()
+    {
+        Lox.trace = true;
+        assertNull(Lox.conflict());
+        Lox.lazy = true;
+        assertEquals("--debug and --trace cannot be combined with --lazy, --arena or --parallel.", Lox.conflict());
+        Lox.lazy = false;
+        Lox.debug = true;
+        Lox.useArena = true;
+        assertNotNull(Lox.conflict());
+    }
+
+    public void testTrace()
+    {
+        List<String> lines = new ArrayList<>(List.of(debug(null).split("\n")));
+        assertEquals(List.of("[line 1] var a = 1;", "[line 2] var b = 2;", "[line 3] if (a < b) {",
+            "[line 4] a = a + b;", "[line 5] print a;", "3", "[line 7] print 7; print 8;", "7",
+            "[line 7] print 7; print 8;", "8", "[line 8] b = 10;", "[line 9] print b;", "10"), lines);
+    }
+}
@@ -0,0 +1,74 @@
+package jlox;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Number literals must parse to exactly the bits of Double.parseDouble.
+ */
+public class DoubleParserTest extends TestCase
+{
+    private static void assertSameBits(String literal)
+    {
+        long expected = Double.doubleToRawLongBits(Double.parseDouble(literal));
+        long actual = Double.doubleToRawLongBits(DoubleParser.parse(literal, 0, literal.length()));
+        assertEquals(literal, expected, actual);
+    }
+
+    private static String digits(Random random, int count)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++)
+            sb.append((char)('0' + random.nextInt(10)));
+        return sb.toString();
+    }
+
+    public void testSamples()
+    {
+        assertSameBits("0");
+        assertSameBits("0.0");
+        assertSameBits("000123.4500");
+        assertSameBits("0.1");
+        assertSameBits("0.3");
+        assertSameBits("9007199254740992");
+        assertSameBits("9007199254740993");
+        assertSameBits("9223372036854775807");
+        assertSameBits("9999999999999999999");
+        assertSameBits("18446744073709551615");
+        assertSameBits("123456789012345678901234567890.123456789");
+        assertSameBits("2.2250738585072011");
+        assertSameBits("179769313486231580793728971405303415079934132710037826936173778980444968292764750946649017977587207096330286416692887910946555547851940402630657488671505820681908902000708383676273854845817711531764475730270069855571366959622842914819860834936475292719074168444365510704342711559699508093042880177904174497792");
+        assertSameBits("0." + "0".repeat(323) + "5");
+        assertSameBits("0." + "0".repeat(400) + "1");
+        assertSameBits("1" + "0".repeat(400));
+    }
+
+    public void testRandomLiterals()
+    {
+        Random random = new Random(37);
+        for (int n = 0; n < 200000; n++) {
+            String whole = digits(random, 1 + random.nextInt(random.nextBoolean() ? 8 : 30));
+            assertSameBits(whole);
+            assertSameBits(whole + "." + digits(random, 1 + random.nextInt(random.nextBoolean() ? 6 : 30)));
+            assertSameBits("0." + "0".repeat(random.nextInt(330)) + digits(random, 1 + random.nextInt(20)));
+        }
+    }
+
+    public void testRandomDoubles()
+    {
+        Random random = new Random(73);
+        for (int n = 0; n < 50000; n++) {
+            double d = Math.abs(Double.longBitsToDouble(random.nextLong()));
+            if (Double.isNaN(d) || Double.isInfinite(d))
+                continue;
+            // the shortest literal, every digit of the double and the
+            // halfway point to the next one
+            BigDecimal exact = new BigDecimal(d);
+            assertSameBits(new BigDecimal(Double.toString(d)).toPlainString());
+            assertSameBits(exact.toPlainString());
+            assertSameBits(exact.add(new BigDecimal(Math.ulp(d)).divide(BigDecimal.valueOf(2))).toPlainString());
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package jlox;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput of interpreters on 1 to N threads sharing one global scope,
+ * with a SharedEnvironment and with a HashMap behind a single lock.
+ *
+ * mvn test-compile
+ * java -cp target/classes:target/test-classes jlox.GlobalsBenchmark \
+ *     [--threads N] [--writes fraction] [--millis per-run]
+ *
+ * Every thread runs its own read-mostly script over and over: a block of
+ * statements reading the globals into locals, where the given fraction of
+ * statements also assigns a global.
+ */
+public class GlobalsBenchmark
+{
+    static final int GLOBALS = 16;
+    static final int STATEMENTS = 200;
+
+    /** The baseline: every access takes the same lock. */
+    static class LockedEnvironment extends Environment
+    {
+        @Override
+        synchronized void define(String name, Object value)
+        {
+            super.define(name, value);
+        }
+
+        @Override
+        synchronized Object lookup(String name)
+        {
+            return super.lookup(name);
+        }
+
+        @Override
+        synchronized boolean replace(String name, Object value)
+        {
+            return super.replace(name, value);
+        }
+    }
+
+    static String script(long seed, double writes)
+    {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder("{\n");
+        for (int i = 0; i < STATEMENTS; i++) {
+            String a = "g" + random.nextInt(GLOBALS);
+            String b = "g" + random.nextInt(GLOBALS);
+            if (random.nextDouble() < writes)
+                sb.append(a).append(" = ").append(b).append(" + 1;\n");
+            else
+                sb.append("var l").append(i).append(" = ").append(a).append(" * ").append(b).append(";\n");
+        }
+        return sb.append("}\n").toString();
+    }
+
+    static Environment globals(boolean shared)
+    {
+        Environment globals = shared ? new SharedEnvironment() : new LockedEnvironment();
+        for (int i = 0; i < GLOBALS; i++)
+            globals.define("g" + i, (double)i);
+        return globals;
+    }
+
+    /** Statements executed per second by all threads together. */
+    static double run(boolean shared, int threads, double writes, long millis)
+        throws InterruptedException
+    {
+        Environment globals = globals(shared);
+        PrintStream nowhere = new PrintStream(OutputStream.nullOutputStream());
+        AtomicLong executed = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        long[] deadline = new long[1];
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            List<Stmt> statements = new Parser(new Scanner(script(t, writes)).scanTokens()).parse();
+            Thread worker = new Thread(() -> {
+                Interpreter interpreter = new Interpreter(nowhere, globals);
+                long runs = 0;
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                while (System.nanoTime() < deadline[0]) {
+                    interpreter.interpret(statements);
+                    runs++;
+                }
+                executed.addAndGet(runs * STATEMENTS);
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        long began = System.nanoTime();
+        deadline[0] = began + millis * 1000000;
+        start.countDown();
+        for (Thread worker : workers)
+            worker.join();
+        return executed.get() / ((System.nanoTime() - began) / 1e9);
+    }
+
+    public static void main(String[] args)
+        throws InterruptedException
+    {
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        double writes = 0.01;
+        long millis = 1000;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--threads"))
+                maxThreads = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--writes"))
+                writes = Double.parseDouble(args[++i]);
+            else if (args[i].equals("--millis"))
+                millis = Long.parseLong(args[++i]);
+            else {
+                System.err.println("Usage: GlobalsBenchmark [--threads N] [--writes fraction] [--millis per-run]");
+                System.exit(64);
+            }
+        }
+
+        // warm up both before measuring
+        run(false, 1, writes, millis);
+        run(true, 1, writes, millis);
+
+        System.out.printf("%d cores, writes %.3f%n", Runtime.getRuntime().availableProcessors(), writes);
+        System.out.printf("%-8s %14s %14s %9s %9s%n", "threads", "locked Mst/s", "shared Mst/s", "locked x", "shared x");
+        double locked1 = 0, shared1 = 0;
+        for (int threads = 1; threads <= maxThreads; threads = threads < maxThreads && threads * 2 > maxThreads ? maxThreads : threads * 2) {
+            double locked = run(false, threads, writes, millis);
+            double shared = run(true, threads, writes, millis);
+            if (threads == 1) {
+                locked1 = locked;
+                shared1 = shared;
+            }
+            System.out.printf("%-8d %14.2f %14.2f %9.2f %9.2f%n", threads,
+                locked / 1e6, shared / 1e6, locked / locked1, shared / shared1);
+        }
+    }
+}
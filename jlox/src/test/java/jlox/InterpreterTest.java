@@ -0,0 +1,50 @@
+package jlox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Blocks, if statements and operators of the tree interpreter, each of
+ * which once did something else.
+ */
+public class InterpreterTest extends TestCase
+{
+    private static String run(String source)
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream stream = new PrintStream(output, true);
+        int code = Lox.runIsolated(source, stream, stream);
+        return code + "\n" + output.toString().replace("\r", "");
+    }
+
+    public void testBlockHasItsOwnScope()
+    {
+        assertEquals("0\n2\n1\n3\n", run("var a = 1; { var a = 2; print a; } print a; { a = 3; } print a;"));
+    }
+
+    public void testIfEvaluatesItsCondition()
+    {
+        assertEquals("0\n2\n4\nelse\n",
+            run("if (false) print 1; else print 2; if (nil) print 3; if (1) print 4;\n"
+                + "var x = 1; if (x > 2) print \"then\"; else print \"else\";"));
+    }
+
+    public void testMinusSubtracts()
+    {
+        assertEquals("0\n5\n-3\n", run("print 7 - 2; print 1 - 4;"));
+    }
+
+    public void testSlashDivides()
+    {
+        assertEquals("0\n3.5\n", run("print 7 / 2;"));
+        assertEquals("70\nOperands must be numbers.\n[line 1]\n", run("print \"a\" / 2;"));
+    }
+
+    public void testEqualityOfAnyValues()
+    {
+        assertEquals("0\ntrue\ntrue\nfalse\ntrue\nfalse\n",
+            run("print \"a\" == \"a\"; print nil != 1; print true == 1; print nil == nil; print 1 != 1;"));
+    }
+}
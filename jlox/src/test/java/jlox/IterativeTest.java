@@ -0,0 +1,214 @@
+package jlox;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * The explicit stack parser and evaluator must agree with the recursive ones.
+ */
+public class IterativeTest extends TestCase
+{
+    private static class Dump implements Stmt.Visitor<String>, Expr.Visitor<String>
+    {
+        String of(Stmt stmt) { return stmt == null ? "null" : stmt.accept(this); }
+        String of(Expr expr) { return expr == null ? "null" : expr.accept(this); }
+
+        public String visitBlockStmt(Stmt.Block stmt)
+        {
+            StringBuilder sb = new StringBuilder("{");
+            for (Stmt s : stmt.statements)
+                sb.append(of(s)).append(' ');
+            return sb.append('}').toString();
+        }
+        public String visitExpressionStmt(Stmt.Expression stmt) { return "(; " + of(stmt.expression) + ")"; }
+        public String visitIfStmt(Stmt.If stmt)
+        {
+            return "(if " + of(stmt.condition) + " " + of(stmt.thenBranch) + " " + of(stmt.elseBranch) + ")";
+        }
+        public String visitLazyStmt(Stmt.Lazy stmt) { return "lazy"; }
+        public String visitPrintStmt(Stmt.Print stmt) { return "(print " + of(stmt.expression) + ")"; }
+        public String visitVarStmt(Stmt.Var stmt) { return "(var " + stmt.name.lexeme + " " + of(stmt.initializer) + ")"; }
+        public String visitProbeStmt(Stmt.Probe stmt) { return "(probe " + of(stmt.statement) + ")"; }
+        public String visitAssignExpr(Expr.Assign expr) { return "(= " + expr.name.lexeme + " " + of(expr.value) + ")"; }
+        public String visitVariableExpr(Expr.Variable expr) { return expr.name.lexeme; }
+        public String visitUnaryExpr(Expr.Unary expr) { return "(" + expr.operator.lexeme + " " + of(expr.right) + ")"; }
+        public String visitBinaryExpr(Expr.Binary expr)
+        {
+            return "(" + expr.operator.lexeme + " " + of(expr.left) + " " + of(expr.right) + ")";
+        }
+        public String visitGroupingExpr(Expr.Grouping expr) { return "(group " + of(expr.expression) + ")"; }
+        public String visitLiteralExpr(Expr.Literal expr) { return String.valueOf(expr.value); }
+        public String visitShareExpr(Expr.Share expr) { return "(share " + expr.slot + " " + of(expr.expression) + ")"; }
+        public String visitReuseExpr(Expr.Reuse expr) { return "(reuse " + expr.slot + ")"; }
+        public String visitUncheckedExpr(Expr.Unchecked expr) { return "(unchecked " + of(expr.expression) + ")"; }
+        public String visitSpeculatedExpr(Expr.Speculated expr) { return "(speculated " + of(expr.expression) + ")"; }
+        public String visitProbeExpr(Expr.Probe expr) { return "(probe " + of(expr.expression) + ")"; }
+        public String visitCallExpr(Expr.Call expr)
+        {
+            StringBuilder sb = new StringBuilder("(call " + of(expr.callee));
+            for (Expr argument : expr.arguments)
+                sb.append(' ').append(of(argument));
+            return sb.append(" @").append(expr.paren.line).append(')').toString();
+        }
+        public String visitIndexExpr(Expr.Index expr) { return "(index " + of(expr.array) + " " + of(expr.index) + " @" + expr.bracket.line + ")"; }
+        public String visitStoreExpr(Expr.Store expr) { return "(store " + of(expr.array) + " " + of(expr.index) + " " + of(expr.value) + " @" + expr.bracket.line + ")"; }
+        public String visitLengthExpr(Expr.Length expr) { return "(length " + of(expr.array) + " @" + expr.name.line + ")"; }
+    }
+
+    // tree dump, output and errors of parsing and, if it parsed, running source
+    private static String run(String source, boolean iterative)
+    {
+        StringBuilder sb = new StringBuilder();
+        String output = Output.of(out -> {
+            Parser parser = new Parser(new Scanner(source).scanTokens());
+            List<Stmt> statements = iterative ? parser.parseIterative(Integer.MAX_VALUE) : parser.parse();
+            for (Stmt stmt : statements)
+                sb.append(new Dump().of(stmt)).append('\n');
+            if (!Lox.hadError()) {
+                Interpreter interpreter = new Interpreter(out);
+                if (iterative)
+                    interpreter.interpretIterative(statements, Integer.MAX_VALUE);
+                else
+                    interpreter.interpret(statements);
+            }
+        });
+        return sb.append(output).toString();
+    }
+
+    private static void assertSame(String source)
+    {
+        assertEquals(source, run(source, false), run(source, true));
+    }
+
+    public void testSamples()
+    {
+        assertSame("print -a * (b + c) / !d == e != f < g;");
+        assertSame("print 1 - 2 - 3 * 4 / 5 < 6 == 7 >= 8 - -9 != 10 + 11 <= 12;");
+        assertSame("var a; var b; a = b = 1 + 2; print a;");
+        assertSame("var a = 1; a + 1 = 2; (a) = 3; -a = 4; print a;");
+        assertSame("if (true) if (false) print 1; else print 2; else print 3;");
+        assertSame("{ var a = 1; { var a = 2; print a; } print a; }");
+        assertSame("print (1 + 2; print 3;");
+        assertSame("if (1) var a = 1; print 2;");
+        assertSame("{ print 1; if (true) { print ; } print 2; } print 3;");
+        assertSame("{ if (true) print 1; ");
+        assertSame("print 1 = 2 + ;");
+        assertSame("print nil + 1;\nprint 2;");
+    }
+
+    public void testRandomTokenSoup()
+    {
+        String[] words = { "var", "a", "b", "=", "1", "\"s\"", "+", "-", "*", "/", "!", "==", "<",
+            "(", ")", "{", "}", ";", "if", "else", "print", "true", "nil" };
+        Random random = new Random(31);
+        for (int n = 0; n < 3000; n++) {
+            StringBuilder sb = new StringBuilder();
+            int length = random.nextInt(30);
+            for (int i = 0; i < length; i++)
+                sb.append(words[random.nextInt(words.length)]).append(' ');
+            assertSame(sb.toString());
+        }
+    }
+
+    public void testRandomCallSoup()
+    {
+        String[] words = { "a", "sum", "1", "+", "-", "=", "(", ")", "[", "]", ",", ".", "length",
+            ";", "print", "!" };
+        Random random = new Random(37);
+        for (int n = 0; n < 3000; n++) {
+            StringBuilder sb = new StringBuilder("var a = array(3);\n");
+            int length = random.nextInt(20);
+            for (int i = 0; i < length; i++)
+                sb.append(words[random.nextInt(words.length)]).append(' ');
+            assertSame(sb.toString());
+        }
+    }
+
+    public void testGeneratedPrograms()
+    {
+        for (int seed = 1; seed <= 10; seed++)
+            assertSame(ProgramGenerator.generate(
+                new ProgramGenerator.Shape("test").statements(200).depth(5).strings(0.3).seed(seed)));
+    }
+
+    // what an instrument on every statement and assignment saw running source
+    private static String probed(String source, boolean iterative)
+    {
+        StringBuilder sb = new StringBuilder();
+        Instrument instrument = new Instrument() {
+            public void before(Stmt stmt, int line, Environment environment)
+            {
+                sb.append("line ").append(line).append('\n');
+            }
+
+            public void after(Expr expr, Object value, Environment environment)
+            {
+                sb.append(((Expr.Assign)expr).name.lexeme).append(" = ").append(value).append('\n');
+            }
+        };
+        String output = Output.of(out -> {
+            Parser parser = new Parser(new Scanner(source).scanTokens());
+            Map<Stmt, Integer> lines = parser.recordLines();
+            List<Stmt> statements = new Instrumentation(instrument, lines, line -> true, name -> true)
+                .attach(parser.parse());
+            Interpreter interpreter = new Interpreter(out);
+            if (iterative)
+                interpreter.interpretIterative(statements, Integer.MAX_VALUE);
+            else
+                interpreter.interpret(statements);
+        });
+        return sb.append(output).toString();
+    }
+
+    public void testProbes()
+    {
+        // the inner assignment is deep enough for the work stack
+        StringBuilder deep = new StringBuilder("b = ");
+        for (int i = 0; i < 40; i++)
+            deep.append("1 + (");
+        deep.append("a = 2");
+        for (int i = 0; i < 40; i++)
+            deep.append(')');
+        String source = "var a = 1;\nvar b;\nif (a < 2) {\n  a = a + 1;\n  print a;\n}\n"
+            + deep + ";\nprint a + b;\n";
+        String recursive = probed(source, false);
+        assertTrue(recursive, recursive.contains("line 4\na = 2.0\nline 5\nline 7\na = 2.0\nb = 42.0\n"));
+        assertEquals(recursive, probed(source, true));
+    }
+
+    public void testUnsupportedNode()
+    {
+        Expr unknown = new Expr() {
+            <R> R accept(Visitor<R> visitor)
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+        try {
+            new Interpreter(System.out).interpretIterative(List.of(new Stmt.Print(unknown)), 10);
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("unsupported node"));
+        }
+    }
+
+    public void testNestingLimit()
+    {
+        StringBuilder sb = new StringBuilder("print ");
+        for (int i = 0; i < 100000; i++)
+            sb.append('(');
+        sb.append('1');
+        for (int i = 0; i < 100000; i++)
+            sb.append(')');
+        String source = sb.append(';').toString();
+
+        String errors = Output.of(out -> {
+            new Parser(new Scanner(source).scanTokens()).parseIterative(1000);
+            assertTrue(Lox.hadError());
+        });
+        assertEquals("[line 1] Errorat '(': Too much nesting.\n", errors);
+    }
+}
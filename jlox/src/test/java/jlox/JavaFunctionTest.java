@@ -0,0 +1,108 @@
+package jlox;
+
+import java.lang.reflect.Method;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Java methods registered as natives, with their values adapted both ways.
+ */
+public class JavaFunctionTest extends TestCase
+{
+    public static String repeat(String s, int times) { return s.repeat(times); }
+    public static boolean positive(double d) { return d > 0; }
+    public static long square(long n) { return n * n; }
+    public static Integer boxed(float f) { return (int)f; }
+    public static Object same(Object o) { return o; }
+    public static void nothing() { }
+    public static double add4(double a, double b, double c, double d) { return a + b + c + d; }
+    public static double explode(String message) { throw new IllegalStateException(message); }
+    public char letter() { return 'a'; }
+    public static char first(String s) { return s.charAt(0); }
+    public static Character last(String s) { return s.isEmpty() ? null : s.charAt(s.length() - 1); }
+
+    private static String run(String source, boolean iterative)
+        throws NoSuchMethodException
+    {
+        Map<String, Method> natives = new LinkedHashMap<>();
+        natives.put("hypot", Math.class.getMethod("hypot", double.class, double.class));
+        natives.put("repeat", JavaFunctionTest.class.getMethod("repeat", String.class, int.class));
+        natives.put("positive", JavaFunctionTest.class.getMethod("positive", double.class));
+        natives.put("square", JavaFunctionTest.class.getMethod("square", long.class));
+        natives.put("boxed", JavaFunctionTest.class.getMethod("boxed", float.class));
+        natives.put("same", JavaFunctionTest.class.getMethod("same", Object.class));
+        natives.put("nothing", JavaFunctionTest.class.getMethod("nothing"));
+        natives.put("add4", JavaFunctionTest.class.getMethod("add4",
+            double.class, double.class, double.class, double.class));
+        natives.put("fail", JavaFunctionTest.class.getMethod("explode", String.class));
+        natives.put("first", JavaFunctionTest.class.getMethod("first", String.class));
+        natives.put("last", JavaFunctionTest.class.getMethod("last", String.class));
+        return Output.of(out -> {
+            Interpreter interpreter = new Interpreter(out);
+            natives.forEach(interpreter::registerNative);
+            List<Stmt> statements = new Parser(new Scanner(source).scanTokens()).parse();
+            if (iterative)
+                interpreter.interpretIterative(statements, Integer.MAX_VALUE);
+            else
+                interpreter.interpret(statements);
+        });
+    }
+
+    private static void assertOutput(String expected, String source)
+        throws NoSuchMethodException
+    {
+        assertEquals(source, expected, run(source, false));
+        assertEquals(source, expected, run(source, true));
+    }
+
+    public void testValues()
+        throws NoSuchMethodException
+    {
+        assertOutput("5\n", "print hypot(3, 4);");
+        assertOutput("ababab\n", "print repeat(\"ab\", 3);");
+        assertOutput("true\nfalse\n", "print positive(1); print positive(-1);");
+        assertOutput("49\n", "print square(7);");
+        assertOutput("2\n", "print boxed(2.5);");
+        assertOutput("nil\nx\n", "print same(nil); print same(\"x\");");
+        assertOutput("nil\n", "print nothing();");
+        assertOutput("10\n", "print add4(1, 2, 3, 4);");
+        assertOutput("<native fn>\n", "print hypot;");
+        assertOutput("a\nc\nnil\ntrue\ntrue\n",
+            "print first(\"abc\"); print last(\"abc\"); print last(\"\");"
+            + " print first(\"x\") == \"x\"; print first(\"y\") == last(\"y\");");
+    }
+
+    public void testErrors()
+        throws NoSuchMethodException
+    {
+        assertOutput("1\nArgument 2 must be a number.\n[line 2]\n", "print 1;\nprint hypot(3, \"4\");");
+        assertOutput("Argument 2 must be a whole number.\n[line 1]\n", "print repeat(\"a\", 1.5);");
+        assertOutput("Argument 1 must be a string.\n[line 1]\n", "print repeat(nil, 1);");
+        assertOutput("Argument 3 must be a number.\n[line 1]\n", "print add4(1, 2, true, 4);");
+        // 2^63 is one past the largest long
+        assertOutput("Argument 1 must be a whole number.\n[line 1]\n", "print square(9223372036854775808);");
+        assertOutput("49\n", "print square(-7);");
+        assertOutput("Expected 2 arguments but got 1.\n[line 1]\n", "print hypot(3);");
+        assertOutput("fail failed: java.lang.IllegalStateException: boom\n[line 1]\n", "fail(\"boom\");");
+    }
+
+    public void testRegistrationChecks()
+        throws NoSuchMethodException
+    {
+        try {
+            JavaFunction.of("letter", JavaFunctionTest.class.getMethod("letter"));
+            fail();
+        } catch (IllegalArgumentException expected) {
+            assertTrue(expected.getMessage().endsWith("is not static"));
+        }
+        try {
+            JavaFunction.of("chars", String.class.getMethod("valueOf", char[].class));
+            fail();
+        } catch (IllegalArgumentException expected) {
+            assertEquals("unsupported parameter type class [C", expected.getMessage());
+        }
+    }
+}
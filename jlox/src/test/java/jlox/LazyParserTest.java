@@ -0,0 +1,65 @@
+package jlox;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Lazily parsed blocks must run like eagerly parsed ones. Checked, they
+ * report the same syntax errors up front; unchecked, once they run.
+ */
+public class LazyParserTest extends TestCase
+{
+    private static String run(String source, boolean lazy)
+    {
+        return run(source, lazy, false);
+    }
+
+    private static String run(String source, boolean lazy, boolean check)
+    {
+        return Output.of(out -> {
+            List<Token> tokens = new Scanner(source).scanTokens();
+            List<Stmt> statements = new Parser(tokens, lazy, check).parse();
+            if (!Lox.hadError())
+                new Interpreter(out).interpret(statements);
+        });
+    }
+
+    public void testGeneratedPrograms()
+    {
+        for (int seed = 1; seed <= 20; seed++) {
+            String source = ProgramGenerator.generate(
+                new ProgramGenerator.Shape("test").statements(200).depth(5).seed(seed));
+            assertEquals(run(source, false), run(source, true));
+            assertEquals(run(source, false), run(source, true, true));
+        }
+    }
+
+    public void testCheckedErrorsMatchEagerParse()
+    {
+        String[] sources = {
+            "if (false) { print ; } else { print \"ok\"; }",
+            "print 1;\n{\n  print ;\n}\nprint 2;",
+            "{ { var = 1; } print 2; }\n{ print (; }\nprint 3;",
+            "{ print (}; print 1; }\nprint 2; { print 3 }",
+        };
+        for (String source: sources) {
+            String eager = run(source, false);
+            assertTrue(eager, eager.contains("Error"));
+            assertEquals(eager, run(source, true, true));
+        }
+        assertEquals("[line 3] Errorat ';': Expect expression.\n", run(sources[1], true, true));
+    }
+
+    public void testUncheckedErrorStopsExecution()
+    {
+        String source = "print 1;\n{\n  print ;\n}\nprint 2;";
+        assertEquals("1\n[line 3] Errorat ';': Expect expression.\n", run(source, true));
+    }
+
+    public void testUnmatchedBraceIsReportedUpFront()
+    {
+        String source = "print 1;\n{ print 2;\n";
+        assertEquals(run(source, false), run(source, true));
+    }
+}
@@ -0,0 +1,110 @@
+package jlox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import junit.framework.TestCase;
+
+/**
+ * Requests from LoxClient answered by LoxDaemon over a socket in a temporary
+ * directory: output, errors and exit code, imports beside the script, and
+ * lengths that are out of range.
+ */
+public class LoxDaemonTest extends TestCase
+{
+    private Path directory;
+    private UnixDomainSocketAddress address;
+    private ServerSocketChannel server;
+    private Thread daemon;
+
+    protected void setUp()
+        throws IOException
+    {
+        directory = Files.createTempDirectory("lox-daemon");
+        address = UnixDomainSocketAddress.of(directory.resolve("socket"));
+        server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(address);
+        ModuleLoader.clearCache();
+        // answers one request
+        daemon = new Thread(() -> {
+            try {
+                LoxDaemon.serve(server.accept());
+            } catch (IOException e) {
+                // closed by tearDown
+            }
+        });
+        daemon.start();
+    }
+
+    protected void tearDown()
+        throws IOException, InterruptedException
+    {
+        server.close();
+        daemon.join();
+        ModuleLoader.clearCache();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /** The exit code, output and errors of running source as script through the daemon. */
+    private String request(Path script, String source)
+        throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        int code;
+        try (SocketChannel channel = SocketChannel.open(address)) {
+            code = LoxClient.run(channel, script, source.getBytes(),
+                new PrintStream(out, true), new PrintStream(err, true));
+        }
+        return code + "\n" + out + "--\n" + err;
+    }
+
+    public void testRoundTrip()
+        throws IOException
+    {
+        assertEquals("70\n1\n--\nOperands must be numbers.\n[line 2]\n",
+            request(null, "print 1;\nprint 2 - \"a\";\nprint 3;"));
+    }
+
+    public void testImportsBesideScript()
+        throws IOException
+    {
+        Files.write(directory.resolve("lib.lox"), "var lib = \"beside\";".getBytes());
+        Path script = directory.resolve("main.lox");
+        assertEquals("0\nbeside\n--\n", request(script, "import \"lib\";\nprint lib;"));
+    }
+
+    public void testSourceLengthOutOfRange()
+        throws IOException
+    {
+        try (SocketChannel channel = SocketChannel.open(address)) {
+            DataOutputStream request = new DataOutputStream(Channels.newOutputStream(channel));
+            request.writeUTF("");
+            request.writeInt(-1);
+            request.flush();
+
+            DataInputStream response = new DataInputStream(Channels.newInputStream(channel));
+            assertEquals(LoxDaemon.ERR, response.readByte());
+            byte[] message = new byte[response.readInt()];
+            response.readFully(message);
+            assertEquals("Source of -1 bytes, expect 0 to " + LoxDaemon.MAX_SOURCE + ".\n",
+                new String(message));
+            assertEquals(LoxDaemon.EXIT, response.readByte());
+            assertEquals(64, response.readInt());
+        }
+    }
+}
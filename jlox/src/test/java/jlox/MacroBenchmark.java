@@ -0,0 +1,332 @@
+package jlox;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * End to end workload suite: generates programs with ProgramGenerator and
+ * measures what Lox.runFile does with them (read, scan, parse, execute).
+ *
+ * mvn test-compile
+ * java -cp target/classes:target/test-classes jlox.MacroBenchmark \
+ *     [--engine tree|arena|lazy|iterative|cse|types|profiled] [--out results.json] [--baseline baseline.json] \
+ *     [--threshold 0.10]
+ *
+ * With --baseline, every time and allocation metric that got worse than the
+ * baseline by more than the threshold is reported and the exit code is 1.
+ * peakRssMb is the high water mark of the whole process so far, programMb
+ * is what the parsed program retains together with the source and tokens
+ * Lox.run still holds. Every engine is the Lox flag of the same name, run
+ * through Lox.runFile, whose output is dropped.
+ * The profiled engine records the profile of every workload in its first
+ * warm-up run, into a file next to it, and measures runs that speculate on
+ * it without recording. Plain tree runs of the same workloads are measured
+ * with them, as plainExecuteMs, and executeSpeedup is plainExecuteMs over
+ * executeMs.
+ */
+public class MacroBenchmark
+{
+    static final int WARMUP = 3;
+    static final int ROUNDS = 5;
+
+    static String engine = "tree";
+
+    static List<ProgramGenerator.Shape> workloads()
+    {
+        List<ProgramGenerator.Shape> shapes = new ArrayList<>();
+        shapes.add(new ProgramGenerator.Shape("flat").statements(20000).depth(0));
+        shapes.add(new ProgramGenerator.Shape("nested").statements(5000).depth(8));
+        shapes.add(new ProgramGenerator.Shape("long-expressions").statements(5000).expressionLength(32));
+        shapes.add(new ProgramGenerator.Shape("many-variables").statements(10000).variables(2000));
+        shapes.add(new ProgramGenerator.Shape("strings").statements(10000).strings(0.8));
+        shapes.add(new ProgramGenerator.Shape("repeated").statements(10000).expressionLength(8).repeats(0.5));
+        return shapes;
+    }
+
+    /** Metrics of one workload, best of ROUNDS for times. */
+    static Map<String, Double> measure(Path file)
+        throws IOException
+    {
+        Map<String, Double> best = new LinkedHashMap<>();
+        for (int round = 0; round < ROUNDS; round++) {
+            Map<String, Double> m = measureOnce(file);
+            for (Map.Entry<String, Double> e : m.entrySet()) {
+                Double old = best.get(e.getKey());
+                best.put(e.getKey(), old == null ? e.getValue() : Math.min(old, e.getValue()));
+            }
+        }
+        return best;
+    }
+
+    static Map<String, Double> measureOnce(Path file)
+        throws IOException
+    {
+        Map<String, Double> m = new LinkedHashMap<>();
+        System.gc();
+        long base = usedHeap();
+        resetPeakHeap();
+        // time and allocations at the end of each phase of Lox.runFile
+        long[] times = new long[Lox.EXECUTED + 1];
+        long[] allocations = new long[Lox.EXECUTED + 1];
+        // what the program keeps alive, and the untimed pause to find out
+        long[] retained = new long[2];
+        Lox.phases = phase -> {
+            times[phase] = System.nanoTime();
+            allocations[phase] = allocatedBytes();
+            if (phase == Lox.PARSED) {
+                // with the source and tokens Lox.run still holds
+                System.gc();
+                retained[0] = usedHeap() - base;
+                retained[1] = System.nanoTime() - times[phase];
+                allocations[phase] = allocatedBytes();
+            }
+        };
+        long allocated = allocatedBytes();
+        long t0 = System.nanoTime();
+        try {
+            // exits with the script's exit code if the generated program fails
+            Lox.runFile(file.toString());
+        } finally {
+            Lox.phases = null;
+        }
+        long t1 = times[Lox.READ];
+        long t2 = times[Lox.SCANNED];
+        long t3 = times[Lox.PARSED];
+        long t4 = times[Lox.EXECUTED] - retained[1];
+        long a2 = allocations[Lox.SCANNED];
+        long a3 = allocations[Lox.PARSED];
+        long a4 = allocations[Lox.EXECUTED];
+
+        m.put("readMs", (t1 - t0) / 1e6);
+        m.put("scanMs", (t2 - t1) / 1e6);
+        m.put("parseMs", (t3 - t2) / 1e6);
+        m.put("executeMs", (t4 - t3) / 1e6);
+        m.put("totalMs", (t4 - t0) / 1e6);
+        m.put("scanAllocMb", (a2 - allocated) / 1048576.0);
+        m.put("parseAllocMb", (a3 - a2) / 1048576.0);
+        m.put("executeAllocMb", (a4 - a3) / 1048576.0);
+        m.put("programMb", retained[0] / 1048576.0);
+        m.put("peakHeapMb", peakHeap() / 1048576.0);
+        m.put("peakRssMb", peakRss() / 1048576.0);
+        return m;
+    }
+
+    static long allocatedBytes()
+    {
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    static long usedHeap()
+    {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    static void resetPeakHeap()
+    {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            pool.resetPeakUsage();
+    }
+
+    static long peakHeap()
+    {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if (pool.getType() == MemoryType.HEAP)
+                peak += pool.getPeakUsage().getUsed();
+        return peak;
+    }
+
+    // high water mark of the resident set, from /proc on Linux
+    static long peakRss()
+        throws IOException
+    {
+        File status = new File("/proc/self/status");
+        if (!status.exists())
+            return 0;
+        for (String line : Files.readAllLines(status.toPath())) {
+            if (line.startsWith("VmHWM:")) {
+                String kb = line.substring(6).trim().split("\\s+")[0];
+                return Long.parseLong(kb) * 1024;
+            }
+        }
+        return 0;
+    }
+
+    static String toJson(Map<String, Map<String, Double>> results)
+    {
+        StringBuilder sb = new StringBuilder("{\n");
+        int i = 0;
+        for (Map.Entry<String, Map<String, Double>> w : results.entrySet()) {
+            sb.append("  \"").append(w.getKey()).append("\": {");
+            int j = 0;
+            for (Map.Entry<String, Double> m : w.getValue().entrySet()) {
+                sb.append(j++ == 0 ? "" : ",").append("\n    \"").append(m.getKey())
+                    .append("\": ").append(String.format(Locale.ROOT, "%.3f", m.getValue()));
+            }
+            sb.append("\n  }").append(++i < results.size() ? ",\n" : "\n");
+        }
+        return sb.append("}\n").toString();
+    }
+
+    // reads back the flat two level objects written by toJson
+    static Map<String, Map<String, Double>> fromJson(String json)
+    {
+        Map<String, Map<String, Double>> results = new LinkedHashMap<>();
+        Matcher workload = Pattern.compile("\"([^\"]+)\"\\s*:\\s*\\{([^}]*)\\}").matcher(json);
+        while (workload.find()) {
+            Map<String, Double> metrics = new LinkedHashMap<>();
+            Matcher metric = Pattern.compile("\"([^\"]+)\"\\s*:\\s*([-0-9.eE]+)").matcher(workload.group(2));
+            while (metric.find())
+                metrics.put(metric.group(1), Double.parseDouble(metric.group(2)));
+            results.put(workload.group(1), metrics);
+        }
+        return results;
+    }
+
+    // time and allocation metrics that got worse than baseline by more than threshold
+    static List<String> regressions(Map<String, Map<String, Double>> baseline,
+        Map<String, Map<String, Double>> current, double threshold)
+    {
+        List<String> found = new ArrayList<>();
+        for (Map.Entry<String, Map<String, Double>> w : current.entrySet()) {
+            Map<String, Double> before = baseline.get(w.getKey());
+            if (before == null)
+                continue;
+            for (Map.Entry<String, Double> m : w.getValue().entrySet()) {
+                String name = m.getKey();
+                if (!name.endsWith("Ms") && !name.endsWith("AllocMb"))
+                    continue;
+                Double old = before.get(name);
+                // ignore noise on metrics too small to measure
+                if (old == null || old < 1.0)
+                    continue;
+                if (m.getValue() > old * (1 + threshold))
+                    found.add(String.format("%s.%s: %.3f -> %.3f (+%.1f%%)", w.getKey(), name,
+                        old, m.getValue(), 100 * (m.getValue() / old - 1)));
+            }
+        }
+        return found;
+    }
+
+    // measure(file) with the tree engine, for the profiled one to compare with
+    static Map<String, Double> plain(Path file)
+        throws IOException
+    {
+        Lox.profiling = false;
+        try {
+            return measure(file);
+        } finally {
+            Lox.profiling = true;
+        }
+    }
+
+    public static void main(String[] args)
+        throws IOException
+    {
+        String outFile = null;
+        String baselineFile = null;
+        double threshold = 0.10;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--engine"))
+                engine = args[++i];
+            else if (args[i].equals("--out"))
+                outFile = args[++i];
+            else if (args[i].equals("--baseline"))
+                baselineFile = args[++i];
+            else if (args[i].equals("--threshold"))
+                threshold = Double.parseDouble(args[++i]);
+            else {
+                System.err.println("Usage: MacroBenchmark [--engine tree|arena|lazy|iterative|cse|types|profiled] [--out file] [--baseline file] [--threshold fraction]");
+                System.exit(64);
+            }
+        }
+
+        // before Lox makes its interpreters, which keep System.out
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        if (engine.equals("arena"))
+            Lox.useArena = true;
+        else if (engine.equals("lazy"))
+            Lox.lazy = true;
+        else if (engine.equals("iterative"))
+            Lox.maxDepth = Integer.MAX_VALUE;
+        else if (engine.equals("cse"))
+            Lox.cse = true;
+        else if (engine.equals("types"))
+            Lox.types = true;
+        else if (engine.equals("profiled"))
+            Lox.profiling = true;
+        else if (!engine.equals("tree")) {
+            System.err.println("Unknown engine " + engine + ".");
+            System.exit(64);
+        }
+
+        Path dir = Files.createTempDirectory("lox-macro");
+        Map<String, Path> files = new LinkedHashMap<>();
+        for (ProgramGenerator.Shape shape : workloads()) {
+            Path file = dir.resolve(shape.name + ".lox");
+            Files.write(file, ProgramGenerator.generate(shape).getBytes(Charset.defaultCharset()));
+            System.err.println("generated " + shape + " (" + Files.size(file) / 1024 + " KiB)");
+            files.put(shape.name, file);
+        }
+
+        // let the JIT settle on every workload before measuring any of them
+        for (int i = 0; i < WARMUP; i++)
+            for (Path file : files.values()) {
+                measureOnce(file);
+                if (Lox.profiling) {
+                    Lox.profiling = false;
+                    measureOnce(file);
+                    Lox.profiling = true;
+                }
+            }
+
+        Map<String, Map<String, Double>> results = new LinkedHashMap<>();
+        for (Map.Entry<String, Path> e : files.entrySet()) {
+            Map<String, Double> metrics = measure(e.getValue());
+            if (Lox.profiling) {
+                double plain = plain(e.getValue()).get("executeMs");
+                metrics.put("plainExecuteMs", plain);
+                metrics.put("executeSpeedup", plain / metrics.get("executeMs"));
+            }
+            results.put(e.getKey(), metrics);
+            Files.delete(e.getValue());
+            Files.deleteIfExists(Paths.get(e.getValue() + ".profile"));
+        }
+        Files.delete(dir);
+
+        String json = toJson(results);
+        if (outFile != null)
+            Files.write(Paths.get(outFile), json.getBytes(Charset.defaultCharset()));
+        else
+            stdout.print(json);
+
+        if (baselineFile != null) {
+            String saved = new String(Files.readAllBytes(Paths.get(baselineFile)), Charset.defaultCharset());
+            List<String> found = regressions(fromJson(saved), results, threshold);
+            for (String r : found)
+                System.err.println("REGRESSION " + r);
+            if (!found.isEmpty())
+                System.exit(1);
+            System.err.println("no regressions beyond " + (int) (threshold * 100) + "%");
+        }
+    }
+}
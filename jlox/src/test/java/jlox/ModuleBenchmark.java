@@ -0,0 +1,61 @@
+package jlox;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Loading a layered module graph, each module importing two of the layer
+ * below, cold against from the cache.
+ *
+ * mvn test-compile
+ * java -cp target/classes:target/test-classes jlox.ModuleBenchmark [modules]
+ */
+public class ModuleBenchmark
+{
+    public static void main(String[] args)
+        throws IOException
+    {
+        int modules = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int width = 10;
+        Path directory = Files.createTempDirectory("lox-modules");
+        for (int m = 0; m < modules; m++) {
+            StringBuilder source = new StringBuilder();
+            if (m >= width) {
+                source.append("import \"m").append(m - width).append("\";\n");
+                source.append("import \"m").append(m - width + (m + 1) % width).append("\";\n");
+            }
+            source.append(ProgramGenerator.generate(new ProgramGenerator.Shape("module")
+                .statements(200).expressionLength(8).depth(2).seed(m)));
+            Files.write(directory.resolve("m" + m + ".lox"), source.toString().getBytes());
+        }
+        List<Token> imports = new ArrayList<>();
+        for (int m = modules - width; m < modules; m++)
+            imports.add(new Token(TokenType.STRING, "\"m" + m + "\"", "m" + m, 1));
+
+        long cold = Long.MAX_VALUE;
+        long cached = Long.MAX_VALUE;
+        int statements = 0;
+        for (int r = 0; r < 10; r++) {
+            ModuleLoader.clearCache();
+            long start = System.nanoTime();
+            statements = new ModuleLoader(directory, List.of(), 0).load(imports).size();
+            cold = Math.min(cold, System.nanoTime() - start);
+            start = System.nanoTime();
+            new ModuleLoader(directory, List.of(), 0).load(imports);
+            cached = Math.min(cached, System.nanoTime() - start);
+        }
+        System.out.printf("modules     %d, %d statements%n", modules, statements);
+        System.out.printf("threads     %d%n", Runtime.getRuntime().availableProcessors());
+        System.out.printf("cold load   %.2f ms%n", cold / 1e6);
+        System.out.printf("cached load %.2f ms%n", cached / 1e6);
+
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
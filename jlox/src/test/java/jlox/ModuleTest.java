@@ -0,0 +1,127 @@
+package jlox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import junit.framework.TestCase;
+
+/**
+ * Imports found on the search path, run once each in dependency order, with
+ * missing modules, broken modules and cycles reported at the import.
+ */
+public class ModuleTest extends TestCase
+{
+    private Path directory;
+
+    protected void setUp()
+        throws IOException
+    {
+        directory = Files.createTempDirectory("lox-modules");
+        Lox.modulePath = new ArrayList<>(List.of(directory));
+        ModuleLoader.clearCache();
+    }
+
+    protected void tearDown()
+        throws IOException
+    {
+        Lox.modulePath = new ArrayList<>();
+        Lox.useArena = false;
+        ModuleLoader.clearCache();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private Path module(String name, String source)
+        throws IOException
+    {
+        Path path = directory.resolve(name + ".lox");
+        Files.createDirectories(path.getParent());
+        Files.write(path, source.getBytes());
+        return path;
+    }
+
+    private static String run(String source)
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream stream = new PrintStream(output, true);
+        Lox.runIsolated(source, stream, stream);
+        return output.toString().replace("\r", "");
+    }
+
+    public void testDependencyOrder()
+        throws IOException
+    {
+        module("d", "var d = 1; print \"d\";");
+        module("b", "import \"d\";\nvar b = d + 1; print \"b\";");
+        module("c", "import \"d\";\nvar c = d + 2; print \"c\";");
+        String main = "import \"b\";\nimport \"c\";\nprint b + c;";
+        assertEquals("d\nb\nc\n5\n", run(main));
+        Lox.useArena = true;
+        assertEquals("d\nb\nc\n5\n", run(main));
+    }
+
+    public void testImporterDirectoryFirst()
+        throws IOException
+    {
+        module("name", "var name = \"top\";");
+        module("lib/name", "var name = \"lib\";");
+        module("lib/entry", "import \"name\";");
+        assertEquals("lib\n", run("import \"lib/entry\";\nprint name;"));
+        assertEquals("top\n", run("import \"name\";\nprint name;"));
+    }
+
+    public void testErrors()
+        throws IOException
+    {
+        assertEquals("[line 1] Errorat '\"none\"': Cannot find module none.\n",
+            run("import \"none\";\nprint 1;"));
+
+        module("a", "import \"b\";\nvar a = 1;");
+        module("b", "\nimport \"a\";\nvar b = 2;");
+        assertEquals("[line 2] Errorat '\"a\"': Import cycle a -> b -> a.\n",
+            run("import \"a\";\nprint a;"));
+
+        module("broken", "var x = ;");
+        assertEquals("[line 1] Errorat ';': Expect expression.\n"
+            + "[line 2] Errorat '\"broken\"': Errors in module broken.\n",
+            run("\nimport \"broken\";"));
+
+        assertEquals("[line 1] Errorat 'import': Imports must come before declarations.\n",
+            run("print 1; import \"d\";"));
+        assertEquals("[line 1] Errorat 'd': Expect module name after 'import'.\n",
+            run("import d;"));
+    }
+
+    public void testCachedUntilChanged()
+        throws IOException
+    {
+        Path path = module("value", "var value = 1;");
+        FileTime modified = FileTime.fromMillis(Files.getLastModifiedTime(path).toMillis() - 10000);
+        Files.setLastModifiedTime(path, modified);
+        assertEquals("1\n", run("import \"value\";\nprint value;"));
+
+        // the same time is taken as the same module, not read again
+        Files.write(path, "var value = 2;".getBytes());
+        Files.setLastModifiedTime(path, modified);
+        assertEquals("1\n", run("import \"value\";\nprint value;"));
+
+        Files.setLastModifiedTime(path, FileTime.fromMillis(modified.toMillis() + 5000));
+        assertEquals("2\n", run("import \"value\";\nprint value;"));
+    }
+
+    public void testPreparedScript()
+        throws IOException
+    {
+        module("scale", "var scale = 2;");
+        assertEquals(6.0, PreparedScript.compile("import \"scale\";\nn * scale;", "n").run(3).value);
+    }
+}
@@ -0,0 +1,147 @@
+package jlox;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.List;
+
+/**
+ * Cost of calling a Java static method from Lox through JavaFunction,
+ * against a native that calls it with Method.invoke.
+ *
+ * mvn test-compile
+ * java -cp target/classes:target/test-classes jlox.NativeBenchmark [calls]
+ *
+ * "call" times the calls alone from a Java loop, "script" a Lox program
+ * that is nothing but calls.
+ */
+public class NativeBenchmark
+{
+    public static double mix(double a, double b)
+    {
+        return a * 0.5 + b;
+    }
+
+    /** The baseline: a native that looks nothing up ahead of the call. */
+    static class ReflectiveFunction implements LoxCallable
+    {
+        private final Method method;
+
+        ReflectiveFunction(Method method)
+        {
+            this.method = method;
+        }
+
+        public int arity()
+        {
+            return method.getParameterCount();
+        }
+
+        public Object call(Token paren, List<Object> arguments)
+        {
+            Object[] values = arguments.toArray();
+            Class<?>[] types = method.getParameterTypes();
+            for (int i = 0; i < values.length; i++)
+                if (types[i] == double.class && !(values[i] instanceof Double))
+                    throw new RuntimeError(paren, "Argument " + (i + 1) + " must be a number.");
+            try {
+                return method.invoke(null, values);
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                throw new RuntimeError(paren, method.getName() + " failed: " + e);
+            }
+        }
+    }
+
+    static final Token PAREN = new Token(TokenType.RIGHT_PAREN, ")", null, 1);
+
+    static double direct(int calls)
+    {
+        double x = 0;
+        for (int i = 0; i < calls; i++)
+            x = mix(x, i);
+        return x;
+    }
+
+    static double handle(JavaFunction function, int calls)
+    {
+        Object x = 0.0;
+        for (int i = 0; i < calls; i++)
+            x = function.call(PAREN, x, (double)i);
+        return (double)x;
+    }
+
+    static double reflective(LoxCallable function, int calls)
+    {
+        Object x = 0.0;
+        for (int i = 0; i < calls; i++)
+            x = function.call(PAREN, List.of(x, (double)i));
+        return (double)x;
+    }
+
+    static String script(int calls)
+    {
+        StringBuilder sb = new StringBuilder("var x = 0;\n");
+        for (int i = 0; i < calls; i++)
+            sb.append("x = mix(x, ").append(i).append(");\n");
+        return sb.append("print x;\n").toString();
+    }
+
+    static long time(Runnable run, int rounds)
+    {
+        long best = Long.MAX_VALUE;
+        for (int r = 0; r < rounds; r++) {
+            long start = System.nanoTime();
+            run.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    public static void main(String[] args)
+        throws NoSuchMethodException
+    {
+        int calls = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        Method mix = NativeBenchmark.class.getMethod("mix", double.class, double.class);
+        JavaFunction function = JavaFunction.of("mix", mix);
+        ReflectiveFunction reflection = new ReflectiveFunction(mix);
+
+        double[] sink = new double[1];
+        Runnable[] loops = {
+            () -> sink[0] += direct(calls),
+            () -> sink[0] += handle(function, calls),
+            () -> sink[0] += reflective(reflection, calls),
+        };
+        String[] names = { "direct", "handle", "reflection" };
+        for (Runnable loop : loops)
+            time(loop, 10);
+        System.out.printf("call       %d calls, ns per call%n", calls);
+        for (int i = 0; i < loops.length; i++)
+            System.out.printf("%-10s %8.2f%n", names[i], (double)time(loops[i], 10) / calls);
+
+        int lines = Math.min(calls, 100000);
+        List<Stmt> statements = new Parser(new Scanner(script(lines)).scanTokens()).parse();
+        PrintStream nowhere = new PrintStream(OutputStream.nullOutputStream());
+        Interpreter handles = new Interpreter(nowhere);
+        handles.registerNative("mix", mix);
+        Interpreter[] interpreters = { handles, withReflection(reflection, nowhere) };
+        String[] engines = { "handle", "reflection" };
+        for (Interpreter interpreter : interpreters)
+            time(() -> interpreter.interpret(statements), 10);
+        System.out.printf("script     %d calls, ns per statement%n", lines);
+        for (int i = 0; i < interpreters.length; i++) {
+            Interpreter interpreter = interpreters[i];
+            System.out.printf("%-10s %8.2f%n", engines[i],
+                (double)time(() -> interpreter.interpret(statements), 10) / lines);
+        }
+        if (sink[0] == 42)
+            System.out.println();
+    }
+
+    static Interpreter withReflection(ReflectiveFunction reflection, PrintStream out)
+    {
+        Environment globals = new Environment();
+        globals.define("mix", reflection);
+        return new Interpreter(out, globals);
+    }
+}
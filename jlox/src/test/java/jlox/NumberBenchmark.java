@@ -0,0 +1,84 @@
+package jlox;
+
+import java.util.Random;
+
+/**
+ * Number literals through DoubleParser against substring and
+ * Double.parseDouble, alone and in a scan of a script made of them.
+ *
+ * mvn test-compile
+ * java -cp target/classes:target/test-classes jlox.NumberBenchmark [literals]
+ */
+public class NumberBenchmark
+{
+    static String corpus(int literals)
+    {
+        Random random = new Random(11);
+        StringBuilder sb = new StringBuilder("var data = array(").append(literals).append(");\n");
+        for (int i = 0; i < literals; i++) {
+            sb.append("data[").append(i).append("] = ");
+            switch (i % 4) {
+            case 0: sb.append(random.nextInt(100000)); break;
+            case 1: sb.append(random.nextInt(1000)).append('.').append(random.nextInt(100)); break;
+            case 2: sb.append(1 + random.nextDouble() * 1000); break;
+            default: sb.append(random.nextLong() >>> 1).append('.').append(random.nextInt(1000000)); break;
+            }
+            sb.append(";\n");
+        }
+        return sb.toString();
+    }
+
+    static long time(Runnable run, int rounds)
+    {
+        long best = Long.MAX_VALUE;
+        for (int r = 0; r < rounds; r++) {
+            long start = System.nanoTime();
+            run.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    public static void main(String[] args)
+    {
+        int literals = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        String source = corpus(literals);
+        // where every literal starts and ends
+        int[] starts = new int[3 * literals + 1];
+        int[] ends = new int[3 * literals + 1];
+        int n = 0;
+        for (int i = 0; i < source.length(); i++) {
+            char c = source.charAt(i);
+            if (c >= '0' && c <= '9' && !Character.isLetter(source.charAt(i - 1))) {
+                int end = i;
+                while (end < source.length() && (Character.isDigit(source.charAt(end)) || source.charAt(end) == '.'))
+                    end++;
+                starts[n] = i;
+                ends[n++] = end;
+                i = end;
+            }
+        }
+        int count = n;
+
+        double[] sink = new double[1];
+        Runnable parseDouble = () -> {
+            for (int i = 0; i < count; i++)
+                sink[0] += Double.parseDouble(source.substring(starts[i], ends[i]));
+        };
+        Runnable parser = () -> {
+            for (int i = 0; i < count; i++)
+                sink[0] += DoubleParser.parse(source, starts[i], ends[i]);
+        };
+        Runnable scan = () -> new Scanner(source).scanTokens();
+
+        time(parseDouble, 5);
+        time(parser, 5);
+        time(scan, 5);
+        System.out.printf("literals     %d%n", count);
+        System.out.printf("parseDouble  %.1f ns per literal%n", (double)time(parseDouble, 10) / count);
+        System.out.printf("DoubleParser %.1f ns per literal%n", (double)time(parser, 10) / count);
+        System.out.printf("scan         %.1f ms%n", time(scan, 10) / 1e6);
+        if (sink[0] == 42)
+            System.out.println();
+    }
+}
@@ -0,0 +1,26 @@
+package jlox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.function.Consumer;
+
+/**
+ * What the engine tests print: work runs with an error state of its own,
+ * given the stream its interpreters print to, which the syntax and runtime
+ * errors it reports go to as well.
+ */
+final class Output
+{
+    private Output()
+    {
+    }
+
+    /** Everything work and its errors printed, with \n line endings. */
+    static String of(Consumer<PrintStream> work)
+    {
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        PrintStream stream = new PrintStream(captured, true);
+        Lox.isolated(stream, () -> work.accept(stream));
+        return captured.toString().replace("\r", "");
+    }
+}
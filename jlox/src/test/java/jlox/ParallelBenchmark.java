@@ -0,0 +1,51 @@
+package jlox;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+/**
+ * Execute time of generated programs run one statement after another and
+ * with independent statements in parallel, with the parallelism found.
+ *
+ * mvn test-compile
+ * java -cp target/classes:target/test-classes jlox.ParallelBenchmark [statements]
+ */
+public class ParallelBenchmark
+{
+    static long time(List<Stmt> statements, StatementGraph graph)
+    {
+        PrintStream nowhere = new PrintStream(OutputStream.nullOutputStream());
+        long best = Long.MAX_VALUE;
+        for (int r = 0; r < 10; r++) {
+            SharedEnvironment globals = new SharedEnvironment();
+            LoxArray.defineNatives(globals);
+            Interpreter interpreter = new Interpreter(nowhere, globals);
+            long start = System.nanoTime();
+            if (graph == null)
+                interpreter.interpret(statements);
+            else
+                interpreter.interpretParallel(statements, graph);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    public static void main(String[] args)
+    {
+        int statements = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        System.out.printf("threads %d%n", Runtime.getRuntime().availableProcessors());
+        for (ProgramGenerator.Shape shape : List.of(
+                new ProgramGenerator.Shape("flat").statements(statements).depth(0),
+                new ProgramGenerator.Shape("long-expressions").statements(statements).expressionLength(32),
+                new ProgramGenerator.Shape("many-variables").statements(statements).variables(2000))) {
+            List<Stmt> program = new Parser(new Scanner(ProgramGenerator.generate(shape)).scanTokens()).parse();
+            StatementGraph graph = new StatementGraph(program);
+            time(program, null);
+            time(program, graph);
+            System.out.printf("%-17s %s%n", shape.name, graph.report());
+            System.out.printf("%-17s sequential %.2f ms, parallel %.2f ms%n", "",
+                time(program, null) / 1e6, time(program, graph) / 1e6);
+        }
+    }
+}
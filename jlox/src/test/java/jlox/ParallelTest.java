@@ -0,0 +1,119 @@
+package jlox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Top-level statements ordered by the variables they share, and run in
+ * parallel with the output and errors of running them one after another.
+ */
+public class ParallelTest extends TestCase
+{
+    protected void tearDown()
+    {
+        Lox.parallel = false;
+        Lox.maxDepth = 0;
+        Lox.profiling = false;
+    }
+
+    private static StatementGraph graph(String source)
+    {
+        return new StatementGraph(new Parser(new Scanner(source).scanTokens()).parse());
+    }
+
+    private static String after(StatementGraph graph, int statement)
+    {
+        int[] after = graph.after(statement).clone();
+        Arrays.sort(after);
+        return Arrays.toString(after);
+    }
+
+    private static String run(String source, boolean parallel)
+    {
+        Lox.parallel = parallel;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream stream = new PrintStream(output, true);
+        int code = Lox.runIsolated(source, stream, stream);
+        return code + "\n" + output.toString().replace("\r", "");
+    }
+
+    public void testGraph()
+    {
+        StatementGraph graph = graph(
+            "var a = 1; var b = 2; var c = a + b; print c; a = 5; { var d = b; print d; }\n"
+            + "var e = array(2); e[0] = a; print e[0]; print b;");
+        assertEquals("[]", after(graph, 0));
+        assertEquals("[]", after(graph, 1));
+        assertEquals("[0, 1]", after(graph, 2));
+        assertEquals("[2]", after(graph, 3));
+        // a was read by 2
+        assertEquals("[0, 2]", after(graph, 4));
+        assertEquals("[1]", after(graph, 5));
+        // the call waits for everything
+        assertTrue(graph.barrier(6));
+        assertEquals("[0, 1, 2, 3, 4, 5]", after(graph, 6));
+        // and is waited for in place of what it waited for
+        assertEquals("[6]", after(graph, 7));
+        assertEquals("[6, 7]", after(graph, 8));
+        assertEquals("[6]", after(graph, 9));
+        assertEquals(10, graph.size);
+        assertEquals(6, graph.steps);
+        assertEquals(1, graph.barriers);
+        // too small to split but around the barrier
+        assertEquals(3, graph.tasks);
+        assertEquals(6, graph.start(1));
+        assertEquals(7, graph.start(2));
+        assertEquals("[1]", Arrays.toString(graph.taskAfter(2)));
+        assertEquals("Found 10 statements in 6 steps with 1 barriers, average parallelism 1.7,"
+            + " run as 3 tasks in 3 steps.", graph.report());
+    }
+
+    public void testSameAsSequential()
+    {
+        List<String> sources = List.of(
+            "var a = 1; var b = 2; var c = a + b; print c; a = 5; { var d = b; print d; }\n"
+                + "var e = array(2); e[0] = a; print e[0]; print b;",
+            "var x = 1; print x; x = x + 1; print x; if (x > 1) print \"big\"; else x = 0; print x;",
+            ProgramGenerator.generate(new ProgramGenerator.Shape("flat").statements(2000).depth(0)),
+            ProgramGenerator.generate(new ProgramGenerator.Shape("nested").statements(500).depth(4)),
+            ProgramGenerator.generate(new ProgramGenerator.Shape("strings").statements(1000).strings(0.8)));
+        for (String source : sources)
+            assertEquals(run(source, false), run(source, true));
+    }
+
+    public void testErrorsInProgramOrder()
+    {
+        String source = "print 1; var x = y; print 2; var z = x; print 3;";
+        assertEquals("70\n1\nUndefined variable'y'.\n[line 1]\n", run(source, true));
+        assertEquals(run(source, false), run(source, true));
+
+        source = "var a = 1; { print a; print nope; } print a; a = 2; print a;";
+        assertEquals("70\n1\nUndefined variable'nope'.\n[line 1]\n", run(source, true));
+        assertEquals(run(source, false), run(source, true));
+
+        source = "var a = array(1); print a[0]; print a[3]; print \"after\";";
+        assertEquals(run(source, false), run(source, true));
+
+        // in the middle of a task of many
+        String many = ProgramGenerator.generate(new ProgramGenerator.Shape("flat").statements(2000).depth(0));
+        source = many + "print \"last\"; print nope; print \"not\";" + many;
+        assertTrue(graph(source).tasks > 2);
+        assertEquals(run(source, false), run(source, true));
+    }
+
+    public void testConflictingFlags()
+    {
+        Lox.parallel = true;
+        assertNull(Lox.conflict());
+        Lox.maxDepth = Integer.MAX_VALUE;
+        assertEquals("--parallel cannot be combined with --iterative or --max-depth.", Lox.conflict());
+        Lox.maxDepth = 0;
+        Lox.profiling = true;
+        assertEquals("--parallel cannot be combined with --profile, its workers record nothing.",
+            Lox.conflict());
+    }
+}
@@ -0,0 +1,36 @@
+package jlox;
+
+import java.util.List;
+
+/**
+ * Parse time and allocation of an expression dense program, scanned once
+ * and parsed many times.
+ *
+ * mvn test-compile
+ * java -cp target/classes:target/test-classes jlox.ParserBenchmark [statements]
+ */
+public class ParserBenchmark
+{
+    public static void main(String[] args)
+    {
+        int statements = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        String source = ProgramGenerator.generate(new ProgramGenerator.Shape("dense")
+            .statements(statements).expressionLength(16).depth(2));
+        List<Token> tokens = new Scanner(source).scanTokens();
+
+        for (int r = 0; r < 20; r++)
+            new Parser(tokens).parse();
+        long best = Long.MAX_VALUE;
+        long allocated = Long.MAX_VALUE;
+        for (int r = 0; r < 20; r++) {
+            long a = MacroBenchmark.allocatedBytes();
+            long start = System.nanoTime();
+            new Parser(tokens).parse();
+            best = Math.min(best, System.nanoTime() - start);
+            allocated = Math.min(allocated, MacroBenchmark.allocatedBytes() - a);
+        }
+        System.out.printf("tokens  %d%n", tokens.size());
+        System.out.printf("parse   %.2f ms%n", best / 1e6);
+        System.out.printf("alloc   %.2f MiB%n", allocated / 1048576.0);
+    }
+}
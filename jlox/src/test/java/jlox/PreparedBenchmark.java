@@ -0,0 +1,72 @@
+package jlox;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Per call cost of a snippet through Lox.runIsolated, which scans and
+ * parses every time, against a PreparedScript.
+ *
+ * mvn test-compile
+ * java -cp target/classes:target/test-classes jlox.PreparedBenchmark [calls]
+ */
+public class PreparedBenchmark
+{
+    static final String SNIPPET =
+        "var total = price * quantity;\n"
+        + "if (total > 1000) {\n"
+        + "  var discount = total * 0.05;\n"
+        + "  if (member) discount = discount * 2;\n"
+        + "  total = total - discount;\n"
+        + "}\n"
+        + "var tax = total * 0.2;\n"
+        + "print total + tax;\n"
+        + "total + tax;\n";
+
+    static long time(Runnable run, int rounds)
+    {
+        long best = Long.MAX_VALUE;
+        for (int r = 0; r < rounds; r++) {
+            long start = System.nanoTime();
+            run.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    public static void main(String[] args)
+    {
+        int calls = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        PrintStream nowhere = new PrintStream(OutputStream.nullOutputStream());
+        PreparedScript script = PreparedScript.compile(SNIPPET, "price", "quantity", "member");
+        PreparedScript empty = PreparedScript.compile("", "price", "quantity", "member");
+        double[] sink = new double[1];
+
+        Runnable isolated = () -> {
+            for (int i = 0; i < calls; i++) {
+                String source = "var price = " + (i % 1000) + ";\nvar quantity = " + (i % 7)
+                    + ";\nvar member = " + (i % 2 == 0) + ";\n" + SNIPPET;
+                Lox.runIsolated(source, nowhere, nowhere);
+            }
+        };
+        Runnable prepared = () -> {
+            for (int i = 0; i < calls; i++)
+                sink[0] += (double)script.run((double)(i % 1000), (double)(i % 7), i % 2 == 0).value;
+        };
+        // what a call costs besides running the script
+        Runnable overhead = () -> {
+            for (int i = 0; i < calls; i++)
+                empty.run((double)(i % 1000), (double)(i % 7), i % 2 == 0);
+        };
+
+        time(isolated, 3);
+        time(prepared, 3);
+        time(overhead, 3);
+        System.out.printf("calls     %d%n", calls);
+        System.out.printf("isolated  %.2f us per call%n", time(isolated, 5) / 1e3 / calls);
+        System.out.printf("prepared  %.2f us per call%n", time(prepared, 5) / 1e3 / calls);
+        System.out.printf("overhead  %.2f us per call%n", time(overhead, 5) / 1e3 / calls);
+        if (sink[0] == 42)
+            System.out.println();
+    }
+}
@@ -0,0 +1,113 @@
+package jlox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Scripts compiled once and run with different arguments, on their own and
+ * from several threads.
+ */
+public class PreparedScriptTest extends TestCase
+{
+    public void testRun()
+    {
+        PreparedScript script = PreparedScript.compile("print a + b; a * b;", "a", "b");
+        PreparedScript.Result result = script.run(2, 3);
+        assertEquals("5\n", result.output);
+        assertEquals(6.0, result.value);
+
+        Map<String, Object> arguments = new HashMap<>();
+        arguments.put("a", 4);
+        arguments.put("b", 0.5);
+        result = script.run(arguments);
+        assertEquals("4.5\n", result.output);
+        assertEquals(2.0, result.value);
+        assertEquals("xy\n", PreparedScript.compile("print a + b;", "a", "b").run("x", "y").output);
+        assertNull(PreparedScript.compile("var c = 1;").run().value);
+        assertEquals(true, PreparedScript.compile("print sum(fill(array(2), n)); n > 1;", "n").run(2.5).value);
+    }
+
+    public void testRunsDoNotShareGlobals()
+    {
+        PreparedScript script = PreparedScript.compile(
+            "var seen = n; array = 1; print array; n + 1;", "n");
+        assertEquals("1\n", script.run(1).output);
+        // array is the native again and seen is gone
+        PreparedScript probe = PreparedScript.compile("print array; print seen;");
+        try {
+            probe.run();
+            fail();
+        } catch (RuntimeError expected) {
+            assertEquals("Undefined variable'seen'.", expected.getMessage());
+        }
+        assertEquals(3.0, script.run(2).value);
+    }
+
+    public void testErrors()
+    {
+        try {
+            PreparedScript.compile("print 1 +;");
+            fail();
+        } catch (IllegalArgumentException expected) {
+            assertEquals("[line 1] Errorat ';': Expect expression.", expected.getMessage());
+        }
+        try {
+            PreparedScript.compile("print a;", "a", "a");
+            fail();
+        } catch (IllegalArgumentException expected) {
+            assertEquals("duplicate parameter a", expected.getMessage());
+        }
+        PreparedScript script = PreparedScript.compile("print -a;", "a");
+        try {
+            script.run("s");
+            fail();
+        } catch (RuntimeError expected) {
+            assertEquals("Operand must be a number.", expected.getMessage());
+        }
+        try {
+            script.run(new HashMap<String, Object>());
+            fail();
+        } catch (IllegalArgumentException expected) {
+            assertEquals("missing argument a", expected.getMessage());
+        }
+        try {
+            script.run(Map.of("a", 1, "b", 2));
+            fail();
+        } catch (IllegalArgumentException expected) {
+            assertEquals("unknown parameter b", expected.getMessage());
+        }
+    }
+
+    public void testThreads()
+        throws InterruptedException
+    {
+        PreparedScript script = PreparedScript.compile(
+            "var total = 0; { var x = n * n; total = total + x; } if (total > 50) print \"big\"; total;", "n");
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> failures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(new Thread(() -> {
+                try {
+                    for (int n = 0; n < 5000; n++) {
+                        PreparedScript.Result result = script.run(n % 10);
+                        assertEquals((double)(n % 10) * (n % 10), result.value);
+                        assertEquals(n % 10 > 7 ? "big\n" : "", result.output);
+                    }
+                } catch (Throwable e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads)
+            thread.start();
+        for (Thread thread : threads)
+            thread.join();
+        assertEquals(new ArrayList<Throwable>(), failures);
+    }
+}
@@ -0,0 +1,120 @@
+package jlox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Profiles recorded by one run and saved next to the script, speculated on
+ * by the next ones without recording, and dropped once the script changes
+ * or a speculation misses.
+ */
+public class ProfileTest extends TestCase
+{
+    private Path directory;
+    private Path sidecar;
+
+    protected void setUp()
+        throws IOException
+    {
+        directory = Files.createTempDirectory("lox-profile");
+        sidecar = directory.resolve("script.lox.profile");
+    }
+
+    protected void tearDown()
+        throws IOException
+    {
+        Lox.profiling = false;
+        Files.deleteIfExists(sidecar);
+        Files.deleteIfExists(directory.resolve("script.lox"));
+        Files.delete(directory);
+    }
+
+    /**
+     * Runs source with x bound to value as Lox.run does: speculating on the
+     * profile in sidecar, or recording one there when it has none.
+     */
+    private String run(String source, Object x, int speculated)
+        throws IOException
+    {
+        List<Token> tokens = new Scanner(source).scanTokens();
+        Profile profile = Profile.load(sidecar, source, tokens);
+        List<Stmt> statements = profile.specialize(new Parser(tokens).parse());
+        assertEquals(speculated, profile.speculated);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Environment globals = new Environment();
+        globals.define("x", x);
+        Interpreter interpreter = new Interpreter(new PrintStream(output, true), globals);
+        interpreter.profile = profile.loaded ? null : profile;
+        try {
+            interpreter.run(statements);
+        } catch (RuntimeError error) {
+            output.write((error.getMessage() + "\n").getBytes());
+        }
+        if (!profile.loaded)
+            profile.save(sidecar);
+        else if (interpreter.missed > 0)
+            Files.delete(sidecar);
+        return output.toString().replace("\r", "");
+    }
+
+    public void testSpeculatesWhatWasSeen()
+        throws IOException
+    {
+        String source = "var s = \"a\";\nprint x + 2; print s + \"b\"; print x < 3;\n"
+            + "print -x; print x == 1; print !x;\n"
+            + "if (x > 0) print \"positive\"; else print \"negative\";\n";
+        String expected = "3\nab\ntrue\n-1\ntrue\nfalse\npositive\n";
+        assertEquals(expected, run(source, 1.0, 0));
+        // +, +, <, -, > and not == or !
+        List<String> lines = Files.readAllLines(sidecar);
+        assertTrue(lines.get(0).startsWith("jlox profile "));
+        assertTrue(lines.contains("operands 2:2 1"));
+        assertTrue(lines.contains("operands 2:7 2"));
+        assertFalse(lines.stream().anyMatch(line -> line.startsWith("branch ")));
+        // speculating records nothing
+        assertEquals(expected, run(source, 1.0, 5));
+        assertEquals(lines, Files.readAllLines(sidecar));
+
+        // the speculated operations fall back to the checked ones, and the
+        // profile is dropped
+        assertEquals("nil\nab\nOperands must be numbers.\n", run(source, null, 5));
+        assertFalse(Files.exists(sidecar));
+        // so the next run records again, and the one after it does not
+        // speculate on what missed, or on - and > which did not run
+        assertEquals("nil\nab\nOperands must be numbers.\n", run(source, null, 0));
+        assertEquals("nil\nab\nOperands must be numbers.\n", run(source, null, 1));
+    }
+
+    public void testChangedSourceStartsOver()
+        throws IOException
+    {
+        assertEquals("3\n", run("print x + 2;", 1.0, 0));
+        assertEquals("3\n", run("print x + 2;", 1.0, 1));
+        assertEquals("3\n", run("print x  + 2;", 1.0, 0));
+        assertEquals("3\n", run("print x  + 2;", 1.0, 1));
+    }
+
+    public void testRunFile()
+        throws IOException
+    {
+        Path script = directory.resolve("script.lox");
+        Files.write(script, "var a = 1; if (a < 2) a = a + 1;".getBytes());
+        Lox.profiling = true;
+        Lox.runFile(script.toString());
+        List<String> lines = Files.readAllLines(sidecar);
+        assertEquals(List.of("operands 1:8 1", "operands 1:14 1"),
+            lines.subList(1, lines.size()));
+        Files.setLastModifiedTime(sidecar, FileTime.fromMillis(0));
+        Lox.runFile(script.toString());
+        assertEquals(FileTime.fromMillis(0), Files.getLastModifiedTime(sidecar));
+        assertEquals(lines, Files.readAllLines(sidecar));
+    }
+}
@@ -0,0 +1,244 @@
+package jlox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates runtime-error free Lox programs of a configurable size and shape,
+ * following the grammar at the top of Parser.java.
+ */
+public class ProgramGenerator
+{
+    /** Shape of a generated program. */
+    public static class Shape
+    {
+        final String name;
+        /** top level statements */
+        int statements = 1000;
+        /** maximum block / if nesting */
+        int depth = 3;
+        /** binary operators per expression */
+        int expressionLength = 4;
+        /** global variables declared up front */
+        int variables = 16;
+        /** fraction of variables and prints that are strings, 0..1 */
+        double strings = 0.2;
+        /** chance that a parenthesized operand repeats a recent one, 0..1 */
+        double repeats = 0;
+        long seed = 1;
+
+        public Shape(String name)
+        {
+            this.name = name;
+        }
+
+        Shape statements(int n) { statements = n; return this; }
+        Shape depth(int n) { depth = n; return this; }
+        Shape expressionLength(int n) { expressionLength = n; return this; }
+        Shape variables(int n) { variables = n; return this; }
+        Shape strings(double f) { strings = f; return this; }
+        Shape repeats(double f) { repeats = f; return this; }
+        Shape seed(long s) { seed = s; return this; }
+
+        public String toString()
+        {
+            return name + " statements=" + statements + " depth=" + depth
+                + " expressionLength=" + expressionLength
+                + " variables=" + variables + " strings=" + strings
+                + (repeats > 0 ? " repeats=" + repeats : "");
+        }
+    }
+
+    private static final String[] NUMERIC = { "+", "-", "*", "/" };
+    private static final String[] COMPARISON = { ">", ">=", "<", "<=", "==", "!=" };
+
+    private final Shape shape;
+    private final Random random;
+    private final StringBuilder out = new StringBuilder();
+    // visible numeric and string variables, innermost scope last
+    private final List<String> numbers = new ArrayList<>();
+    private final List<String> strings = new ArrayList<>();
+    // parenthesized operands of the enclosing blocks, for repeats
+    private final List<String> groups = new ArrayList<>();
+    private int locals = 0;
+
+    public ProgramGenerator(Shape shape)
+    {
+        this.shape = shape;
+        this.random = new Random(shape.seed);
+    }
+
+    public static String generate(Shape shape)
+    {
+        return new ProgramGenerator(shape).program();
+    }
+
+    String program()
+    {
+        for (int i = 0; i < shape.variables; i++) {
+            if (i > 0 && random.nextDouble() < shape.strings)
+                declare(0, "s" + i, true);
+            else
+                declare(0, "n" + i, false);
+        }
+        for (int i = 0; i < shape.statements; i++)
+            statement(0, 0);
+        return out.toString();
+    }
+
+    private void indent(int level)
+    {
+        for (int i = 0; i < level; i++)
+            out.append('\t');
+    }
+
+    private void declare(int level, String name, boolean string)
+    {
+        indent(level);
+        out.append("var ").append(name).append(" = ")
+            .append(string ? stringExpression(false) : numberExpression())
+            .append(";\n");
+        (string ? strings : numbers).add(name);
+    }
+
+    private void print(int level)
+    {
+        indent(level);
+        if (!strings.isEmpty() && random.nextDouble() < shape.strings)
+            out.append("print ").append(stringExpression(true)).append(";\n");
+        else
+            out.append("print ").append(numberExpression()).append(";\n");
+    }
+
+    private void statement(int level, int depth)
+    {
+        int choice = random.nextInt(depth < shape.depth ? 10 : 7);
+        switch (choice) {
+            case 0:
+            case 1:
+            case 2:
+                indent(level);
+                out.append(pick(numbers)).append(" = ").append(numberExpression()).append(";\n");
+                break;
+            case 3:
+                if (!strings.isEmpty() && random.nextDouble() < shape.strings) {
+                    indent(level);
+                    out.append(pick(strings)).append(" = ").append(stringExpression(false)).append(";\n");
+                } else {
+                    print(level);
+                }
+                break;
+            case 4:
+                print(level);
+                break;
+            case 5:
+            case 6:
+                if (depth > 0) {
+                    declare(level, "l" + locals++, !strings.isEmpty() && random.nextDouble() < shape.strings);
+                    break;
+                }
+                indent(level);
+                out.append(pick(numbers)).append(" = ").append(numberExpression()).append(";\n");
+                break;
+            case 7:
+            case 8:
+                indent(level);
+                out.append("if (").append(condition()).append(")\n");
+                block(level, depth + 1);
+                if (random.nextBoolean()) {
+                    indent(level);
+                    out.append("else\n");
+                    block(level, depth + 1);
+                }
+                break;
+            default:
+                block(level, depth + 1);
+        }
+    }
+
+    private void block(int level, int depth)
+    {
+        int numberMark = numbers.size();
+        int stringMark = strings.size();
+        int groupMark = groups.size();
+        indent(level);
+        out.append("{\n");
+        int n = 1 + random.nextInt(4);
+        for (int i = 0; i < n; i++)
+            statement(level + 1, depth);
+        indent(level);
+        out.append("}\n");
+        truncate(numbers, numberMark);
+        truncate(strings, stringMark);
+        truncate(groups, groupMark);
+    }
+
+    private static void truncate(List<String> names, int size)
+    {
+        while (names.size() > size)
+            names.remove(names.size() - 1);
+    }
+
+    private String condition()
+    {
+        return numberExpression() + " " + COMPARISON[random.nextInt(COMPARISON.length)]
+            + " " + numberExpression();
+    }
+
+    private String numberExpression()
+    {
+        StringBuilder sb = new StringBuilder(numberOperand());
+        for (int i = 0; i < shape.expressionLength; i++) {
+            sb.append(' ').append(NUMERIC[random.nextInt(NUMERIC.length)]).append(' ');
+            if (random.nextInt(4) == 0)
+                sb.append(group());
+            else
+                sb.append(numberOperand());
+        }
+        return sb.toString();
+    }
+
+    private String group()
+    {
+        if (shape.repeats > 0 && !groups.isEmpty() && random.nextDouble() < shape.repeats)
+            return groups.get(groups.size() - 1 - random.nextInt(Math.min(8, groups.size())));
+        String group = "(" + numberOperand() + " + " + numberOperand() + ")";
+        if (shape.repeats > 0) {
+            String product = numberOperand();
+            group = "(" + product + " * " + group.substring(1);
+            groups.add(group);
+        }
+        return group;
+    }
+
+    private String numberOperand()
+    {
+        if (!numbers.isEmpty() && random.nextBoolean())
+            return (random.nextInt(8) == 0 ? "-" : "") + pick(numbers);
+        return random.nextInt(1000) + (random.nextBoolean() ? "." + random.nextInt(100) : "");
+    }
+
+    // strings stored back into variables only concatenate literals, so that
+    // they cannot keep growing across assignments
+    private String stringExpression(boolean variables)
+    {
+        StringBuilder sb = new StringBuilder(stringOperand(variables));
+        int n = Math.max(1, shape.expressionLength / 2);
+        for (int i = 0; i < n; i++)
+            sb.append(" + ").append(stringOperand(variables));
+        return sb.toString();
+    }
+
+    private String stringOperand(boolean variables)
+    {
+        if (variables && !strings.isEmpty() && random.nextInt(3) == 0)
+            return pick(strings);
+        return "\"str" + random.nextInt(1000) + "\"";
+    }
+
+    private String pick(List<String> names)
+    {
+        return names.get(random.nextInt(names.size()));
+    }
+}
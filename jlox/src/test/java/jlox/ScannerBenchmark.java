@@ -0,0 +1,62 @@
+package jlox;
+
+import java.util.Random;
+
+/**
+ * Compares the scalar scanner against the SWAR fast paths.
+ *
+ * mvn test-compile
+ * java -cp target/classes:target/test-classes jlox.ScannerBenchmark [kilobytes]
+ */
+public class ScannerBenchmark
+{
+    static String corpus(int kilobytes)
+    {
+        Random random = new Random(7);
+        StringBuilder sb = new StringBuilder();
+        int n = 0;
+        while (sb.length() < kilobytes * 1024) {
+            sb.append("// configuration section number ").append(n).append('\n');
+            sb.append("{\n");
+            sb.append("\t\tvar configuration_value_").append(n).append(" = ")
+                .append(random.nextInt(1000000)).append('.')
+                .append(random.nextInt(1000)).append(";\n");
+            sb.append("\t\tprint \"section ").append(n)
+                .append(" has been configured successfully\";\n");
+            sb.append("\t\tif (configuration_value_").append(n).append(" > 500000)\n");
+            sb.append("\t\t\t\tprint configuration_value_").append(n)
+                .append(" * 2 - 1;\n");
+            sb.append("}\n\n");
+            n++;
+        }
+        return sb.toString();
+    }
+
+    static long time(String source, boolean fastPath, int rounds)
+    {
+        long best = Long.MAX_VALUE;
+        for (int r = 0; r < rounds; r++) {
+            long start = System.nanoTime();
+            new Scanner(source, fastPath).scanTokens();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    public static void main(String[] args)
+    {
+        int kilobytes = args.length > 0 ? Integer.parseInt(args[0]) : 4096;
+        String source = corpus(kilobytes);
+
+        // warm up both paths before measuring
+        time(source, false, 5);
+        time(source, true, 5);
+
+        long scalar = time(source, false, 10);
+        long fast = time(source, true, 10);
+        System.out.printf("corpus  %d KiB%n", source.length() / 1024);
+        System.out.printf("scalar  %.1f ms%n", scalar / 1e6);
+        System.out.printf("swar    %.1f ms%n", fast / 1e6);
+        System.out.printf("speedup %.2fx%n", (double)scalar / fast);
+    }
+}
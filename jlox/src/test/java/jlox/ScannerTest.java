@@ -0,0 +1,61 @@
+package jlox;
+
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * The SWAR fast paths must produce exactly the tokens and errors of the
+ * scalar scanner.
+ */
+public class ScannerTest extends TestCase
+{
+    private static String dump(List<Token> tokens)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (Token token : tokens)
+            sb.append(token.line).append(' ').append(token).append('\n');
+        return sb.toString();
+    }
+
+    // the tokens and the errors of scanning source
+    private static String scan(String source, boolean fast)
+    {
+        String[] tokens = new String[1];
+        String errors = Output.of(out -> tokens[0] = dump(new Scanner(source, fast).scanTokens()));
+        return tokens[0] + errors;
+    }
+
+    private static void assertSameTokens(String source)
+    {
+        assertEquals(source, scan(source, false), scan(source, true));
+    }
+
+    public void testSamples()
+    {
+        assertSameTokens("");
+        assertSameTokens("var answer = 42;\nprint answer;");
+        assertSameTokens("   \t\r  \n\t\t\tprint 1.5 + 2.25;");
+        assertSameTokens("// a comment that is longer than a word\nprint \"x\";");
+        assertSameTokens("// comment at end of file");
+        assertSameTokens("print \"a string\nspanning\nthree lines\";");
+        assertSameTokens("print \"unterminated");
+        assertSameTokens("var a_very_long_identifier_name_123 = 12345678901234567890.5;");
+        assertSameTokens("1234567.x 12.;");
+        assertSameTokens("print \"caf\u00e9\"; // non ascii falls back");
+    }
+
+    public void testRandomSources()
+    {
+        String alphabet = "  \t\r\n\"//abcXYZ_09.;(){}=+-*!<>";
+        Random random = new Random(42);
+        for (int n = 0; n < 2000; n++) {
+            int length = random.nextInt(64);
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < length; i++)
+                sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            assertSameTokens(sb.toString());
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package jlox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Interpreters on several threads sharing one SharedEnvironment.
+ */
+public class SharedEnvironmentTest extends TestCase
+{
+    static final int THREADS = 8;
+
+    private static List<Stmt> parse(String source)
+    {
+        return new Parser(new Scanner(source).scanTokens()).parse();
+    }
+
+    // runs one script per thread on globals and returns their outputs
+    private static String[] runConcurrently(Environment globals, String[] scripts)
+        throws InterruptedException
+    {
+        String[] outputs = new String[scripts.length];
+        Thread[] threads = new Thread[scripts.length];
+        for (int t = 0; t < scripts.length; t++) {
+            int index = t;
+            List<Stmt> statements = parse(scripts[t]);
+            threads[t] = new Thread(() -> {
+                ByteArrayOutputStream captured = new ByteArrayOutputStream();
+                new Interpreter(new PrintStream(captured, true), globals).interpret(statements);
+                outputs[index] = captured.toString();
+            });
+        }
+        for (Thread thread : threads)
+            thread.start();
+        for (Thread thread : threads)
+            thread.join();
+        return outputs;
+    }
+
+    public void testNil()
+    {
+        SharedEnvironment globals = new SharedEnvironment();
+        globals.define("a", null);
+        assertNull(globals.get("a", 1));
+        globals.assign("a", 1, "x");
+        assertEquals("x", globals.get("a", 1));
+        globals.assign("a", 1, null);
+        assertNull(globals.get("a", 1));
+        try {
+            globals.assign("b", 1, 1.0);
+            fail();
+        } catch (RuntimeError expected) {
+            assertEquals("Undefined variable 'b'.", expected.getMessage());
+        }
+    }
+
+    public void testCopy()
+    {
+        SharedEnvironment globals = new SharedEnvironment();
+        globals.define("a", null);
+        globals.define("b", 1.0);
+        Environment copy = globals.copy();
+        assertTrue(copy instanceof SharedEnvironment);
+        globals.define("c", 2.0);
+        globals.assign("b", 1, 3.0);
+        copy.assign("a", 1, "x");
+        assertEquals("x", copy.get("a", 1));
+        assertEquals(1.0, copy.get("b", 1));
+        assertSame(Environment.UNDEFINED, copy.lookup("c"));
+        assertNull(globals.get("a", 1));
+    }
+
+    public void testConcurrentDefinesAndAssigns()
+        throws InterruptedException
+    {
+        Environment globals = new SharedEnvironment();
+        globals.define("config", "on");
+        String[] scripts = new String[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 500; i++) {
+                sb.append("var t").append(t).append("v").append(i).append(" = ").append(i).append(";\n");
+                sb.append("t").append(t).append("v").append(i).append(" = ")
+                    .append("t").append(t).append("v").append(i).append(" + 1;\n");
+                sb.append("{ var local = config + \"\"; if (local != \"on\") print \"lost\"; }\n");
+            }
+            scripts[t] = sb.toString();
+        }
+
+        for (String output : runConcurrently(globals, scripts))
+            assertEquals("", output);
+        for (int t = 0; t < THREADS; t++)
+            for (int i = 0; i < 500; i++)
+                assertEquals((double)i + 1, globals.get("t" + t + "v" + i, 0));
+    }
+
+    public void testRetypedGlobal()
+    {
+        Lox.sharedGlobals = new SharedEnvironment();
+        LoxArray.defineNatives(Lox.sharedGlobals);
+        Lox.types = true;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream stream = new PrintStream(output, true);
+        // another script retypes a between two statements of this one
+        Lox.sharedGlobals.define("other", new LoxCallable() {
+            public int arity()
+            {
+                return 0;
+            }
+
+            public Object call(Token paren, List<Object> arguments)
+            {
+                return (double)Lox.runIsolated("a = \"s\";", stream, stream);
+            }
+        });
+        try {
+            int code = Lox.runIsolated("var a = 1;\nprint -a;\nother();\nprint -a;", stream, stream);
+            assertEquals("-1\nOperand must be a number.\n[line 4]\n", output.toString().replace("\r", ""));
+            assertEquals(70, code);
+        } finally {
+            Lox.sharedGlobals = null;
+            Lox.types = false;
+        }
+    }
+
+    public void testBlocksStayPrivate()
+        throws InterruptedException
+    {
+        Environment globals = new SharedEnvironment();
+        globals.define("shared", 0.0);
+        String[] scripts = new String[THREADS];
+        for (int t = 0; t < THREADS; t++)
+            scripts[t] = "{ var mine = " + t + "; shared = shared; print mine; }";
+
+        String[] outputs = runConcurrently(globals, scripts);
+        for (int t = 0; t < THREADS; t++)
+            assertEquals(t + "\n", outputs[t].replace("\r", ""));
+        assertSame(Environment.UNDEFINED, globals.lookup("mine"));
+    }
+}
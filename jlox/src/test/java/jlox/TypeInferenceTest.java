@@ -0,0 +1,83 @@
+package jlox;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Operations evaluated unchecked must give the same output and the same
+ * runtime errors as checked ones.
+ */
+public class TypeInferenceTest extends TestCase
+{
+    private int proven;
+
+    // output and errors of running source, after type inference when types
+    // is set
+    private String run(String source, boolean types, boolean iterative)
+    {
+        return Output.of(out -> {
+            List<Token> tokens = new Scanner(source).scanTokens();
+            List<Stmt> statements = new Parser(tokens).parse();
+            if (types) {
+                TypeInference inference = new TypeInference();
+                statements = inference.infer(statements);
+                proven = inference.proven;
+            }
+            if (Lox.hadError())
+                return;
+            if (iterative)
+                new Interpreter(out).interpretIterative(statements, Integer.MAX_VALUE);
+            else
+                new Interpreter(out).interpret(statements);
+        });
+    }
+
+    private void assertUnchanged(String source, int expectProven)
+    {
+        String expected = run(source, false, false);
+        assertEquals(expected, run(source, true, false));
+        assertEquals(expectProven, proven);
+        assertEquals(expected, run(source, true, true));
+    }
+
+    public void testProvenOperations()
+    {
+        assertUnchanged("var a = 1; var b = 2;\nprint a * b + -a;\nprint a < b;", 4);
+        assertUnchanged("var s = \"a\";\nprint s + \"b\" + s;", 2);
+        assertUnchanged("var a = 1;\n{ var a = \"x\"; print a + a; }\nprint a + a;", 2);
+    }
+
+    public void testErrorsKeepTheirChecks()
+    {
+        assertUnchanged("var a = 1;\na = \"s\";\nprint a - 1;", 0);
+        assertUnchanged("var a = 1;\nif (a > 0) a = \"x\";\nprint a - 1;", 1);
+        assertUnchanged("var a = 1;\nif (a > 5) a = 2; else a = nil;\nprint a * 2;", 1);
+        assertUnchanged("var a = 1;\nprint a + \"s\";\nprint (a + \"s\") + 1;", 0);
+        assertUnchanged("print -u;", 0);
+    }
+
+    public void testAfterCommonSubexpressions()
+    {
+        String source = "var a = 1; var b = 2;\nprint (a * b + 1) - (a * b + 1);";
+        List<Stmt> statements = new ValueNumbering().rewrite(
+            new Parser(new Scanner(source).scanTokens()).parse());
+        TypeInference inference = new TypeInference();
+        inference.infer(statements);
+        assertEquals(3, inference.proven);
+    }
+
+    public void testGeneratedPrograms()
+    {
+        int total = 0;
+        for (int seed = 1; seed <= 20; seed++) {
+            String source = ProgramGenerator.generate(new ProgramGenerator.Shape("test")
+                .statements(200).depth(4).expressionLength(6).seed(seed));
+            String expected = run(source, false, false);
+            assertEquals(expected, run(source, true, false));
+            total += proven;
+            assertEquals(expected, run(source, true, true));
+        }
+        assertTrue(total > 0);
+    }
+}
@@ -0,0 +1,77 @@
+package jlox;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Sharing repeated subexpressions must not change output, evaluation order
+ * or runtime errors.
+ */
+public class ValueNumberingTest extends TestCase
+{
+    private int eliminated;
+
+    // output and errors of running source, with the common subexpressions
+    // shared when cse is set
+    private String run(String source, boolean cse, boolean iterative)
+    {
+        return Output.of(out -> {
+            List<Token> tokens = new Scanner(source).scanTokens();
+            List<Stmt> statements = new Parser(tokens).parse();
+            if (cse) {
+                ValueNumbering numbering = new ValueNumbering();
+                statements = numbering.rewrite(statements);
+                eliminated = numbering.eliminated;
+            }
+            if (Lox.hadError())
+                return;
+            if (iterative)
+                new Interpreter(out).interpretIterative(statements, Integer.MAX_VALUE);
+            else
+                new Interpreter(out).interpret(statements);
+        });
+    }
+
+    private void assertUnchanged(String source, int expectEliminated)
+    {
+        String expected = run(source, false, false);
+        assertEquals(expected, run(source, true, false));
+        assertEquals(expectEliminated, eliminated);
+        assertEquals(expected, run(source, true, true));
+    }
+
+    public void testRepeatedSubexpression()
+    {
+        assertUnchanged("var a = 1; var b = 2;\nprint (a * b + 1) + (a * b + 1);", 5);
+        assertUnchanged("var a = 1; var b = 2;\nprint a * b;\nprint -(a * b) - -(a * b);", 8);
+    }
+
+    public void testWritesEndSharing()
+    {
+        assertUnchanged("var a = 1; var b = 2;\nprint a * b + (a = 3) + a * b;", 0);
+        assertUnchanged("var a = 1; var b = 2;\nvar c = a * b;\nvar a = 5;\nprint a * b;", 0);
+        assertUnchanged("var a = 1; var b = 2;\nprint a * b;\n{ a = 7; }\nprint a * b;", 0);
+        assertUnchanged("var a = 1;\nprint a + 1;\nif (true) a = 2;\nprint a + 1;", 0);
+    }
+
+    public void testRuntimeErrorsAreKept()
+    {
+        assertUnchanged("var s = \"x\";\nprint 1;\nprint -s + -s;", 2);
+        assertUnchanged("print 1;\nprint -u + -u;", 2);
+    }
+
+    public void testGeneratedPrograms()
+    {
+        int total = 0;
+        for (int seed = 1; seed <= 20; seed++) {
+            String source = ProgramGenerator.generate(new ProgramGenerator.Shape("test")
+                .statements(200).depth(4).expressionLength(6).repeats(0.5).seed(seed));
+            String expected = run(source, false, false);
+            assertEquals(expected, run(source, true, false));
+            total += eliminated;
+            assertEquals(expected, run(source, true, true));
+        }
+        assertTrue(total > 0);
+    }
+}